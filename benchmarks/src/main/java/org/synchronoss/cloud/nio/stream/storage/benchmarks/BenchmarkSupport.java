@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage.benchmarks;
+
+import org.synchronoss.cloud.nio.stream.storage.DeferredFileStreamStorageFactory;
+import org.synchronoss.cloud.nio.stream.storage.FileStreamStorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * <p> Helpers shared by the benchmarks.
+ *
+ * @author Silvano Riz
+ */
+final class BenchmarkSupport {
+
+    /**
+     * <p> Storage created via {@link FileStreamStorage#deferred(File, int)} with the default factory threshold.
+     */
+    static final String DEFERRED = "deferred";
+
+    /**
+     * <p> Storage created via {@link FileStreamStorage#directToFile(File, boolean)}.
+     */
+    static final String DIRECT_TO_FILE = "directToFile";
+
+    private BenchmarkSupport(){}
+
+    static File createTempFolder(final String prefix) throws IOException {
+        final File folder = File.createTempFile("nio-stream-storage-" + prefix, "");
+        if (!folder.delete() || !folder.mkdirs()){
+            throw new IOException("Unable to create the benchmark folder " + folder.getAbsolutePath());
+        }
+        return folder;
+    }
+
+    static void deleteFolder(final File folder){
+        final File[] files = folder.listFiles();
+        if (files != null){
+            for (File file : files){
+                if (file.isDirectory()){
+                    deleteFolder(file);
+                }else if (!file.delete()){
+                    file.deleteOnExit();
+                }
+            }
+        }
+        if (!folder.delete()){
+            folder.deleteOnExit();
+        }
+    }
+
+    static byte[] payload(final int size){
+        final byte[] payload = new byte[size];
+        new Random(size).nextBytes(payload);
+        return payload;
+    }
+
+    /**
+     * <p> Returns a CSV like payload, as compressible as typical text data.
+     */
+    static byte[] textPayload(final int size){
+        final Random random = new Random(size);
+        final StringBuilder text = new StringBuilder(size + 64);
+        for (int row = 0; text.length() < size; row++){
+            text.append(row).append(",customer-").append(random.nextInt(1000)).append(",")
+                    .append(random.nextInt(100000) / 100.0).append(",EUR,2015-0").append(1 + random.nextInt(9)).append("-1")
+                    .append(random.nextInt(10)).append(",").append(random.nextBoolean() ? "PAID" : "PENDING").append('\n');
+        }
+        return text.substring(0, size).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static FileStreamStorage newStorage(final String storageType, final File file){
+        switch (storageType){
+            case DEFERRED:
+                return FileStreamStorage.deferred(file, DeferredFileStreamStorageFactory.DEFAULT_MAX_THRESHOLD).deleteFilesOnDispose();
+            case DIRECT_TO_FILE:
+                return FileStreamStorage.directToFile(file, false).deleteFilesOnDispose();
+            default:
+                throw new IllegalArgumentException("Unknown storage type " + storageType);
+        }
+    }
+
+}
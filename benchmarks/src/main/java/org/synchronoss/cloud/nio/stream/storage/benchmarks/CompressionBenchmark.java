@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.synchronoss.cloud.nio.stream.storage.DeflateCodec;
+import org.synchronoss.cloud.nio.stream.storage.FileStreamStorage;
+import org.synchronoss.cloud.nio.stream.storage.StorageCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p> Measures a full write and read back of the data through the file of a {@link FileStreamStorage}, with and without
+ *     a {@link StorageCodec}, for compressible ({@code text}) and incompressible ({@code random}) data.
+ *
+ * <p> Besides the throughput, the {@code diskBytes} counter reports the bytes written to the file per second. The codec
+ *     pays off when the throughput without it is limited by the disk: compare the {@code diskBytes} rate of the {@code none}
+ *     codec with the bandwidth of the target disk. With the data served by the page cache, as it happens for short runs
+ *     on a machine with enough memory, the cost of the codec is measured but its benefit is not.
+ *
+ * @author Silvano Riz
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"65536", "1048576"})
+    int payloadSize;
+
+    @Param({"text", "random"})
+    String payloadType;
+
+    @Param({"none", "fast", "deflate"})
+    String codec;
+
+    File folder;
+    File file;
+    byte[] payload;
+    StorageCodec storageCodec;
+    final byte[] readBuffer = new byte[8192];
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class DiskUsage {
+
+        public long diskBytes;
+
+        @Setup(Level.Iteration)
+        public void reset(){
+            diskBytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        folder = BenchmarkSupport.createTempFolder("compression");
+        file = new File(folder, "stream-object.tmp");
+        payload = "text".equals(payloadType) ? BenchmarkSupport.textPayload(payloadSize) : BenchmarkSupport.payload(payloadSize);
+        switch (codec){
+            case "none":
+                storageCodec = null;
+                break;
+            case "fast":
+                storageCodec = DeflateCodec.fast();
+                break;
+            case "deflate":
+                storageCodec = new DeflateCodec();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown codec " + codec);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        BenchmarkSupport.deleteFolder(folder);
+    }
+
+    @Benchmark
+    public long writeAndReadBack(final DiskUsage diskUsage) throws IOException {
+        final FileStreamStorage storage = FileStreamStorage.directToFile(file, false).codec(storageCodec).deleteFilesOnDispose();
+        try {
+            for (int offset = 0; offset < payload.length; offset += 8192){
+                storage.write(payload, offset, Math.min(8192, payload.length - offset));
+            }
+            storage.close();
+            diskUsage.diskBytes += file.length();
+            long total = 0;
+            final InputStream inputStream = storage.getInputStream();
+            try {
+                int read;
+                while ((read = inputStream.read(readBuffer)) != -1){
+                    total += read;
+                }
+            }finally {
+                inputStream.close();
+            }
+            return total;
+        }finally {
+            storage.dispose();
+        }
+    }
+
+}
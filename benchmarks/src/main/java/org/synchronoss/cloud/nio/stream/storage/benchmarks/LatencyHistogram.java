@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p> Thread safe histogram of latencies in microseconds, with a relative error below 1/16 (6.25%).
+ *
+ * <p> Values below 16 have their own bucket, then each power of two is split in 16 buckets. Recording is a couple of
+ *     atomic increments, so thousands of threads can share the same histogram without skewing the measure.
+ *
+ * @author Silvano Riz
+ */
+final class LatencyHistogram {
+
+    static final int SUB_BUCKETS_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKETS_BITS;
+    static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKETS_BITS) * SUB_BUCKETS;
+
+    final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    final AtomicLong count = new AtomicLong(0);
+    final AtomicLong sum = new AtomicLong(0);
+    final AtomicLong max = new AtomicLong(0);
+
+    void recordNanos(final long nanos){
+        record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    void record(final long micros){
+        final long value = Math.max(micros, 0);
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current;
+        while ((current = max.get()) < value && !max.compareAndSet(current, value)){
+            // Retry
+        }
+    }
+
+    /**
+     * <p> Returns a copy of the histogram and clears this one. Values recorded while copying end up in one of the two.
+     */
+    LatencyHistogram snapshotAndReset(){
+        final LatencyHistogram snapshot = new LatencyHistogram();
+        for (int i = 0; i < BUCKETS; i++){
+            final long bucketCount = counts.getAndSet(i, 0);
+            if (bucketCount > 0){
+                snapshot.counts.set(i, bucketCount);
+            }
+        }
+        snapshot.count.set(count.getAndSet(0));
+        snapshot.sum.set(sum.getAndSet(0));
+        snapshot.max.set(max.getAndSet(0));
+        return snapshot;
+    }
+
+    void reset(){
+        snapshotAndReset();
+    }
+
+    long getCount(){
+        return count.get();
+    }
+
+    long getMaxMicros(){
+        return max.get();
+    }
+
+    long getMeanMicros(){
+        final long values = count.get();
+        return values == 0 ? 0 : sum.get() / values;
+    }
+
+    /**
+     * <p> Returns the upper bound of the bucket holding the given percentile, capped to the max recorded value.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     */
+    long getPercentileMicros(final double percentile){
+        final long values = count.get();
+        if (values == 0){
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(values * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++){
+            seen += counts.get(i);
+            if (seen >= rank){
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    static int bucket(final long value){
+        if (value < SUB_BUCKETS){
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKETS_BITS;
+        final int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBound(final int bucket){
+        if (bucket < SUB_BUCKETS){
+            return bucket;
+        }
+        final int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        final int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+
+}
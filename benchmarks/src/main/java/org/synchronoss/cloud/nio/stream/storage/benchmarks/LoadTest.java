@@ -0,0 +1,503 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage.benchmarks;
+
+import org.synchronoss.cloud.nio.stream.storage.DeferredFileStreamStorageFactory;
+import org.synchronoss.cloud.nio.stream.storage.StreamStorage;
+import org.synchronoss.cloud.nio.stream.storage.StreamStorageMetrics;
+import org.synchronoss.cloud.nio.stream.storage.TempFilePool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p> Load generator simulating concurrent multipart uploads against a {@link DeferredFileStreamStorageFactory}.
+ *
+ * <p> Thousands of writer threads create storages, write payloads picked from a size distribution in chunks (as a
+ *     multipart parser would) and close them. The closed storages are handed to the reader threads, which read them back
+ *     and dispose them following a disposal pattern: right away, after a delay (e.g. a slow downstream consumer) or never
+ *     (leaked storages, reclaimed via {@link DeferredFileStreamStorageFactory#setReclaimOrphanFiles(boolean)}).
+ *
+ * <p> Unlike the JMH benchmarks, the load test shows the contention, the disk saturation and the GC behaviour of a
+ *     loaded server. Every report interval it prints the throughput, the p99 latencies, the heap and the temp disk in use,
+ *     then a summary of the measurement. Run it with {@code help} for the available options.
+ *
+ * @author Silvano Riz
+ */
+public class LoadTest {
+
+    static final String DEFAULT_SIZES = "1k-16k:70,16k-256k:20,256k-4m:9,4m-32m:1";
+    static final String IMMEDIATE = "immediate";
+    static final String DELAYED = "delayed";
+    static final String LEAK = "leak";
+
+    static final Map<String, String> OPTIONS = new LinkedHashMap<String, String>();
+    static {
+        OPTIONS.put("writers", "1000|Concurrent writer threads");
+        OPTIONS.put("readers", "1000|Concurrent reader threads, 0 to dispose the storages without reading them");
+        OPTIONS.put("duration", "60|Measurement time in seconds");
+        OPTIONS.put("warmup", "10|Warm up time in seconds, excluded from the summary");
+        OPTIONS.put("interval", "5|Seconds between two reports");
+        OPTIONS.put("sizes", DEFAULT_SIZES + "|Payload sizes as size:weight pairs, a size can be a min-max range");
+        OPTIONS.put("chunkSize", "8192|Size of each write");
+        OPTIONS.put("knownSize", "false|Pass the payload size to create(long), as with a Content-Length");
+        OPTIONS.put("disposal", IMMEDIATE + "|Disposal pattern as immediate|delayed|leak:weight pairs");
+        OPTIONS.put("disposeDelay", "1000|Delay in milliseconds of the delayed disposals");
+        OPTIONS.put("folder", "|Temp folder, a new folder under java.io.tmpdir if not set");
+        OPTIONS.put("threshold", DeferredFileStreamStorageFactory.DEFAULT_MAX_THRESHOLD + "|Max bytes kept in memory per storage");
+        OPTIONS.put("maxMemory", "-1|Memory shared by all the storages, -1 for no limit");
+        OPTIONS.put("writeBufferSize", "0|Size of the buffer coalescing the writes to disk");
+        OPTIONS.put("spillThreads", "0|Threads flushing the memory to disk, 0 to flush on the writer thread");
+        OPTIONS.put("tempFiles", "0|Size of the pool of recycled temp files");
+        OPTIONS.put("shardLevels", "0|Levels of sub folders the temp files are spread on");
+    }
+
+    final Map<String, String> options;
+    final int writers;
+    final int readers;
+    final int chunkSize;
+    final boolean knownSize;
+    final long disposeDelayMillis;
+    final WeightedDistribution sizes;
+    final WeightedDistribution disposal;
+    final File folder;
+    final boolean deleteFolder;
+    final DeferredFileStreamStorageFactory factory;
+    final StreamStorageMetrics metrics;
+    final byte[] payload;
+    final BlockingQueue<StoredPayload> storedPayloads;
+    final ScheduledThreadPoolExecutor disposer;
+    final List<Thread> threads = new ArrayList<Thread>();
+    volatile boolean running = true;
+
+    final LatencyHistogram writeLatency = new LatencyHistogram();
+    final LatencyHistogram readLatency = new LatencyHistogram();
+    final LatencyHistogram intervalWriteLatency = new LatencyHistogram();
+    final LatencyHistogram intervalReadLatency = new LatencyHistogram();
+    final AtomicLong writes = new AtomicLong(0);
+    final AtomicLong writtenBytes = new AtomicLong(0);
+    final AtomicLong reads = new AtomicLong(0);
+    final AtomicLong readBytes = new AtomicLong(0);
+    final AtomicLong leaked = new AtomicLong(0);
+    final AtomicLong errors = new AtomicLong(0);
+    final AtomicReference<Throwable> firstError = new AtomicReference<Throwable>();
+
+    static class StoredPayload {
+        final StreamStorage streamStorage;
+        final int size;
+
+        StoredPayload(final StreamStorage streamStorage, final int size) {
+            this.streamStorage = streamStorage;
+            this.size = size;
+        }
+    }
+
+    LoadTest(final Map<String, String> options) throws IOException {
+        this.options = options;
+        this.writers = intOption("writers");
+        this.readers = intOption("readers");
+        this.chunkSize = intOption("chunkSize");
+        this.knownSize = Boolean.parseBoolean(option("knownSize"));
+        this.disposeDelayMillis = longOption("disposeDelay");
+        this.sizes = new WeightedDistribution(option("sizes"));
+        this.disposal = new WeightedDistribution(option("disposal"));
+        disposal.validate(IMMEDIATE, DELAYED, LEAK);
+        if (writers <= 0 || readers < 0 || chunkSize <= 0){
+            throw new IllegalArgumentException("writers and chunkSize must be positive, readers must not be negative");
+        }
+
+        this.deleteFolder = option("folder").isEmpty();
+        this.folder = deleteFolder ? BenchmarkSupport.createTempFolder("load-test") : new File(option("folder"));
+        this.factory = new DeferredFileStreamStorageFactory(folder.getAbsolutePath(), intOption("threshold"));
+        factory.setDeleteFilesOnDispose(true);
+        factory.setMaxMemory(longOption("maxMemory"));
+        factory.setWriteBufferSize(intOption("writeBufferSize"));
+        factory.setShardLevels(intOption("shardLevels"));
+        if (intOption("spillThreads") > 0){
+            factory.setSpillExecutor(Executors.newFixedThreadPool(intOption("spillThreads"), daemonThreads("spill")));
+        }
+        if (intOption("tempFiles") > 0){
+            factory.setTempFilePool(new TempFilePool(intOption("tempFiles")));
+        }
+        // The leaked storages are found by the GC, their files are deleted as they are collected
+        factory.setReclaimOrphanFiles(disposal.contains(LEAK));
+        this.metrics = factory.newMetrics();
+
+        this.payload = BenchmarkSupport.payload(sizes.maxSize());
+        this.storedPayloads = readers > 0 ? new ArrayBlockingQueue<StoredPayload>(readers) : null;
+        this.disposer = new ScheduledThreadPoolExecutor(1, daemonThreads("disposer"));
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, String> option : OPTIONS.entrySet()){
+            options.put(option.getKey(), option.getValue().substring(0, option.getValue().indexOf('|')));
+        }
+        for (String arg : args){
+            final int separator = arg.indexOf('=');
+            final String name = separator < 0 ? arg : arg.substring(0, separator);
+            if (separator < 0 || !OPTIONS.containsKey(name)){
+                printUsage();
+                System.exit("help".equals(name) ? 0 : 1);
+            }
+            options.put(name, arg.substring(separator + 1));
+        }
+        new LoadTest(options).run(intOption(options, "warmup"), intOption(options, "duration"), intOption(options, "interval"));
+    }
+
+    static void printUsage(){
+        System.out.println("Usage: java -cp benchmarks.jar " + LoadTest.class.getName() + " [name=value ...]");
+        for (Map.Entry<String, String> option : OPTIONS.entrySet()){
+            final String[] defaultAndDescription = option.getValue().split("\\|", 2);
+            System.out.printf("  %-16s %s (default: %s)%n", option.getKey(), defaultAndDescription[1],
+                    defaultAndDescription[0].isEmpty() ? "none" : defaultAndDescription[0]);
+        }
+    }
+
+    void run(final int warmupSeconds, final int durationSeconds, final int intervalSeconds) throws InterruptedException {
+        System.out.println("Load test on " + folder.getAbsolutePath() + " with " + options);
+        for (int i = 0; i < writers; i++){
+            start(new Runnable() {
+                @Override
+                public void run() {
+                    write();
+                }
+            }, "writer-" + i);
+        }
+        for (int i = 0; i < readers; i++){
+            start(new Runnable() {
+                @Override
+                public void run() {
+                    read();
+                }
+            }, "reader-" + i);
+        }
+
+        final Sampler sampler = new Sampler();
+        final long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        final long end = warmupEnd + TimeUnit.SECONDS.toNanos(durationSeconds);
+        boolean warmingUp = warmupSeconds > 0;
+        if (!warmingUp){
+            sampler.startMeasurement();
+        }
+        sampler.printHeader();
+        long now;
+        while ((now = System.nanoTime()) < end){
+            final long nextReport = Math.min(now + TimeUnit.SECONDS.toNanos(intervalSeconds), warmingUp ? warmupEnd : end);
+            TimeUnit.NANOSECONDS.sleep(Math.max(nextReport - now, 0));
+            sampler.report(warmingUp);
+            if (warmingUp && System.nanoTime() >= warmupEnd){
+                warmingUp = false;
+                sampler.startMeasurement();
+            }
+        }
+        sampler.printSummary();
+        stop();
+    }
+
+    void write(){
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (running){
+            final int size = sizes.nextSize(random);
+            final long start = System.nanoTime();
+            final StreamStorage streamStorage = knownSize ? factory.create(size) : factory.create();
+            try {
+                for (int offset = 0; offset < size; offset += chunkSize){
+                    streamStorage.write(payload, offset, Math.min(chunkSize, size - offset));
+                }
+                streamStorage.close();
+            }catch (Throwable t){
+                failed(t);
+                streamStorage.dispose();
+                continue;
+            }
+            final long latency = System.nanoTime() - start;
+            writeLatency.recordNanos(latency);
+            intervalWriteLatency.recordNanos(latency);
+            writes.incrementAndGet();
+            writtenBytes.addAndGet(size);
+            if (storedPayloads == null){
+                dispose(streamStorage, random);
+            }else if (!handOver(new StoredPayload(streamStorage, size))){
+                streamStorage.dispose();
+            }
+        }
+    }
+
+    boolean handOver(final StoredPayload storedPayload){
+        try {
+            while (running){
+                if (storedPayloads.offer(storedPayload, 100, TimeUnit.MILLISECONDS)){
+                    return true;
+                }
+            }
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    void read(){
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final byte[] buffer = new byte[8192];
+        while (running){
+            final StoredPayload storedPayload;
+            try {
+                storedPayload = storedPayloads.poll(100, TimeUnit.MILLISECONDS);
+            }catch (InterruptedException e){
+                return;
+            }
+            if (storedPayload == null){
+                continue;
+            }
+            final long start = System.nanoTime();
+            try {
+                long size = 0;
+                final InputStream inputStream = storedPayload.streamStorage.getInputStream();
+                try {
+                    int read;
+                    while ((read = inputStream.read(buffer)) != -1){
+                        size += read;
+                    }
+                }finally {
+                    inputStream.close();
+                }
+                if (size != storedPayload.size){
+                    throw new IOException("Read " + size + " bytes instead of " + storedPayload.size);
+                }
+            }catch (Throwable t){
+                failed(t);
+                storedPayload.streamStorage.dispose();
+                continue;
+            }
+            final long latency = System.nanoTime() - start;
+            readLatency.recordNanos(latency);
+            intervalReadLatency.recordNanos(latency);
+            reads.incrementAndGet();
+            readBytes.addAndGet(storedPayload.size);
+            dispose(storedPayload.streamStorage, random);
+        }
+    }
+
+    void dispose(final StreamStorage streamStorage, final ThreadLocalRandom random){
+        switch (disposal.next(random)){
+            case IMMEDIATE:
+                streamStorage.dispose();
+                break;
+            case DELAYED:
+                disposer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        streamStorage.dispose();
+                    }
+                }, disposeDelayMillis, TimeUnit.MILLISECONDS);
+                break;
+            default:
+                leaked.incrementAndGet();
+        }
+    }
+
+    void failed(final Throwable throwable){
+        errors.incrementAndGet();
+        if (firstError.compareAndSet(null, throwable)){
+            System.err.println("First error:");
+            throwable.printStackTrace();
+        }
+    }
+
+    void stop() throws InterruptedException {
+        running = false;
+        for (Thread thread : threads){
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        }
+        if (storedPayloads != null){
+            StoredPayload storedPayload;
+            while ((storedPayload = storedPayloads.poll()) != null){
+                storedPayload.streamStorage.dispose();
+            }
+        }
+        // The delayed disposals still run after the shutdown
+        disposer.shutdown();
+        disposer.awaitTermination(disposeDelayMillis + TimeUnit.SECONDS.toMillis(30), TimeUnit.MILLISECONDS);
+        System.out.printf("Stopped: %d storages not disposed (%d leaked on purpose), %s of temp disk still in use%n",
+                metrics.getLiveStorages(), leaked.get(), megabytes(metrics.getDiskBytes()));
+        if (deleteFolder){
+            BenchmarkSupport.deleteFolder(folder);
+        }
+    }
+
+    void start(final Runnable runnable, final String name){
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+
+    /**
+     * <p> Samples the counters, the heap and the disk, and prints the reports.
+     */
+    class Sampler {
+
+        final long startTime = System.nanoTime();
+        long lastTime = startTime;
+        long lastWrites, lastWrittenBytes, lastReads, lastReadBytes, lastGcTime;
+        long measurementStart, measurementGcCount, measurementGcTime, measurementSpills;
+        long peakHeap, peakStorageMemory, peakDisk;
+
+        void printHeader(){
+            System.out.printf("%-8s %10s %10s %10s %10s %12s %12s %10s %10s %10s %8s %8s%n", "time", "writes/s",
+                    "write MB/s", "reads/s", "read MB/s", "write p99 ms", "read p99 ms", "heap MB", "memory MB", "disk MB",
+                    "live", "gc ms");
+        }
+
+        void report(final boolean warmingUp){
+            final long now = System.nanoTime();
+            final double seconds = (now - lastTime) / 1e9;
+            lastTime = now;
+            final long currentWrites = writes.get(), currentWrittenBytes = writtenBytes.get();
+            final long currentReads = reads.get(), currentReadBytes = readBytes.get();
+            final long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            final long storageMemory = metrics.getMemoryBytes();
+            final long disk = metrics.getDiskBytes();
+            final long currentGcTime = gcTime();
+            if (!warmingUp){
+                peakHeap = Math.max(peakHeap, heap);
+                peakStorageMemory = Math.max(peakStorageMemory, storageMemory);
+                peakDisk = Math.max(peakDisk, disk);
+            }
+            System.out.printf("%-8s %10.0f %10.1f %10.0f %10.1f %12.2f %12.2f %10d %10d %10d %8d %8d%n",
+                    (warmingUp ? "w " : "") + TimeUnit.NANOSECONDS.toSeconds(now - startTime) + "s",
+                    (currentWrites - lastWrites) / seconds, (currentWrittenBytes - lastWrittenBytes) / seconds / 1024 / 1024,
+                    (currentReads - lastReads) / seconds, (currentReadBytes - lastReadBytes) / seconds / 1024 / 1024,
+                    intervalWriteLatency.snapshotAndReset().getPercentileMicros(99) / 1000.0,
+                    intervalReadLatency.snapshotAndReset().getPercentileMicros(99) / 1000.0,
+                    heap / 1024 / 1024, storageMemory / 1024 / 1024, disk / 1024 / 1024, metrics.getLiveStorages(), currentGcTime - lastGcTime);
+            lastWrites = currentWrites;
+            lastWrittenBytes = currentWrittenBytes;
+            lastReads = currentReads;
+            lastReadBytes = currentReadBytes;
+            lastGcTime = currentGcTime;
+        }
+
+        void startMeasurement(){
+            writeLatency.reset();
+            readLatency.reset();
+            // The counters restart from 0, the next report computes its rates from there
+            writes.set(0);
+            writtenBytes.set(0);
+            reads.set(0);
+            readBytes.set(0);
+            errors.set(0);
+            lastWrites = lastWrittenBytes = lastReads = lastReadBytes = 0;
+            measurementStart = System.nanoTime();
+            measurementGcCount = gcCount();
+            measurementGcTime = gcTime();
+            measurementSpills = metrics.getSpills();
+        }
+
+        void printSummary(){
+            final double seconds = (System.nanoTime() - measurementStart) / 1e9;
+            System.out.println();
+            System.out.printf("Summary of %.0fs with %d writers and %d readers%n", seconds, writers, readers);
+            System.out.printf("  writes         %d (%.0f/s, %.1f MB/s)%n", writes.get(), writes.get() / seconds,
+                    writtenBytes.get() / seconds / 1024 / 1024);
+            System.out.printf("  reads          %d (%.0f/s, %.1f MB/s)%n", reads.get(), reads.get() / seconds,
+                    readBytes.get() / seconds / 1024 / 1024);
+            printLatency("  write latency ", writeLatency);
+            printLatency("  read latency  ", readLatency);
+            System.out.printf("  spills         %d (spill p99 %.2f ms)%n", metrics.getSpills() - measurementSpills,
+                    metrics.getSpillTimeP99Micros() / 1000.0);
+            System.out.printf("  peak heap      %s (gc: %d collections, %d ms)%n", megabytes(peakHeap),
+                    gcCount() - measurementGcCount, gcTime() - measurementGcTime);
+            System.out.printf("  peak memory    %s held by the storages%n", megabytes(peakStorageMemory));
+            System.out.printf("  peak temp disk %s%n", megabytes(peakDisk));
+            System.out.printf("  errors         %d%n", errors.get());
+        }
+
+        void printLatency(final String label, final LatencyHistogram histogram){
+            System.out.printf("%s p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms%n", label,
+                    histogram.getPercentileMicros(50) / 1000.0, histogram.getPercentileMicros(99) / 1000.0,
+                    histogram.getPercentileMicros(99.9) / 1000.0, histogram.getMaxMicros() / 1000.0);
+        }
+
+        long gcCount(){
+            long count = 0;
+            for (GarbageCollectorMXBean garbageCollector : ManagementFactory.getGarbageCollectorMXBeans()){
+                count += Math.max(garbageCollector.getCollectionCount(), 0);
+            }
+            return count;
+        }
+
+        long gcTime(){
+            long time = 0;
+            for (GarbageCollectorMXBean garbageCollector : ManagementFactory.getGarbageCollectorMXBeans()){
+                time += Math.max(garbageCollector.getCollectionTime(), 0);
+            }
+            return time;
+        }
+    }
+
+    String option(final String name){
+        return options.get(name);
+    }
+
+    int intOption(final String name){
+        return intOption(options, name);
+    }
+
+    long longOption(final String name){
+        return Long.parseLong(option(name).trim());
+    }
+
+    static int intOption(final Map<String, String> options, final String name){
+        return Integer.parseInt(options.get(name).trim());
+    }
+
+    static String megabytes(final long bytes){
+        return String.format("%.1f MB", bytes / 1024.0 / 1024.0);
+    }
+
+    static ThreadFactory daemonThreads(final String prefix){
+        final AtomicInteger counter = new AtomicInteger(0);
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.synchronoss.cloud.nio.stream.storage.FileStreamStorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p> Measures the read back of the data via {@link FileStreamStorage#getInputStream()} when the data is kept in memory
+ *     ({@code MEMORY}) and when it has been written to the file ({@code DISK}).
+ *
+ * @author Silvano Riz
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadBenchmark {
+
+    @Param({"1024", "10240", "1048576"})
+    int payloadSize;
+
+    @Param({"MEMORY", "DISK"})
+    String storageMode;
+
+    File folder;
+    FileStreamStorage storage;
+    final byte[] readBuffer = new byte[8192];
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        folder = BenchmarkSupport.createTempFolder("read");
+        final File file = new File(folder, "stream-object.tmp");
+        if ("MEMORY".equals(storageMode)){
+            storage = FileStreamStorage.deferred(file, payloadSize).deleteFilesOnDispose();
+        }else{
+            storage = FileStreamStorage.directToFile(file, false).deleteFilesOnDispose();
+        }
+        storage.write(BenchmarkSupport.payload(payloadSize));
+        storage.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        storage.dispose();
+        BenchmarkSupport.deleteFolder(folder);
+    }
+
+    @Benchmark
+    public long readBack() throws IOException {
+        long total = 0;
+        final InputStream inputStream = storage.getInputStream();
+        try {
+            int read;
+            while ((read = inputStream.read(readBuffer)) != -1){
+                total += read;
+            }
+        }finally {
+            inputStream.close();
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.synchronoss.cloud.nio.stream.storage.FileStreamStorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p> Measures the latency of the write that crosses the threshold of a deferred {@link FileStreamStorage}, i.e. the
+ *     transition from the in memory storage to the file.
+ *
+ * <p> The storage is filled up to the threshold before every invocation, so the measured operation is a single byte write
+ *     that triggers the spill of {@code threshold} bytes to disk. The per invocation setup makes this benchmark only
+ *     meaningful for operations taking more than a few microseconds, which is the case for the spill.
+ *
+ * @author Silvano Riz
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpillBenchmark {
+
+    @Param({"10240", "102400", "1048576"})
+    int threshold;
+
+    File folder;
+    File file;
+    byte[] payload;
+    FileStreamStorage storage;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        folder = BenchmarkSupport.createTempFolder("spill");
+        file = new File(folder, "stream-object.tmp");
+        payload = BenchmarkSupport.payload(threshold);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        BenchmarkSupport.deleteFolder(folder);
+    }
+
+    @Setup(Level.Invocation)
+    public void fillUpToThreshold() throws IOException {
+        storage = FileStreamStorage.deferred(file, threshold).deleteFilesOnDispose();
+        storage.write(payload);
+    }
+
+    @TearDown(Level.Invocation)
+    public void disposeStorage(){
+        storage.dispose();
+    }
+
+    @Benchmark
+    public FileStreamStorage spill() throws IOException {
+        storage.write(0x01);
+        return storage;
+    }
+
+}
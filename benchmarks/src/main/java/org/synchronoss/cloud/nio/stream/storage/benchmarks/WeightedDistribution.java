@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p> Picks values at random according to their weights, parsed from a spec like {@code "1k-16k:70,16k-1m:25,4m:5"}.
+ *
+ * <p> Each entry is a {@code value:weight} pair, the weight is optional and defaults to 1. Values can be plain names
+ *     (e.g. {@code immediate:90,leak:10}) or sizes: a size with a {@code k}, {@code m} or {@code g} suffix is multiplied
+ *     by 1024, 1024^2 or 1024^3, and a {@code min-max} range picks a size uniformly within it.
+ *
+ * @author Silvano Riz
+ */
+final class WeightedDistribution {
+
+    final List<String> values = new ArrayList<String>();
+    final List<Long> cumulativeWeights = new ArrayList<Long>();
+    final String spec;
+    long totalWeight = 0;
+
+    WeightedDistribution(final String spec) {
+        this.spec = spec;
+        for (String entry : spec.split(",")){
+            final String trimmed = entry.trim();
+            if (trimmed.isEmpty()){
+                continue;
+            }
+            final int separator = trimmed.lastIndexOf(':');
+            final String value = separator < 0 ? trimmed : trimmed.substring(0, separator).trim();
+            final long weight = separator < 0 ? 1 : Long.parseLong(trimmed.substring(separator + 1).trim());
+            if (weight < 0){
+                throw new IllegalArgumentException("Invalid weight in '" + spec + "'");
+            }
+            if (weight > 0){
+                totalWeight += weight;
+                values.add(value);
+                cumulativeWeights.add(totalWeight);
+            }
+        }
+        if (totalWeight == 0){
+            throw new IllegalArgumentException("No value with a positive weight in '" + spec + "'");
+        }
+    }
+
+    String next(final Random random){
+        final long pick = (long) (random.nextDouble() * totalWeight);
+        for (int i = 0; i < values.size(); i++){
+            if (pick < cumulativeWeights.get(i)){
+                return values.get(i);
+            }
+        }
+        return values.get(values.size() - 1);
+    }
+
+    int nextSize(final Random random){
+        return size(next(random), random);
+    }
+
+    boolean contains(final String value){
+        return values.contains(value);
+    }
+
+    /**
+     * <p> Returns the largest size the distribution can pick.
+     */
+    int maxSize(){
+        int maxSize = 0;
+        for (String value : values){
+            final int dash = value.indexOf('-');
+            maxSize = Math.max(maxSize, parseSize(dash < 0 ? value : value.substring(dash + 1)));
+        }
+        return maxSize;
+    }
+
+    /**
+     * <p> Checks that the values are sizes or names among the given ones.
+     */
+    void validate(final String... names){
+        for (String value : values){
+            boolean known = false;
+            for (String name : names){
+                known |= name.equals(value);
+            }
+            if (!known){
+                throw new IllegalArgumentException("Unknown value '" + value + "' in '" + spec + "'");
+            }
+        }
+    }
+
+    static int size(final String value, final Random random){
+        final int dash = value.indexOf('-');
+        if (dash < 0){
+            return parseSize(value);
+        }
+        final int min = parseSize(value.substring(0, dash));
+        final int max = parseSize(value.substring(dash + 1));
+        if (max < min){
+            throw new IllegalArgumentException("Invalid size range " + value);
+        }
+        return min + random.nextInt(max - min + 1);
+    }
+
+    static int parseSize(final String size){
+        final String trimmed = size.trim().toLowerCase();
+        long multiplier = 1;
+        String digits = trimmed;
+        if (trimmed.endsWith("k")){
+            multiplier = 1024;
+        }else if (trimmed.endsWith("m")){
+            multiplier = 1024 * 1024;
+        }else if (trimmed.endsWith("g")){
+            multiplier = 1024 * 1024 * 1024;
+        }
+        if (multiplier > 1){
+            digits = trimmed.substring(0, trimmed.length() - 1);
+        }
+        final long bytes = Long.parseLong(digits) * multiplier;
+        if (bytes < 0 || bytes > Integer.MAX_VALUE - 8){
+            throw new IllegalArgumentException("Invalid size " + size);
+        }
+        return (int) bytes;
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
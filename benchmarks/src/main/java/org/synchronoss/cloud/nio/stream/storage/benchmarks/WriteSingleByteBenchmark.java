@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.synchronoss.cloud.nio.stream.storage.FileStreamStorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p> Measures the full write life cycle of a {@link FileStreamStorage} (create, write, close and dispose) when the
+ *     data is written one byte at the time via {@link FileStreamStorage#write(int)}, as done by most multipart parsers.
+ *
+ * @author Silvano Riz
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteSingleByteBenchmark {
+
+    @Param({"1024", "10240", "102400"})
+    int payloadSize;
+
+    @Param({BenchmarkSupport.DEFERRED, BenchmarkSupport.DIRECT_TO_FILE})
+    String storageType;
+
+    @Param({"0", "8192"})
+    int writeBufferSize;
+
+    File folder;
+    File file;
+    byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        folder = BenchmarkSupport.createTempFolder("write-single-byte");
+        file = new File(folder, "stream-object.tmp");
+        payload = BenchmarkSupport.payload(payloadSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        BenchmarkSupport.deleteFolder(folder);
+    }
+
+    @Benchmark
+    public FileStreamStorage writeSingleBytes() throws IOException {
+        final FileStreamStorage storage = BenchmarkSupport.newStorage(storageType, file).writeBufferSize(writeBufferSize);
+        for (byte b : payload){
+            storage.write(b);
+        }
+        storage.close();
+        storage.dispose();
+        return storage;
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p> Base class of the {@link StorageTier}s that bound the total amount of data kept in the tier by all the storages.
+ *
+ * @author Silvano Riz
+ */
+public abstract class BoundedStorageTier implements StorageTier {
+
+    final long threshold;
+    final long maxSize;
+    final AtomicLong usedSize = new AtomicLong(0);
+
+    /**
+     * <p> Constructor.
+     *
+     * @param threshold The maximum amount of data in bytes a single storage can keep in the tier, or -1 for no limit.
+     * @param maxSize The maximum amount of data in bytes all the storages can keep in the tier, or -1 for no limit.
+     */
+    protected BoundedStorageTier(final long threshold, final long maxSize) {
+        if (threshold < -1){
+            throw new IllegalArgumentException("Invalid threshold " + threshold);
+        }
+        if (maxSize < -1){
+            throw new IllegalArgumentException("Invalid max size " + maxSize);
+        }
+        this.threshold = threshold;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean reserve(final long size, final long length) {
+        final long room = roomFor(size + length) - roomFor(size);
+        if (room <= 0){
+            return true;
+        }
+        if (maxSize < 0){
+            usedSize.addAndGet(room);
+            return true;
+        }
+        long used;
+        do {
+            used = usedSize.get();
+            if (used + room > maxSize){
+                return false;
+            }
+        } while (!usedSize.compareAndSet(used, used + room));
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void release(final long size) {
+        final long room = roomFor(size);
+        if (room > 0){
+            usedSize.addAndGet(-room);
+        }
+    }
+
+    /**
+     * <p> Returns the maximum amount of data all the storages can keep in the tier.
+     *
+     * @return the maximum size in bytes, or -1 if there is no limit.
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * <p> Returns the amount of room currently reserved by the storages in the tier.
+     *
+     * @return the used size in bytes.
+     */
+    public long getUsedSize() {
+        return usedSize.get();
+    }
+
+    /**
+     * <p> Returns the room taken in the tier by a storage holding {@code size} bytes, by default {@code size} itself.
+     *
+     * @param size The size of the data in bytes.
+     * @return The room in bytes.
+     */
+    long roomFor(final long size){
+        return size;
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+/**
+ * <p> A source of {@code ByteBuffer}s emitted to a {@link ByteBufferSubscriber} on demand.
+ *
+ * <p> The contract is the one of {@code java.util.concurrent.Flow.Publisher} (Java 9) and of the Reactive Streams
+ *     {@code Publisher}, which the library cannot depend on as it targets Java 7. Bridging them is a matter of delegating
+ *     the calls one to one.
+ *
+ * @author Silvano Riz
+ * @see StreamStoragePublisher
+ */
+public interface ByteBufferPublisher {
+
+    /**
+     * <p> Subscribes the given subscriber, which receives {@link ByteBufferSubscriber#onSubscribe(ByteBufferSubscription)}
+     *     and then the buffers it requests.
+     *
+     * @param subscriber The subscriber.
+     */
+    void subscribe(ByteBufferSubscriber subscriber);
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p> A receiver of {@code ByteBuffer}s requested via a {@link ByteBufferSubscription}.
+ *
+ * <p> The contract is the one of {@code java.util.concurrent.Flow.Subscriber} (Java 9) and of the Reactive Streams
+ *     {@code Subscriber}: the methods are called serially, {@link #onNext(ByteBuffer)} is called at most as many times as
+ *     requested, and {@link #onError(Throwable)} or {@link #onComplete()} end the subscription.
+ *
+ * @author Silvano Riz
+ * @see StreamStorageSubscriber
+ */
+public interface ByteBufferSubscriber {
+
+    /**
+     * <p> Called once, before any other method.
+     *
+     * @param subscription The subscription used to request the buffers or to cancel.
+     */
+    void onSubscribe(ByteBufferSubscription subscription);
+
+    /**
+     * <p> Called for each buffer. The buffer is owned by the subscriber from now on.
+     *
+     * @param byteBuffer The buffer.
+     */
+    void onNext(ByteBuffer byteBuffer);
+
+    /**
+     * <p> Called if the publisher fails. No other method is called after it.
+     *
+     * @param throwable The failure.
+     */
+    void onError(Throwable throwable);
+
+    /**
+     * <p> Called when all the buffers have been emitted. No other method is called after it.
+     */
+    void onComplete();
+
+}
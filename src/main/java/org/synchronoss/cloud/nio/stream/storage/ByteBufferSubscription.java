@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+/**
+ * <p> Link between a {@link ByteBufferPublisher} and a {@link ByteBufferSubscriber}, used by the subscriber to signal
+ *     its demand. Same contract as {@code java.util.concurrent.Flow.Subscription} (Java 9).
+ *
+ * @author Silvano Riz
+ */
+public interface ByteBufferSubscription {
+
+    /**
+     * <p> Adds {@code n} buffers to the demand of the subscriber. A non positive {@code n} fails the subscription with
+     *     an {@code IllegalArgumentException}.
+     *
+     * @param n The number of buffers.
+     */
+    void request(long n);
+
+    /**
+     * <p> Stops the emission of the buffers. Some buffers can still be emitted after it, if they are already on their way.
+     */
+    void cancel();
+
+}
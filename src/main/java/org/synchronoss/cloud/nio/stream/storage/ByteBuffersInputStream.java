@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * <p> An {@code InputStream} that reads sequentially from an array of {@code ByteBuffer}s, heap or direct.
+ *
+ * <p> The buffers are read from their position to their limit and they are consumed while reading, so callers usually pass
+ *     read-only duplicates of the original buffers.
+ *
+ * <p> The class is NOT thread safe.
+ *
+ * @author Silvano Riz
+ */
+public class ByteBuffersInputStream extends InputStream {
+
+    private final ByteBuffer[] byteBuffers;
+    int bufferIndex = 0;
+
+    /**
+     * <p> Constructor.
+     *
+     * @param byteBuffers The buffers holding the data.
+     */
+    public ByteBuffersInputStream(final ByteBuffer[] byteBuffers) {
+        this.byteBuffers = byteBuffers;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() {
+        final ByteBuffer byteBuffer = nextBufferWithData();
+        return byteBuffer == null ? -1 : byteBuffer.get() & 0xFF;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || off > b.length - len) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0){
+            return 0;
+        }
+        int read = 0;
+        ByteBuffer byteBuffer;
+        while (read < len && (byteBuffer = nextBufferWithData()) != null){
+            final int toCopy = Math.min(len - read, byteBuffer.remaining());
+            byteBuffer.get(b, off + read, toCopy);
+            read += toCopy;
+        }
+        return read == 0 ? -1 : read;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long skip(long n) {
+        long skipped = 0;
+        ByteBuffer byteBuffer;
+        while (skipped < n && (byteBuffer = nextBufferWithData()) != null){
+            final int toSkip = (int) Math.min(n - skipped, byteBuffer.remaining());
+            byteBuffer.position(byteBuffer.position() + toSkip);
+            skipped += toSkip;
+        }
+        return skipped;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int available() {
+        long available = 0;
+        for (int i = bufferIndex; i < byteBuffers.length; i++){
+            available += byteBuffers[i].remaining();
+        }
+        return (int) Math.min(available, Integer.MAX_VALUE);
+    }
+
+    ByteBuffer nextBufferWithData(){
+        while (bufferIndex < byteBuffers.length){
+            final ByteBuffer byteBuffer = byteBuffers[bufferIndex];
+            if (byteBuffer.hasRemaining()){
+                return byteBuffer;
+            }
+            bufferIndex++;
+        }
+        return null;
+    }
+
+}
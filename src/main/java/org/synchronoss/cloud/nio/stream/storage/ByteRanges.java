@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p> Thread safe set of the byte ranges received by a storage. Overlapping and adjacent ranges are merged, so the
+ *     number of tracked ranges is the number of holes plus one.
+ *
+ * @author Silvano Riz
+ */
+final class ByteRanges {
+
+    // start (inclusive) -> end (exclusive)
+    private final TreeMap<Long, Long> ranges = new TreeMap<Long, Long>();
+
+    /**
+     * <p> Adds the range {@code [start, end)}.
+     *
+     * @param start The first position of the range, inclusive.
+     * @param end The last position of the range, exclusive.
+     */
+    synchronized void add(final long start, final long end){
+        if (end <= start){
+            return;
+        }
+        long newStart = start;
+        long newEnd = end;
+        final Map.Entry<Long, Long> floor = ranges.floorEntry(start);
+        if (floor != null && floor.getValue() >= start){
+            newStart = floor.getKey();
+            newEnd = Math.max(newEnd, floor.getValue());
+        }
+        Map.Entry<Long, Long> next = ranges.ceilingEntry(newStart);
+        while (next != null && next.getKey() <= newEnd){
+            newEnd = Math.max(newEnd, next.getValue());
+            ranges.remove(next.getKey());
+            next = ranges.ceilingEntry(newStart);
+        }
+        ranges.put(newStart, newEnd);
+    }
+
+    /**
+     * <p> Returns the first position not covered by the ranges, starting from 0.
+     *
+     * @return the end of the range starting at 0, or 0 if no such range exists.
+     */
+    synchronized long contiguousEnd(){
+        final Long end = ranges.get(0L);
+        return end == null ? 0 : end;
+    }
+
+    /**
+     * <p> Returns the highest position covered by the ranges.
+     *
+     * @return the end of the last range, or 0 if there are no ranges.
+     */
+    synchronized long end(){
+        return ranges.isEmpty() ? 0 : ranges.lastEntry().getValue();
+    }
+
+    /**
+     * <p> Returns the total number of bytes covered by the ranges.
+     *
+     * @return the number of bytes covered.
+     */
+    synchronized long coveredBytes(){
+        long covered = 0;
+        for (Map.Entry<Long, Long> range : ranges.entrySet()){
+            covered += range.getValue() - range.getKey();
+        }
+        return covered;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder sb = new StringBuilder("[");
+        for (Map.Entry<Long, Long> range : ranges.entrySet()){
+            if (sb.length() > 1){
+                sb.append(", ");
+            }
+            sb.append('[').append(range.getKey()).append(", ").append(range.getValue()).append(')');
+        }
+        return sb.append(']').toString();
+    }
+}
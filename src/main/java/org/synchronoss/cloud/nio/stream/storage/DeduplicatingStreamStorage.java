@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <p> A {@code StreamStorage} created by a {@link DeduplicatingStreamStorageFactory}, writing the data to another storage
+ *     while hashing it. Once closed it reads the data from the payload shared by all the identical storages of the factory.
+ *
+ * @author Silvano Riz
+ */
+public class DeduplicatingStreamStorage extends StreamStorage {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    final DeduplicatingStreamStorageFactory factory;
+    final StreamStorage storage;
+    final StorageDigest digest;
+    volatile long size = 0;
+    volatile boolean open = true;
+    volatile boolean disposed = false;
+    volatile DeduplicatingStreamStorageFactory.SharedPayload sharedPayload;
+
+    DeduplicatingStreamStorage(final DeduplicatingStreamStorageFactory factory, final StreamStorage storage, final boolean hash) {
+        this.factory = factory;
+        this.storage = storage;
+        this.digest = hash ? StorageDigest.newDigest(DeduplicatingStreamStorageFactory.DIGEST_ALGORITHM) : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final int b) throws IOException {
+        assertIsWritable();
+        storage.write(b);
+        if (digest != null){
+            digest.update(b);
+        }
+        size++;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        assertIsWritable();
+        storage.write(b, off, len);
+        if (digest != null){
+            digest.update(b, off, len);
+        }
+        size += len;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        assertIsWritable();
+        // Only the bytes actually written are hashed
+        final ByteBuffer hashed = digest != null ? src.duplicate() : null;
+        final int written = storage.write(src);
+        if (hashed != null){
+            hashed.limit(src.position());
+            digest.update(hashed);
+        }
+        size += written;
+        return written;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+        if (offset < 0 || length < 0 || offset > srcs.length - length) {
+            throw new IndexOutOfBoundsException();
+        }
+        assertIsWritable();
+        // Only the bytes actually written are hashed
+        ByteBuffer[] hashed = null;
+        if (digest != null){
+            hashed = new ByteBuffer[length];
+            for (int i = 0; i < length; i++){
+                hashed[i] = srcs[offset + i].duplicate();
+            }
+        }
+        final long written = storage.write(srcs, offset, length);
+        if (hashed != null){
+            for (int i = 0; i < length; i++){
+                hashed[i].limit(srcs[offset + i].position());
+                digest.update(hashed[i]);
+            }
+        }
+        size += written;
+        return written;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() throws IOException {
+        assertIsWritable();
+        storage.flush();
+    }
+
+    /**
+     * <p> Closes the storage and, if an identical payload is already stored, disposes the data just written.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!open){
+            return;
+        }
+        open = false;
+        storage.close();
+        if (digest == null || size < factory.minSize){
+            return;
+        }
+        final String key = toHex(digest.digest()) + "-" + size;
+        sharedPayload = factory.share(key, storage, size);
+        if (sharedPayload.storage != storage){
+            storage.dispose();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream getInputStream() {
+        assertIsReadable();
+        return readStorage().getInputStream();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long transferTo(final WritableByteChannel channel) throws IOException {
+        assertIsReadable();
+        return readStorage().transferTo(channel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long transferTo(final OutputStream outputStream) throws IOException {
+        assertIsReadable();
+        return readStorage().transferTo(outputStream);
+    }
+
+    /**
+     * <p> Disposes the storage. A shared payload is disposed only when the last storage reading it is disposed.
+     *
+     * @return The result of the dispose of the data, or true if other storages still read it.
+     */
+    @Override
+    public boolean dispose() {
+        if (disposed){
+            return true;
+        }
+        disposed = true;
+        open = false;
+        final DeduplicatingStreamStorageFactory.SharedPayload sharedPayload = this.sharedPayload;
+        if (sharedPayload != null){
+            return factory.release(sharedPayload);
+        }
+        return storage.dispose();
+    }
+
+    /**
+     * <p> Returns if the data of the storage is held by a payload shared with the identical storages of the factory.
+     *
+     * @return true if the data is held by a shared payload, false if the storage has not been closed yet or its data is not deduplicated.
+     */
+    public boolean isShared() {
+        return sharedPayload != null;
+    }
+
+    StreamStorage readStorage(){
+        final DeduplicatingStreamStorageFactory.SharedPayload sharedPayload = this.sharedPayload;
+        return sharedPayload != null ? sharedPayload.storage : storage;
+    }
+
+    void assertIsWritable(){
+        if (!open){
+            throw new IllegalStateException("OutputStream is closed");
+        }
+    }
+
+    void assertIsReadable(){
+        if (open){
+            throw new IllegalStateException("The DeduplicatingStreamStorage is still in write mode. Call the close() method when all the data has been written before asking for the InputStream.");
+        }
+        if (disposed){
+            throw new IllegalStateException("The DeduplicatingStreamStorage has been disposed");
+        }
+    }
+
+    static String toHex(final byte[] bytes){
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++){
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0x0F];
+            chars[2 * i + 1] = HEX[bytes[i] & 0x0F];
+        }
+        return new String(chars);
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Factory decorating another {@link StreamStorageFactory} to store identical payloads only once.
+ * <p> The created {@link DeduplicatingStreamStorage}s hash the data as it is written and, when they are closed, look for
+ *     a payload with the same hash and size stored by another storage of the factory. If there is one the storage reads
+ *     from it and disposes its own copy straight away, otherwise its copy becomes the one shared with the following
+ *     identical payloads. Shared payloads are reference counted and disposed with the last storage reading them, so
+ *     {@link StreamStorage#getInputStream()} and {@link StreamStorage#dispose()} keep working per storage.
+ *
+ * <p> The payloads are identified by their SHA-256 digest and their size. Payloads smaller than the min size are not
+ *     deduplicated, and when their size is known up front (see {@link #create(long)}) they are not hashed either.
+ *
+ * <p> As a shared payload is read by many storages, the decorated factory MUST NOT create storages deleting their data
+ *     when an {@code InputStream} is closed, and it should create storages deleting their data on dispose, otherwise
+ *     the duplicates are not freed. Only the built-in factories can be checked: a {@link DeferredFileStreamStorageFactory}
+ *     (including a {@link DirectBufferStreamStorageFactory}) deleting the files on close is rejected, while a custom factory
+ *     or a {@link TieredStreamStorageFactory} with custom {@link StorageTier}s deleting the data on close is not detected.
+ */
+public class DeduplicatingStreamStorageFactory implements SizeAwareStreamStorageFactory {
+
+    static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /**
+     * <p> Reference counted payload, shared by the storages holding the same data.
+     */
+    static class SharedPayload {
+        final String key;
+        final StreamStorage storage;
+        final long size;
+        int references = 1;
+
+        SharedPayload(final String key, final StreamStorage storage, final long size) {
+            this.key = key;
+            this.storage = storage;
+            this.size = size;
+        }
+    }
+
+    final StreamStorageFactory streamStorageFactory;
+    final long minSize;
+    // Guarded by itself. Closing and disposing are rare compared to writes, a plain lock is enough.
+    final Map<String, SharedPayload> sharedPayloads = new HashMap<String, SharedPayload>();
+    final AtomicLong deduplicatedBytes = new AtomicLong(0);
+
+    /**
+     * <p> Constructor.
+     *
+     * @param streamStorageFactory The factory creating the storages holding the data.
+     * @param minSize The minimum size in bytes of the payloads to deduplicate.
+     * @throws IllegalArgumentException if the decorated factory is known to create storages deleting their data when an {@code InputStream} is closed.
+     */
+    public DeduplicatingStreamStorageFactory(final StreamStorageFactory streamStorageFactory, final long minSize) {
+        if (deletesDataOnClose(streamStorageFactory)){
+            throw new IllegalArgumentException("The shared payloads cannot be deleted when an InputStream is closed");
+        }
+        if (minSize < 0){
+            throw new IllegalArgumentException("Invalid min size " + minSize);
+        }
+        this.streamStorageFactory = streamStorageFactory;
+        this.minSize = minSize;
+    }
+
+    /**
+     * <p> Returns if the storages created by the factory delete their data when an {@code InputStream} is closed. Only the
+     *     built-in factories are known: the built-in tiers of a {@link TieredStreamStorageFactory} and the storages of a
+     *     {@link DeduplicatingStreamStorageFactory} never delete the data on close.
+     *
+     * @param streamStorageFactory The factory.
+     * @return true if the storages delete their data on close, false if they do not or it cannot be told.
+     */
+    static boolean deletesDataOnClose(final StreamStorageFactory streamStorageFactory){
+        // A DirectBufferStreamStorageFactory is a DeferredFileStreamStorageFactory too
+        return streamStorageFactory instanceof DeferredFileStreamStorageFactory
+                && ((DeferredFileStreamStorageFactory) streamStorageFactory).deleteFilesOnClose;
+    }
+
+    /**
+     * <p> Constructor that deduplicates the payloads of any size.
+     *
+     * @param streamStorageFactory The factory creating the storages holding the data.
+     */
+    public DeduplicatingStreamStorageFactory(final StreamStorageFactory streamStorageFactory) {
+        this(streamStorageFactory, 0);
+    }
+
+    /**
+     * Creates a new {@link DeduplicatingStreamStorage}.
+     *
+     * @return a {@link StreamStorage} sharing its data with the identical ones.
+     */
+    @Override
+    public StreamStorage create() {
+        return new DeduplicatingStreamStorage(this, streamStorageFactory.create(), true);
+    }
+
+    /**
+     * <p> Creates a new {@link DeduplicatingStreamStorage} for data of the given size. If the size is smaller than the
+     *     min size the data is not hashed. The size is passed on to the decorated factory only if it is a
+     *     {@link SizeAwareStreamStorageFactory}.
+     *
+     * @param expectedSize The expected size of the data in bytes, or -1 if it is not known.
+     * @return a {@link StreamStorage} sharing its data with the identical ones.
+     */
+    @Override
+    public StreamStorage create(final long expectedSize) {
+        final StreamStorage streamStorage = streamStorageFactory instanceof SizeAwareStreamStorageFactory
+                ? ((SizeAwareStreamStorageFactory) streamStorageFactory).create(expectedSize)
+                : streamStorageFactory.create();
+        return new DeduplicatingStreamStorage(this, streamStorage, expectedSize < 0 || expectedSize >= minSize);
+    }
+
+    /**
+     * <p> Returns the number of distinct payloads currently shared.
+     *
+     * @return the number of shared payloads.
+     */
+    public int getSharedPayloadsCount() {
+        synchronized (sharedPayloads) {
+            return sharedPayloads.size();
+        }
+    }
+
+    /**
+     * <p> Returns the total size of the duplicates disposed so far because an identical payload was already stored.
+     *
+     * @return the deduplicated bytes.
+     */
+    public long getDeduplicatedBytes() {
+        return deduplicatedBytes.get();
+    }
+
+    /**
+     * <p> Returns the payload identical to the given one, taking a reference to it. If there is none the given storage is
+     *     shared from now on.
+     *
+     * @param key The digest and size of the payload.
+     * @param storage The closed storage holding the payload.
+     * @param size The size of the payload.
+     * @return The shared payload.
+     */
+    SharedPayload share(final String key, final StreamStorage storage, final long size){
+        synchronized (sharedPayloads) {
+            SharedPayload sharedPayload = sharedPayloads.get(key);
+            if (sharedPayload == null){
+                sharedPayload = new SharedPayload(key, storage, size);
+                sharedPayloads.put(key, sharedPayload);
+            }else{
+                sharedPayload.references++;
+                deduplicatedBytes.addAndGet(size);
+            }
+            return sharedPayload;
+        }
+    }
+
+    /**
+     * <p> Releases a reference to a shared payload, disposing it if it was the last one.
+     *
+     * @param sharedPayload The shared payload.
+     * @return The result of the dispose of the payload, or true if other storages still reference it.
+     */
+    boolean release(final SharedPayload sharedPayload){
+        synchronized (sharedPayloads) {
+            if (--sharedPayload.references > 0){
+                return true;
+            }
+            sharedPayloads.remove(sharedPayload.key);
+        }
+        return sharedPayload.storage.dispose();
+    }
+
+}
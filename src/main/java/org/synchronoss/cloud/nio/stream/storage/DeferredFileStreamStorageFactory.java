@@ -20,7 +20,24 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Factory for creating {@link FileStreamStorage}s.
@@ -31,9 +48,23 @@ import java.util.UUID;
  *     <li>Create {@link FileStreamStorage}s that will delete the underlying file after closing its {@link java.io.InputStream}</li>
  *     <li>Create {@link FileStreamStorage}s that will delete the underlying file after disposing the {@link FileStreamStorage} itself</li>
  *     <li>Create {@link FileStreamStorage}s with a maximum capacity</li>
+ *     <li>Cap the total heap memory used by the in memory data of all the created {@link FileStreamStorage}s</li>
+ *     <li>Flush the in memory data to disk in background when the threshold is reached</li>
+ *     <li>Coalesce the small writes to disk in a buffer</li>
+ *     <li>Create {@link FileStreamStorage}s whose readers share a single file channel</li>
+ *     <li>Choose memory or disk up front when the size of the data is known (see {@link #create(long)})</li>
+ *     <li>Recycle the data files of the disposed {@link FileStreamStorage}s (see {@link #setTempFilePool(TempFilePool)})</li>
+ *     <li>Report the usage of memory and disk of the created {@link FileStreamStorage}s (see {@link #setListener(StreamStorageListener)})</li>
+ *     <li>Delete the data files of the {@link FileStreamStorage}s garbage collected without being disposed (see {@link #setReclaimOrphanFiles(boolean)})</li>
+ *     <li>Delete the stale data files left in the root folder, for example by a previous run (see {@link #sweepOrphanFiles(long, int)})</li>
+ *     <li>Compress the data written to disk, possibly only for data known to be big (see {@link #setCodec(StorageCodec, long)})</li>
+ *     <li>Compute digests and checksums of the data while it is written (see {@link #setDigestAlgorithms(String...)})</li>
+ *     <li>Spread the data files over levels of hashed sub folders of the root folder (see {@link #setShardLevels(int)})</li>
+ *     <li>Create {@link PositionalFileStreamStorage}s for data written in parallel ranges (see {@link #createPositional(long)})</li>
+ *     <li>Create {@link RollingFileStreamStorage}s for very large data stored in segments (see {@link #createRolling(long)})</li>
  * </ul>
  */
-public class DeferredFileStreamStorageFactory implements StreamStorageFactory {
+public class DeferredFileStreamStorageFactory implements SizeAwareStreamStorageFactory {
 
     private static final Logger log = LoggerFactory.getLogger(DeferredFileStreamStorageFactory.class);
 
@@ -52,11 +83,35 @@ public class DeferredFileStreamStorageFactory implements StreamStorageFactory {
      */
     public static final String DEFAULT_ROOT_FOLDER = System.getProperty("java.io.tmpdir") + "/nio-stream-storage";
 
-    private final File rootFolder;
-    private final int maxSizeThreshold;
-    private long maxCapacity = DEFAULT_MAX_CAPACITY;
-    private boolean deleteFilesOnClose = false;
-    private boolean deleteFilesOnDispose = false;
+    /**
+     * <p> Maximum number of levels of sub folders. Each level has 256 sub folders, named {@code 00} to {@code ff}.
+     */
+    public static final int MAX_SHARD_LEVELS = 4;
+
+    static final String FILE_NAME_PREFIX = "stream-object-";
+    static final int SWEEP_BATCH_SIZE = 256;
+
+    final File rootFolder;
+    final int maxSizeThreshold;
+    long maxCapacity = DEFAULT_MAX_CAPACITY;
+    boolean deleteFilesOnClose = false;
+    boolean deleteFilesOnDispose = false;
+    MemoryBudget memoryBudget = null;
+    Executor spillExecutor = null;
+    int writeBufferSize = 0;
+    boolean sharedReaders = false;
+    int shardLevels = 0;
+    TempFilePool tempFilePool = null;
+    StreamStorageListener listener = null;
+    boolean reclaimOrphanFiles = false;
+    StorageCodec codec = null;
+    long codecMinExpectedSize = 0;
+    String[] digestAlgorithms = null;
+    final Set<File> shardFolders = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+    // The file names are unique per factory via the counter, and across factories via the prefix.
+    final String fileNamePrefix = FILE_NAME_PREFIX + UUID.randomUUID().toString() + "-";
+    final AtomicLong fileNameCounter = new AtomicLong();
 
     public void setDeleteFilesOnClose(boolean deleteFilesOnClose) {
         this.deleteFilesOnClose = deleteFilesOnClose;
@@ -70,6 +125,201 @@ public class DeferredFileStreamStorageFactory implements StreamStorageFactory {
         this.maxCapacity = maxCapacity;
     }
 
+    /**
+     * <p> Caps the total heap memory used by the in memory data of all the live {@link FileStreamStorage}s created by this factory.
+     *     When the cap would be exceeded the storages flush their data to disk, starting from the largest ones, even if their
+     *     threshold has not been reached. See {@link MemoryBudget}.
+     *
+     * @param maxMemory The maximum amount of heap memory in bytes. A negative value removes the cap.
+     */
+    public void setMaxMemory(long maxMemory) {
+        this.memoryBudget = maxMemory < 0 ? null : new MemoryBudget(maxMemory);
+    }
+
+    /**
+     * <p> Shares a {@link MemoryBudget} among the storages created by this factory and, possibly, by other factories.
+     *
+     * @param memoryBudget The memory budget or {@code null} to remove the cap.
+     */
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * <p> Returns the {@link MemoryBudget} shared by the storages created by this factory.
+     *
+     * @return the {@link MemoryBudget} or {@code null} if the total memory is not capped.
+     */
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * <p> Flushes the in memory data of the created storages to disk on the given {@code Executor} when their threshold
+     *     is reached, so the writing threads are not blocked by the file creation and the disk IO.
+     *     See {@link FileStreamStorage#spillExecutor(Executor)}.
+     *
+     * @param spillExecutor The executor or {@code null} to flush the data on the writing threads.
+     */
+    public void setSpillExecutor(Executor spillExecutor) {
+        this.spillExecutor = spillExecutor;
+    }
+
+    /**
+     * <p> Coalesces the writes to disk of the created storages in a buffer of the given size, so writers producing few
+     *     bytes at the time do not make a system call per write. See {@link FileStreamStorage#writeBufferSize(int)}.
+     *
+     * @param writeBufferSize The size of the buffer in bytes. 0 disables the buffer.
+     */
+    public void setWriteBufferSize(int writeBufferSize) {
+        if (writeBufferSize < 0){
+            throw new IllegalArgumentException("Invalid write buffer size " + writeBufferSize);
+        }
+        this.writeBufferSize = writeBufferSize;
+    }
+
+    /**
+     * <p> Makes all the readers of each created storage share a single file channel, purging the file only when the last
+     *     reader has been closed and the storage has been disposed. See {@link FileStreamStorage#sharedReaders()}.
+     *
+     * @param sharedReaders {@code true} to share the file channel among the readers.
+     */
+    public void setSharedReaders(boolean sharedReaders) {
+        this.sharedReaders = sharedReaders;
+    }
+
+    /**
+     * <p> Spreads the data files over the given number of levels of sub folders of the root folder, so that no folder
+     *     holds too many files. Each level has 256 sub folders and the sub folder of each file is chosen hashing its name
+     *     (e.g. {@code <rootFolder>/3f/a0/stream-object-<id>.tmp} with 2 levels). The sub folders are created when needed.
+     *
+     * @param shardLevels The number of levels of sub folders, from 0 (all the files in the root folder) to {@link #MAX_SHARD_LEVELS}.
+     */
+    public void setShardLevels(int shardLevels) {
+        if (shardLevels < 0 || shardLevels > MAX_SHARD_LEVELS){
+            throw new IllegalArgumentException("Invalid shard levels " + shardLevels);
+        }
+        this.shardLevels = shardLevels;
+    }
+
+    /**
+     * <p> Recycles the data files of the created {@link FileStreamStorage}s: new storages take their file from the pool,
+     *     when available, and disposed storages give it back instead of deleting it. See {@link FileStreamStorage#tempFilePool(TempFilePool)}.
+     *     The positional and rolling storages do not use the pool.
+     *
+     * @param tempFilePool The pool or {@code null} to create and delete a file for each storage.
+     */
+    public void setTempFilePool(TempFilePool tempFilePool) {
+        this.tempFilePool = tempFilePool;
+    }
+
+    /**
+     * <p> Returns the {@link TempFilePool} used by the storages created by this factory.
+     *
+     * @return the {@link TempFilePool} or {@code null} if the files are not recycled.
+     */
+    public TempFilePool getTempFilePool() {
+        return tempFilePool;
+    }
+
+    /**
+     * <p> Reports the life cycle of the created {@link FileStreamStorage}s to the given listener, for example a
+     *     {@link StreamStorageMetrics} created via {@link #newMetrics()}. See {@link FileStreamStorage#listener(StreamStorageListener)}.
+     *     The positional and rolling storages are not reported.
+     *
+     * @param listener The listener or {@code null} to stop reporting.
+     */
+    public void setListener(StreamStorageListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * <p> Returns the {@link StreamStorageListener} of the storages created by this factory.
+     *
+     * @return the {@link StreamStorageListener} or {@code null} if the storages are not reported.
+     */
+    public StreamStorageListener getListener() {
+        return listener;
+    }
+
+    /**
+     * <p> Creates a {@link StreamStorageMetrics} reporting the usable space of the root folder, and sets it as the
+     *     listener of the storages created by this factory from now on.
+     *
+     * @return the metrics.
+     */
+    public StreamStorageMetrics newMetrics() {
+        final StreamStorageMetrics metrics = new StreamStorageMetrics(rootFolder);
+        setListener(metrics);
+        return metrics;
+    }
+
+    /**
+     * <p> Deletes the file of the created {@link FileStreamStorage}s that are garbage collected without having been disposed.
+     *     See {@link FileStreamStorage#reclaimOrphanFile()}.
+     *
+     * @param reclaimOrphanFiles {@code true} to delete the files of the storages that have not been disposed.
+     */
+    public void setReclaimOrphanFiles(boolean reclaimOrphanFiles) {
+        this.reclaimOrphanFiles = reclaimOrphanFiles;
+    }
+
+    /**
+     * <p> Passes the data written to disk by the created {@link FileStreamStorage}s through the given codec, for example
+     *     to compress it. See {@link FileStreamStorage#codec(StorageCodec)}.
+     *     The positional and rolling storages do not use the codec.
+     *
+     * @param codec The codec or {@code null} to write the data to disk as it is.
+     */
+    public void setCodec(StorageCodec codec) {
+        setCodec(codec, 0);
+    }
+
+    /**
+     * <p> Passes the data written to disk through the given codec only for the storages created via {@link #create(long)}
+     *     with an expected size of at least {@code minExpectedSize} bytes, or with an unknown size. Small data does not
+     *     gain enough from compression to pay for the codec. See {@link FileStreamStorage#codec(StorageCodec)}.
+     *
+     * @param codec The codec or {@code null} to write the data to disk as it is.
+     * @param minExpectedSize The minimum expected size in bytes of the data to encode.
+     */
+    public void setCodec(StorageCodec codec, long minExpectedSize) {
+        if (minExpectedSize < 0){
+            throw new IllegalArgumentException("Invalid min expected size " + minExpectedSize);
+        }
+        this.codec = codec;
+        this.codecMinExpectedSize = minExpectedSize;
+    }
+
+    /**
+     * <p> Returns the {@link StorageCodec} used by the storages created by this factory.
+     *
+     * @return the {@link StorageCodec} or {@code null} if the data is written to disk as it is.
+     */
+    public StorageCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * <p> Makes the created {@link FileStreamStorage}s compute the given digests or checksums of the data while it is
+     *     written, e.g. {@code MD5} for an ETag or {@code CRC32} for an integrity check. See {@link FileStreamStorage#digests(String...)}.
+     *     The positional and rolling storages do not compute digests.
+     *
+     * @param digestAlgorithms The names of the algorithms. No algorithm disables the digests.
+     * @throws IllegalArgumentException if an algorithm is not supported.
+     */
+    public void setDigestAlgorithms(String... digestAlgorithms) {
+        if (digestAlgorithms == null || digestAlgorithms.length == 0){
+            this.digestAlgorithms = null;
+            return;
+        }
+        for (String digestAlgorithm : digestAlgorithms){
+            // Fails fast rather than on the creation of each storage
+            StorageDigest.newDigest(digestAlgorithm);
+        }
+        this.digestAlgorithms = digestAlgorithms.clone();
+    }
+
     /**
      * <p> Constructor.
      *
@@ -119,16 +369,297 @@ public class DeferredFileStreamStorageFactory implements StreamStorageFactory {
      */
     @Override
     public StreamStorage create() {
-        return new FileStreamStorage(new File(rootFolder, getFileName()), maxSizeThreshold, deleteFilesOnClose, deleteFilesOnDispose, false, maxCapacity);
+        return configure(new FileStreamStorage(newStorageFile(), maxSizeThreshold, deleteFilesOnClose, deleteFilesOnDispose, false, maxCapacity)
+                .memoryBudget(memoryBudget));
+    }
+
+    /**
+     * <p> Creates a new {@link FileStreamStorage} for data of the given size. Data bigger than the threshold is written
+     *     straight to disk, smaller data is kept in a memory buffer of the exact size. See {@link FileStreamStorage#expectedSize(long)}.
+     *     The data is encoded only if it is not smaller than the minimum size set via {@link #setCodec(StorageCodec, long)}.
+     *
+     * @param expectedSize The expected size of the data in bytes, or -1 if it is not known.
+     * @return a {@link StreamStorage} to store bytes temporarily in-memory or on disk.
+     */
+    @Override
+    public StreamStorage create(final long expectedSize) {
+        final StreamStorage streamStorage = create();
+        if (streamStorage instanceof FileStreamStorage){
+            if (expectedSize >= 0 && expectedSize < codecMinExpectedSize){
+                ((FileStreamStorage) streamStorage).codec(null);
+            }
+            ((FileStreamStorage) streamStorage).expectedSize(expectedSize);
+        }
+        return streamStorage;
+    }
+
+    /**
+     * <p> Creates a new {@link PositionalFileStreamStorage}, for data received as ranges written in parallel.
+     *     The threshold, the memory budget, the spill executor and the write buffer do not apply to it.
+     *
+     * @param expectedSize The size of the complete data in bytes, or -1 if it is not known.
+     * @return a {@link PositionalFileStreamStorage} storing the bytes in a file of the root folder.
+     */
+    public PositionalFileStreamStorage createPositional(final long expectedSize) {
+        final PositionalFileStreamStorage streamStorage = new PositionalFileStreamStorage(newFile(), expectedSize);
+        if (deleteFilesOnClose){
+            streamStorage.deleteFilesOnClose();
+        }
+        if (deleteFilesOnDispose){
+            streamStorage.deleteFilesOnDispose();
+        }
+        if (maxCapacity != DEFAULT_MAX_CAPACITY){
+            streamStorage.maxCapacity(maxCapacity);
+        }
+        return streamStorage;
+    }
+
+    /**
+     * <p> Creates a new {@link RollingFileStreamStorage}, storing the data on disk in segments of the given size.
+     *     The threshold, the memory budget, the spill executor and the write buffer do not apply to it.
+     *
+     * @param segmentSize The maximum size in bytes of each segment.
+     * @return a {@link RollingFileStreamStorage} storing the segments in the root folder.
+     */
+    public RollingFileStreamStorage createRolling(final long segmentSize) {
+        final RollingFileStreamStorage streamStorage = new RollingFileStreamStorage(newFile(), segmentSize);
+        if (deleteFilesOnClose){
+            streamStorage.deleteFilesOnClose();
+        }
+        if (deleteFilesOnDispose){
+            streamStorage.deleteFilesOnDispose();
+        }
+        if (maxCapacity != DEFAULT_MAX_CAPACITY){
+            streamStorage.maxCapacity(maxCapacity);
+        }
+        return streamStorage;
+    }
+
+    /**
+     * <p> Deletes the data files in the root folder, and in its sub folders (see {@link #setShardLevels(int)}), that have
+     *     not been modified for longer than the given age. The files are the ones named as the default {@link #getFileName()},
+     *     left behind by storages that have not been disposed, typically before the JVM was restarted.
+     *     This is meant to be called at startup, before creating any storage, or periodically (see
+     *     {@link #scheduleOrphanFilesSweep(ScheduledExecutorService, long, long)}) with an age longer than the life of any storage.
+     *
+     * <p> The folders are listed on the calling thread while the files are checked and deleted by {@code parallelism}
+     *     threads, so large folders are cleaned up without waiting for each deletion in turn.
+     *
+     * @param maxAgeMillis The age in milliseconds of the files to delete. 0 deletes all the files.
+     * @param parallelism The number of threads deleting the files.
+     * @return The number of files deleted.
+     */
+    public int sweepOrphanFiles(final long maxAgeMillis, final int parallelism) {
+        if (parallelism <= 0){
+            throw new IllegalArgumentException("Invalid parallelism " + parallelism);
+        }
+        final long maxLastModified = System.currentTimeMillis() - maxAgeMillis;
+        final AtomicInteger deleted = new AtomicInteger();
+        final ExecutorService executorService = Executors.newFixedThreadPool(parallelism);
+        try {
+            sweepOrphanFiles(rootFolder.toPath(), 0, maxLastModified, executorService, deleted);
+        } finally {
+            executorService.shutdown();
+            boolean interrupted = false;
+            while (!executorService.isTerminated()){
+                try {
+                    executorService.awaitTermination(1, TimeUnit.SECONDS);
+                }catch (InterruptedException e){
+                    interrupted = true;
+                }
+            }
+            if (interrupted){
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (tempFilePool != null){
+            tempFilePool.evictIdleFiles();
+        }
+        if (log.isDebugEnabled()) log.debug("Deleted " + deleted.get() + " orphan files from " + rootFolder.getAbsolutePath());
+        return deleted.get();
+    }
+
+    /**
+     * <p> Periodically deletes the stale data files in the root folder on the given scheduler, see {@link #sweepOrphanFiles(long, int)}.
+     *     The files are deleted on the scheduler thread.
+     *
+     * @param scheduler The scheduler.
+     * @param maxAgeMillis The age in milliseconds of the files to delete. It must be longer than the life of any storage.
+     * @param periodMillis The period in milliseconds between two sweeps.
+     * @return The {@code ScheduledFuture} to cancel the sweeps.
+     */
+    public ScheduledFuture<?> scheduleOrphanFilesSweep(final ScheduledExecutorService scheduler, final long maxAgeMillis, final long periodMillis) {
+        return scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sweepOrphanFiles(maxAgeMillis, 1);
+                }catch (Exception e){
+                    log.warn("Failed to delete the orphan files from " + rootFolder.getAbsolutePath(), e);
+                }
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void sweepOrphanFiles(final Path folder, final int level, final long maxLastModified, final ExecutorService executorService, final AtomicInteger deleted) {
+        final List<Path> subFolders = new ArrayList<Path>();
+        List<Path> batch = new ArrayList<Path>(SWEEP_BATCH_SIZE);
+        try {
+            final DirectoryStream<Path> directoryStream = Files.newDirectoryStream(folder);
+            try {
+                for (Path path : directoryStream){
+                    final String name = path.getFileName().toString();
+                    if (name.startsWith(FILE_NAME_PREFIX)){
+                        batch.add(path);
+                        if (batch.size() == SWEEP_BATCH_SIZE){
+                            executorService.execute(new SweepTask(batch, maxLastModified, deleted));
+                            batch = new ArrayList<Path>(SWEEP_BATCH_SIZE);
+                        }
+                    }else if (level < MAX_SHARD_LEVELS && name.length() == 2 && Character.digit(name.charAt(0), 16) != -1
+                            && Character.digit(name.charAt(1), 16) != -1 && Files.isDirectory(path)){
+                        subFolders.add(path);
+                    }
+                }
+            }finally {
+                directoryStream.close();
+            }
+        }catch (IOException e){
+            log.warn("Unable to list the folder " + folder, e);
+        }
+        if (!batch.isEmpty()){
+            executorService.execute(new SweepTask(batch, maxLastModified, deleted));
+        }
+        for (Path subFolder : subFolders){
+            sweepOrphanFiles(subFolder, level + 1, maxLastModified, executorService, deleted);
+        }
+    }
+
+    static class SweepTask implements Runnable {
+
+        final List<Path> paths;
+        final long maxLastModified;
+        final AtomicInteger deleted;
+
+        SweepTask(final List<Path> paths, final long maxLastModified, final AtomicInteger deleted) {
+            this.paths = paths;
+            this.maxLastModified = maxLastModified;
+            this.deleted = deleted;
+        }
+
+        @Override
+        public void run() {
+            for (Path path : paths){
+                try {
+                    if (Files.getLastModifiedTime(path).toMillis() <= maxLastModified && Files.deleteIfExists(path)){
+                        deleted.incrementAndGet();
+                    }
+                }catch (IOException e){
+                    // Already deleted or not accessible
+                    if (log.isDebugEnabled()) log.debug("Unable to delete " + path, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p> Applies the options common to all the kinds of {@link FileStreamStorage} created by this factory.
+     *
+     * @param streamStorage The storage to configure.
+     * @param <T> The type of the storage.
+     * @return The configured storage.
+     */
+    <T extends FileStreamStorage> T configure(final T streamStorage){
+        streamStorage.spillExecutor(spillExecutor).writeBufferSize(writeBufferSize).tempFilePool(tempFilePool).listener(listener);
+        if (reclaimOrphanFiles){
+            streamStorage.reclaimOrphanFile();
+        }
+        if (sharedReaders){
+            streamStorage.sharedReaders();
+        }
+        if (codec != null){
+            streamStorage.codec(codec);
+        }
+        if (digestAlgorithms != null){
+            streamStorage.digests(digestAlgorithms);
+        }
+        return streamStorage;
+    }
+
+    /**
+     * <p> Returns the file for a new {@link FileStreamStorage}, taking it from the {@link TempFilePool} if possible.
+     *
+     * @return The file.
+     */
+    File newStorageFile(){
+        if (tempFilePool != null){
+            final File pooledFile = tempFilePool.acquire();
+            if (pooledFile != null){
+                return pooledFile;
+            }
+        }
+        return newFile();
+    }
+
+    File newFile(){
+        final String fileName = getFileName();
+        if (shardLevels == 0){
+            return new File(rootFolder, fileName);
+        }
+        return new File(shardFolder(fileName), fileName);
+    }
+
+    /**
+     * <p> Returns the sub folder of the root folder where the file with the given name is stored, creating it if needed.
+     *
+     * @param fileName The name of the file.
+     * @return The sub folder.
+     */
+    File shardFolder(final String fileName){
+        int hash = mix(fileName.hashCode());
+        final StringBuilder path = new StringBuilder(shardLevels * 3);
+        for (int i = 0; i < shardLevels; i++){
+            if (i > 0){
+                path.append(File.separatorChar);
+            }
+            final int shard = hash & 0xFF;
+            path.append(Character.forDigit(shard >>> 4, 16)).append(Character.forDigit(shard & 0xF, 16));
+            hash >>>= 8;
+        }
+        final File folder = new File(rootFolder, path.toString());
+        if (!shardFolders.contains(folder)){
+            if (!folder.mkdirs() && !folder.isDirectory()){
+                throw new IllegalStateException("Unable to create the folder: " + folder.getAbsolutePath());
+            }
+            shardFolders.add(folder);
+        }
+        return folder;
     }
 
     /**
      * <p> Generates an unique file name for the data file.
+     *     The default implementation appends a sequence number to a random prefix chosen when the factory is created,
+     *     so no random number is generated per file.
      *
      * @return The unique file name.
      */
     protected String getFileName(){
-        return String.format("stream-object-%s.tmp", UUID.randomUUID().toString());
+        return fileNamePrefix + Long.toHexString(fileNameCounter.incrementAndGet()) + ".tmp";
+    }
+
+    /**
+     * <p> Spreads the bits of a hash code (MurmurHash3 finalizer), so names differing only in the last characters end up
+     *     in different sub folders.
+     *
+     * @param hash The hash code.
+     * @return The mixed hash code.
+     */
+    static int mix(int hash){
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
     }
 
 }
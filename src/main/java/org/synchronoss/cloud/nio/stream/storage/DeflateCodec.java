@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * <p> {@link StorageCodec} compressing the data with the {@link Deflater} of the JDK.
+ *
+ * <p> Compression pays off for highly compressible data (e.g. JSON, CSV or XML) when the disk bandwidth, rather than
+ *     the CPU, limits the throughput. {@link #fast()} trades some compression ratio for speed, and it is the better
+ *     choice unless the disk is very slow. Already compressed data (e.g. images or archives) only costs CPU.
+ *
+ * <p> The native memory of the {@code Deflater} and {@code Inflater} is released as soon as the streams are closed.
+ *
+ * @author Silvano Riz
+ */
+public class DeflateCodec implements StorageCodec {
+
+    /**
+     * <p> Default size of the buffers used to compress and decompress the data. 8Kb
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    final int level;
+    final int bufferSize;
+
+    /**
+     * <p> Returns a codec using the fastest compression level ({@link Deflater#BEST_SPEED}).
+     *
+     * @return The codec.
+     */
+    public static DeflateCodec fast(){
+        return new DeflateCodec(Deflater.BEST_SPEED);
+    }
+
+    /**
+     * <p> Constructor.
+     *
+     * @param level The compression level, from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}.
+     * @param bufferSize The size of the buffers used to compress and decompress the data.
+     */
+    public DeflateCodec(final int level, final int bufferSize) {
+        if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) && level != Deflater.DEFAULT_COMPRESSION){
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        if (bufferSize <= 0){
+            throw new IllegalArgumentException("Invalid buffer size " + bufferSize);
+        }
+        this.level = level;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * <p> Constructor that uses the default buffer size of 8Kb.
+     *
+     * @param level The compression level, from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}.
+     */
+    public DeflateCodec(final int level) {
+        this(level, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * <p> Constructor that uses the default compression level and buffer size.
+     */
+    public DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public OutputStream encode(final OutputStream outputStream) throws IOException {
+        return new EndingDeflaterOutputStream(outputStream, new Deflater(level), bufferSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream decode(final InputStream inputStream) throws IOException {
+        return new EndingInflaterInputStream(inputStream, new Inflater(), bufferSize);
+    }
+
+    /**
+     * <p> Returns the compression level.
+     *
+     * @return the compression level.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * <p> Returns the size of the buffers used to compress and decompress the data.
+     *
+     * @return the buffer size in bytes.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    // The streams of the JDK only end the deflater and inflater they create themselves.
+
+    static class EndingDeflaterOutputStream extends DeflaterOutputStream {
+
+        boolean closed = false;
+
+        EndingDeflaterOutputStream(final OutputStream outputStream, final Deflater deflater, final int bufferSize) {
+            super(outputStream, deflater, bufferSize);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed){
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+            }finally {
+                def.end();
+            }
+        }
+    }
+
+    static class EndingInflaterInputStream extends InflaterInputStream {
+
+        boolean closed = false;
+
+        EndingInflaterInputStream(final InputStream inputStream, final Inflater inflater, final int bufferSize) {
+            super(inputStream, inflater, bufferSize);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed){
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+            }finally {
+                inf.end();
+            }
+        }
+    }
+
+}
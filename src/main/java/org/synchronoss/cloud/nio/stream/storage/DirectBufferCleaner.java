@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * <p> Releases the native memory (or the file mapping) held by a direct {@code ByteBuffer} without waiting for the garbage collector.
+ *
+ * <p> There is no public API to do this, so the cleaner is invoked via reflection: {@code sun.misc.Unsafe#invokeCleaner} on
+ *     java 9+ and {@code DirectBuffer#cleaner()} on older versions. If neither is available the buffer is left to the garbage collector.
+ *
+ * <p> Accessing a buffer after it has been cleaned can crash the JVM, callers must make sure the buffer is not used anymore.
+ *
+ * @author Silvano Riz
+ */
+final class DirectBufferCleaner {
+
+    private static final Logger log = LoggerFactory.getLogger(DirectBufferCleaner.class);
+
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+        } catch (Exception e) {
+            // Before java 9, falls back to the DirectBuffer cleaner
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private DirectBufferCleaner(){}
+
+    /**
+     * <p> Releases the memory held by the buffer if it is a direct buffer. The method never fails.
+     *
+     * @param byteBuffer The buffer to clean.
+     * @return {@code true} if the buffer has been cleaned, {@code false} if it is left to the garbage collector.
+     */
+    static boolean clean(final ByteBuffer byteBuffer){
+        if (byteBuffer == null || !byteBuffer.isDirect()){
+            return false;
+        }
+        try {
+            if (INVOKE_CLEANER != null){
+                INVOKE_CLEANER.invoke(UNSAFE, byteBuffer);
+            }else{
+                final Method cleanerMethod = byteBuffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                final Object cleaner = cleanerMethod.invoke(byteBuffer);
+                if (cleaner == null){
+                    return false;
+                }
+                final Method cleanMethod = cleaner.getClass().getMethod("clean");
+                cleanMethod.setAccessible(true);
+                cleanMethod.invoke(cleaner);
+            }
+            return true;
+        } catch (Exception e) {
+            if (log.isDebugEnabled()) log.debug("Unable to clean the direct buffer, leaving it to the garbage collector", e);
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p> A thread safe pool of direct {@code ByteBuffer}s of a fixed size with a bounded amount of native memory.
+ *
+ * <p> Buffers are allocated lazily and, once allocated, they are kept in the pool and reused. When all the memory allowed
+ *     by the budget has been allocated and there are no free buffers, {@link #acquire()} returns {@code null} and the caller is
+ *     expected to fall back to a different storage (for example a file).
+ *
+ * @author Silvano Riz
+ */
+public class DirectBufferPool {
+
+    /**
+     * <p> Default size of the buffers. 8Kb.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final int bufferSize;
+    private final long maxMemory;
+    private final Queue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicLong allocatedMemory = new AtomicLong(0);
+    private final AtomicLong usedMemory = new AtomicLong(0);
+
+    /**
+     * <p> Constructor.
+     *
+     * @param bufferSize The size in bytes of the buffers.
+     * @param maxMemory The maximum amount of native memory in bytes the pool can allocate.
+     */
+    public DirectBufferPool(final int bufferSize, final long maxMemory) {
+        if (bufferSize <= 0){
+            throw new IllegalArgumentException("Invalid buffer size " + bufferSize);
+        }
+        if (maxMemory < 0){
+            throw new IllegalArgumentException("Invalid max memory " + maxMemory);
+        }
+        this.bufferSize = bufferSize;
+        this.maxMemory = maxMemory;
+    }
+
+    /**
+     * <p> Constructor that uses buffers of the default size (8Kb).
+     *
+     * @param maxMemory The maximum amount of native memory in bytes the pool can allocate.
+     */
+    public DirectBufferPool(final long maxMemory) {
+        this(DEFAULT_BUFFER_SIZE, maxMemory);
+    }
+
+    /**
+     * <p> Takes a buffer from the pool, allocating a new one if needed and if the budget allows it.
+     *
+     * @return A cleared buffer or {@code null} if the budget has been exhausted.
+     */
+    public ByteBuffer acquire(){
+        ByteBuffer byteBuffer = freeBuffers.poll();
+        if (byteBuffer == null){
+            if (!reserve()){
+                return null;
+            }
+            byteBuffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+        usedMemory.addAndGet(bufferSize);
+        return byteBuffer;
+    }
+
+    /**
+     * <p> Gives a buffer back to the pool. The buffer must have been obtained via {@link #acquire()} and it must not be used anymore.
+     *
+     * @param byteBuffer The buffer.
+     */
+    public void release(final ByteBuffer byteBuffer){
+        byteBuffer.clear();
+        usedMemory.addAndGet(-bufferSize);
+        freeBuffers.offer(byteBuffer);
+    }
+
+    /**
+     * <p> Returns the size in bytes of the buffers.
+     *
+     * @return the size in bytes of the buffers.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * <p> Returns the maximum amount of native memory in bytes the pool can allocate.
+     *
+     * @return the maximum amount of native memory in bytes.
+     */
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    /**
+     * <p> Returns the amount of native memory in bytes allocated so far, including the free buffers.
+     *
+     * @return the allocated native memory in bytes.
+     */
+    public long getAllocatedMemory() {
+        return allocatedMemory.get();
+    }
+
+    /**
+     * <p> Returns the amount of native memory in bytes held by buffers currently in use.
+     *
+     * @return the native memory in use in bytes.
+     */
+    public long getUsedMemory() {
+        return usedMemory.get();
+    }
+
+    boolean reserve(){
+        long allocated;
+        do {
+            allocated = allocatedMemory.get();
+            if (allocated + bufferSize > maxMemory){
+                return false;
+            }
+        } while (!allocatedMemory.compareAndSet(allocated, allocated + bufferSize));
+        return true;
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+/**
+ * <p> {@link StorageTier} keeping the data off-heap, in {@link DirectBufferStreamStorage}s sharing a pool of direct
+ *     buffers owned by the tier. The room taken by each storage is rounded up to whole buffers, so the pool never runs
+ *     out of buffers for the data admitted in the tier.
+ *
+ * @author Silvano Riz
+ */
+public class DirectBufferStorageTier extends BoundedStorageTier {
+
+    final DirectBufferPool bufferPool;
+
+    /**
+     * <p> Constructor.
+     *
+     * @param threshold The maximum amount of data in bytes a single storage can keep in the tier.
+     * @param bufferSize The size in bytes of the direct buffers.
+     * @param maxMemory The maximum amount of native memory in bytes used by the tier.
+     */
+    public DirectBufferStorageTier(final int threshold, final int bufferSize, final long maxMemory) {
+        this(threshold, new DirectBufferPool(bufferSize, maxMemory));
+    }
+
+    /**
+     * <p> Constructor that uses buffers of the default size (8Kb).
+     *
+     * @param threshold The maximum amount of data in bytes a single storage can keep in the tier.
+     * @param maxMemory The maximum amount of native memory in bytes used by the tier.
+     */
+    public DirectBufferStorageTier(final int threshold, final long maxMemory) {
+        this(threshold, DirectBufferPool.DEFAULT_BUFFER_SIZE, maxMemory);
+    }
+
+    DirectBufferStorageTier(final int threshold, final DirectBufferPool bufferPool) {
+        // Only whole buffers can be allocated
+        super(threshold, bufferPool.getMaxMemory() / bufferPool.getBufferSize() * bufferPool.getBufferSize());
+        if (threshold <= 0){
+            throw new IllegalArgumentException("Invalid threshold " + threshold);
+        }
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public StreamStorage newStorage() {
+        // The tiered storage moves the data to the next tier before the threshold or the pool are exhausted, so no file is needed.
+        return DirectBufferStreamStorage.deferred(null, (int) threshold, bufferPool);
+    }
+
+    /**
+     * <p> Returns the pool of direct buffers of the tier.
+     *
+     * @return the {@link DirectBufferPool}.
+     */
+    public DirectBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    @Override
+    long roomFor(final long size) {
+        final int bufferSize = bufferPool.getBufferSize();
+        return (size + bufferSize - 1) / bufferSize * bufferSize;
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p> A {@link FileStreamStorage} that keeps the in memory data off-heap, in direct {@code ByteBuffer}s taken from a {@link DirectBufferPool}.
+ *
+ * <p> The data is flushed to the file when the threshold is reached or when the pool runs out of buffers, whichever
+ *     comes first. The buffers are given back to the pool when the data is flushed to the file or when the storage
+ *     is disposed via {@link #dispose()}. Any {@code InputStream} or {@code ByteBuffer} obtained from the storage while the
+ *     data is in memory MUST NOT be used after {@link #dispose()}, because the buffers could be already in use by another storage.
+ *
+ * @author Silvano Riz
+ */
+public class DirectBufferStreamStorage extends FileStreamStorage {
+
+    final DirectBufferPool bufferPool;
+    final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+    ByteBuffer currentBuffer = null;
+    int currentBufferIndex = -1;
+    int size = 0;
+
+    /**
+     * <p> Returns a reference to a {@link DirectBufferStreamStorage} where the data is written to a file when the data is greater in
+     * size than the threshold specified or when the pool runs out of buffers.
+     *
+     * @param file The file that will be used to store the data if the threshold is reached.
+     * @param threshold The threshold in bytes. Data smaller than the threshold are kept in memory. If the threshold is reached, the data is flushed to the file.
+     * @param bufferPool The pool of direct buffers.
+     *
+     * @return DirectBufferStreamStorage
+     */
+    public static DirectBufferStreamStorage deferred(final File file, final int threshold, final DirectBufferPool bufferPool){
+        return new DirectBufferStreamStorage(file, threshold, bufferPool, false, false, -1);
+    }
+
+    /**
+     * <p> Constructor.
+     *
+     * @param file The file that will be used to store the data if the threshold is reached.
+     * @param threshold The threshold in bytes. Data smaller than the threshold are kept in memory. If the threshold is reached, the data is flushed to disk.
+     * @param bufferPool The pool of direct buffers.
+     * @param deleteFilesOnClose boolean indicating whether the file should be deleted after been read.
+     * @param deleteFilesOnDispose boolean indicating whether the file should be deleted after dismiss has been called.
+     * @param maxCapacity The maximum amount of bytes that the storage can accept. A value of -1 indicates infinite, the value 0 or a value lower that -1 is not accepted.
+     */
+    protected DirectBufferStreamStorage(final File file, final int threshold, final DirectBufferPool bufferPool, final boolean deleteFilesOnClose, final boolean deleteFilesOnDispose, final long maxCapacity) {
+        super(file, threshold, deleteFilesOnClose, deleteFilesOnDispose, false, maxCapacity);
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    SegmentedByteArrayOutputStream newByteArrayOutputStream() {
+        // Not used, the data is kept in direct buffers
+        return null;
+    }
+
+    @Override
+    boolean reserveMemory(final int length) {
+        if (size + (long) length > threshold){
+            return false;
+        }
+        int missing = length - (currentBuffer == null ? 0 : currentBuffer.remaining());
+        for (int i = currentBufferIndex + 1; i < buffers.size(); i++){
+            missing -= buffers.get(i).capacity();
+        }
+        final int buffersCount = buffers.size();
+        while (missing > 0){
+            final ByteBuffer byteBuffer = bufferPool.acquire();
+            if (byteBuffer == null){
+                // Out of budget. Give back what has been acquired for this write, the storage will switch to file.
+                while (buffers.size() > buffersCount){
+                    bufferPool.release(buffers.remove(buffers.size() - 1));
+                }
+                return false;
+            }
+            buffers.add(byteBuffer);
+            missing -= byteBuffer.capacity();
+        }
+        for (int i = buffersCount; i < buffers.size(); i++){
+            reportMemoryAllocated(buffers.get(i).capacity());
+        }
+        return true;
+    }
+
+    @Override
+    void writeToMemory(final int b) {
+        if (currentBuffer == null || !currentBuffer.hasRemaining()){
+            nextBuffer();
+        }
+        currentBuffer.put((byte) b);
+        size++;
+    }
+
+    @Override
+    void writeToMemory(final byte[] b, int off, int len) {
+        while (len > 0){
+            if (currentBuffer == null || !currentBuffer.hasRemaining()){
+                nextBuffer();
+            }
+            final int toCopy = Math.min(len, currentBuffer.remaining());
+            currentBuffer.put(b, off, toCopy);
+            size += toCopy;
+            off += toCopy;
+            len -= toCopy;
+        }
+    }
+
+    @Override
+    void writeToMemory(final ByteBuffer src) {
+        while (src.hasRemaining()){
+            if (currentBuffer == null || !currentBuffer.hasRemaining()){
+                nextBuffer();
+            }
+            final int toCopy = Math.min(src.remaining(), currentBuffer.remaining());
+            final ByteBuffer chunk = src.duplicate();
+            chunk.limit(chunk.position() + toCopy);
+            currentBuffer.put(chunk);
+            src.position(src.position() + toCopy);
+            size += toCopy;
+        }
+    }
+
+    @Override
+    int memorySize() {
+        return size;
+    }
+
+    @Override
+    void writeMemoryTo(final OutputStream outputStream) throws IOException {
+        // Direct buffers go straight to the file channel, without being copied on the heap.
+        final WritableByteChannel channel = outputStream instanceof FileOutputStream ? ((FileOutputStream) outputStream).getChannel() : Channels.newChannel(outputStream);
+        for (ByteBuffer byteBuffer : memoryByteBuffers()){
+            while (byteBuffer.hasRemaining()){
+                channel.write(byteBuffer);
+            }
+        }
+    }
+
+    @Override
+    InputStream newMemoryInputStream() {
+        return new ByteBuffersInputStream(memoryByteBuffers());
+    }
+
+    @Override
+    ByteBuffer[] memoryByteBuffers() {
+        final int usedBuffers = currentBufferIndex + 1;
+        final ByteBuffer[] byteBuffers = new ByteBuffer[usedBuffers];
+        for (int i = 0; i < usedBuffers; i++){
+            final ByteBuffer byteBuffer = buffers.get(i).duplicate();
+            byteBuffer.flip();
+            byteBuffers[i] = byteBuffer.asReadOnlyBuffer();
+        }
+        return byteBuffers;
+    }
+
+    @Override
+    void releaseMemory() {
+        for (ByteBuffer byteBuffer : buffers){
+            bufferPool.release(byteBuffer);
+        }
+        buffers.clear();
+        currentBuffer = null;
+        currentBufferIndex = -1;
+        size = 0;
+        reportMemoryReleased();
+    }
+
+    void nextBuffer(){
+        currentBuffer = buffers.get(++currentBufferIndex);
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+/**
+ * Factory for creating {@link DirectBufferStreamStorage}s, storages keeping the in memory data off-heap.
+ * All the storages created by the factory share the same {@link DirectBufferPool}, so the total amount of native memory
+ * used by them is bounded. When the pool runs out of buffers the storages flush their data to a file, the same way
+ * they do when the threshold is reached.
+ * <p> The factory supports the same configuration of the {@link DeferredFileStreamStorageFactory}.
+ */
+public class DirectBufferStreamStorageFactory extends DeferredFileStreamStorageFactory {
+
+    /**
+     * <p> Default maximum amount of native memory shared by the storages created by the factory. 64Mb.
+     */
+    public static final long DEFAULT_MAX_DIRECT_MEMORY = 64 * 1024 * 1024;
+
+    private final DirectBufferPool bufferPool;
+
+    /**
+     * <p> Constructor.
+     *
+     * @param rootFolderPath   The path to the folder where data files will be stored if the max threshold is reached.
+     * @param maxSizeThreshold The threshold in bytes. When the data in memory exceeds this threshold it will be written to a temporary file.
+     * @param bufferPool       The pool of direct buffers shared by the created storages.
+     */
+    public DirectBufferStreamStorageFactory(final String rootFolderPath, final int maxSizeThreshold, final DirectBufferPool bufferPool) {
+        super(rootFolderPath, maxSizeThreshold);
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * <p> Constructor that creates a pool of buffers of the default size (8Kb).
+     *
+     * @param rootFolderPath   The path to the folder where data files will be stored if the max threshold is reached.
+     * @param maxSizeThreshold The threshold in bytes. When the data in memory exceeds this threshold it will be written to a temporary file.
+     * @param maxDirectMemory  The maximum amount of native memory in bytes shared by the created storages.
+     */
+    public DirectBufferStreamStorageFactory(final String rootFolderPath, final int maxSizeThreshold, final long maxDirectMemory) {
+        this(rootFolderPath, maxSizeThreshold, new DirectBufferPool(maxDirectMemory));
+    }
+
+    /**
+     * <p> Constructor that uses a default threshold of 10kb, a default folder ${java.io.tmpdir}/nio-stream-storage and
+     *     a default native memory budget of 64Mb.
+     */
+    public DirectBufferStreamStorageFactory() {
+        this(DEFAULT_ROOT_FOLDER, DEFAULT_MAX_THRESHOLD, DEFAULT_MAX_DIRECT_MEMORY);
+    }
+
+    /**
+     * Creates a new {@link DirectBufferStreamStorage}.
+     *
+     * @return a {@link StreamStorage} to store bytes temporarily in off-heap memory or on disk if over the configured threshold or the native memory budget.
+     */
+    @Override
+    public StreamStorage create() {
+        return configure(new DirectBufferStreamStorage(newStorageFile(), maxSizeThreshold, bufferPool, deleteFilesOnClose, deleteFilesOnDispose, maxCapacity));
+    }
+
+    /**
+     * <p> Returns the pool of direct buffers shared by the storages created by this factory.
+     *
+     * @return the {@link DirectBufferPool}.
+     */
+    public DirectBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import java.io.File;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p> {@link StorageTier} writing the data to files in a directory. A directory on a RAM-backed file system (e.g. a tmpfs
+ *     mounted on {@code /dev/shm}) makes a fast tier for mid-sized data, with a max size to bound the memory it uses;
+ *     a directory on a persistent disk is usually the last tier, with no limits.
+ *
+ * <p> The files are deleted when the storages are disposed or move to the next tier.
+ *
+ * @author Silvano Riz
+ */
+public class DirectoryStorageTier extends BoundedStorageTier {
+
+    final File folder;
+    // The file names are unique per tier via the counter, and across tiers via the prefix.
+    final String fileNamePrefix = DeferredFileStreamStorageFactory.FILE_NAME_PREFIX + UUID.randomUUID().toString() + "-";
+    final AtomicLong fileNameCounter = new AtomicLong();
+
+    /**
+     * <p> Constructor.
+     *
+     * @param folder The folder where the files are written. It is created if it does not exist.
+     * @param threshold The maximum amount of data in bytes a single storage can keep in the tier, or -1 for no limit.
+     * @param maxSize The maximum amount of data in bytes all the storages can keep in the tier, or -1 for no limit.
+     */
+    public DirectoryStorageTier(final File folder, final long threshold, final long maxSize) {
+        super(threshold, maxSize);
+        if (!folder.exists() && !folder.mkdirs()) {
+            throw new IllegalStateException("Unable to create the folder: " + folder.getAbsolutePath());
+        }
+        this.folder = folder;
+    }
+
+    /**
+     * <p> Constructor for a tier with no limits, typically the last one.
+     *
+     * @param folder The folder where the files are written. It is created if it does not exist.
+     */
+    public DirectoryStorageTier(final File folder) {
+        this(folder, -1, -1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public StreamStorage newStorage() {
+        final File file = new File(folder, fileNamePrefix + Long.toHexString(fileNameCounter.incrementAndGet()) + ".tmp");
+        return FileStreamStorage.directToFile(file, false).deleteFilesOnDispose();
+    }
+
+    /**
+     * <p> Returns the folder where the files are written.
+     *
+     * @return the folder.
+     */
+    public File getFolder() {
+        return folder;
+    }
+
+}
@@ -20,6 +20,22 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * <p> A configurable {@code StreamStorage} that:
@@ -30,6 +46,17 @@ import java.io.*;
  *     <li>Allows to automatically delete the file after the {@link InputStream} returned by the {@link #getInputStream()} method is closed.</li>
  *     <li>Allows to append the data to the underlying file (useful for resuming writes).</li>
  *     <li>Allows to set a maximum capacity.</li>
+ *     <li>Allows to map the file in memory once the data has been written (see {@link #map()}).</li>
+ *     <li>Allows to flush the in memory data to disk in background when the threshold is reached (see {@link #spillExecutor(Executor)}).</li>
+ *     <li>Allows to coalesce the small writes to disk in a buffer (see {@link #writeBufferSize(int)}).</li>
+ *     <li>Allows to read the data while it is being written (see {@link #tailing()}).</li>
+ *     <li>Allows the readers of the file to share a single channel (see {@link #sharedReaders()}).</li>
+ *     <li>Allows to choose memory or disk up front when the size of the data is known (see {@link #expectedSize(long)}).</li>
+ *     <li>Allows to recycle the file instead of deleting it (see {@link #tempFilePool(TempFilePool)}).</li>
+ *     <li>Allows to report the usage of memory and disk to a listener (see {@link #listener(StreamStorageListener)}).</li>
+ *     <li>Allows to delete the file if the storage is garbage collected without being disposed (see {@link #reclaimOrphanFile()}).</li>
+ *     <li>Allows to compress the data written to the file (see {@link #codec(StorageCodec)}).</li>
+ *     <li>Allows to compute digests and checksums of the data while it is written (see {@link #digests(String...)}).</li>
  * </ul>
  *
  * <p> The {@code FileStreamStorage} has two distinct states:
@@ -41,6 +68,7 @@ import java.io.*;
  * <p> A new instance will always start in a <i>write</i> state, ready to accept bytes and any call to the {@link #getInputStream()} will fail.
  *     Once all the data has been written, the {@link #close()} method needs to be called to close the write channel and switch the
  *     {@code FileStreamStorage} to the <i>read</i> state. At that point the data can be read via {@link #getInputStream()}.
+ *     A storage configured with {@link #tailing()} can also be read while it is in the <i>write</i> state.
  *
  * @author Silvano Riz
  */
@@ -66,8 +94,46 @@ public class FileStreamStorage extends StreamStorage {
 
     volatile ReadWriteStatus readWriteStatus;
     volatile StorageMode storageMode;
-    volatile ByteArrayOutputStream byteArrayOutputStream;
+    volatile SegmentedByteArrayOutputStream byteArrayOutputStream;
     volatile FileOutputStream fileOutputStream;
+    final List<MappedByteBuffer> mappedByteBuffers = new ArrayList<MappedByteBuffer>();
+
+    volatile MemoryBudget memoryBudget;
+    volatile long reservedMemory = 0;
+    volatile boolean spillRequested = false;
+
+    volatile Executor spillExecutor;
+    volatile FutureTask<FileOutputStream> pendingSpill;
+    volatile SegmentedByteArrayOutputStream spillBacklog;
+    volatile long reservedBacklogMemory = 0;
+    volatile long allocatedBacklogMemory = 0;
+
+    volatile int writeBufferSize = 0;
+    byte[] writeBuffer;
+    int writeBufferCount = 0;
+
+    volatile boolean tailing = false;
+    volatile long publishedBytes = 0;
+    volatile int waitingReaders = 0;
+    // Guards the in memory data and the switch to file while tailing readers exist, and it is used to wait for new data.
+    final Object tailLock = new Object();
+
+    volatile SharedFileChannel sharedFileChannel;
+
+    volatile TempFilePool tempFilePool;
+
+    volatile StreamStorageListener listener;
+    volatile long allocatedMemory = 0;
+    volatile long closedFileSize = 0;
+    volatile boolean disposeResult = false;
+
+    volatile OrphanFileReaper.FileReference orphanFileReference;
+
+    volatile StorageCodec codec;
+    volatile OutputStream encodedOutputStream;
+
+    volatile StorageDigest[] digests;
+    volatile Map<String, byte[]> digestValues;
 
     /**
      * <p> Returns a reference to a {@link FileStreamStorage} where the data is written to a file when the data is greater in
@@ -114,6 +180,267 @@ public class FileStreamStorage extends StreamStorage {
         return this;
     }
 
+    /**
+     * <p> Configures the current {@link FileStreamStorage} to reserve the memory used by the in memory data from the given
+     *     {@link MemoryBudget}. If the budget is exhausted the data is flushed to disk even if the threshold has not been reached.
+     *     The memory is given back to the budget when the data is flushed to disk or when the storage is disposed.
+     *     The memory buffering the writes during a background flush (see {@link #spillExecutor(Executor)}) is reserved
+     *     from the budget as well.
+     *     This must be configured before writing any data.
+     *
+     * @param memoryBudget The memory budget shared with other storages.
+     * @return The current object
+     */
+    public FileStreamStorage memoryBudget(final MemoryBudget memoryBudget){
+        this.memoryBudget = memoryBudget;
+        return this;
+    }
+
+    /**
+     * <p> Configures the current {@link FileStreamStorage} to flush the in memory data to disk on the given {@code Executor}
+     *     when the threshold is reached, instead of doing it on the writing thread. Until the flush is completed the new
+     *     writes are buffered in memory, up to another threshold worth of bytes; past that point, or when the
+     *     {@link #memoryBudget(MemoryBudget)} refuses the memory for the buffered writes, the writing thread waits for the flush. {@link #flush()} and {@link #close()} wait for the flush to complete.
+     *     If the executor rejects the task the flush happens on the writing thread.
+     *     This must be configured before writing any data.
+     *
+     * @param spillExecutor The executor used to flush the in memory data to disk or {@code null} to flush it on the writing thread.
+     * @return The current object
+     */
+    public FileStreamStorage spillExecutor(final Executor spillExecutor){
+        this.spillExecutor = spillExecutor;
+        return this;
+    }
+
+    /**
+     * <p> Configures the current {@link FileStreamStorage} to coalesce the writes to disk in a buffer of the given size,
+     *     so writers producing few bytes at the time do not make a system call per write. The buffer is written to the
+     *     file when it is full, on {@link #flush()} and on {@link #close()}. Writes that are at least as big as the buffer
+     *     bypass it. Until then the buffered bytes are not visible in the file.
+     *     This must be configured before writing any data.
+     *
+     * @param writeBufferSize The size of the buffer in bytes. 0 disables the buffer.
+     * @return The current object
+     */
+    public FileStreamStorage writeBufferSize(final int writeBufferSize){
+        if (writeBufferSize < 0){
+            throw new IllegalArgumentException("Invalid write buffer size " + writeBufferSize);
+        }
+        this.writeBufferSize = writeBufferSize;
+        return this;
+    }
+
+    /**
+     * <p> Configures the current {@link FileStreamStorage} to allow reading the data while it is still being written.
+     *     In the <i>write</i> state {@link #getInputStream()} returns a stream that follows the writer, from memory and
+     *     then from the file once the data has been flushed to disk. When the stream reaches the bytes written so far it
+     *     blocks until more data is written, and it reports the end of the stream only once {@link #close()} has been called.
+     *     If the storage is disposed while a reader is waiting, the reader fails with an {@code IOException}.
+     *
+     * <p> Tailing readers need the data on disk to be readable as soon as it is written, so in this mode the in memory
+     *     data is always flushed to disk on the writing thread (see {@link #spillExecutor(Executor)}) and the write
+     *     buffer is not used (see {@link #writeBufferSize(int)}). The writes to memory are synchronized with the readers.
+     *     This must be configured before writing any data and it cannot be used in append mode, as the readers would
+     *     read the existing content of the file instead of the new data.
+     *
+     * @return The current object
+     */
+    public FileStreamStorage tailing(){
+        if (codec != null){
+            throw new IllegalStateException("A storage with a codec cannot be read while it is being written");
+        }
+        if (append){
+            throw new IllegalStateException("A storage in append mode cannot be read while it is being written");
+        }
+        this.tailing = true;
+        return this;
+    }
+
+    /**
+     * <p> Configures the current {@link FileStreamStorage} so that all the readers of the file share a single read-only
+     *     {@code FileChannel} instead of opening the file once each. Every {@code InputStream} returned by
+     *     {@link #getInputStream()} reads with positional reads on the shared channel, which is closed when the last
+     *     stream is closed. {@link #transferTo(WritableByteChannel)} and {@link #map()} use the same channel.
+     *
+     * <p> In this mode closing a stream never deletes the file. If the storage is configured to delete the files on close
+     *     or on dispose, the file is purged once the storage has been disposed and the last stream has been closed, so
+     *     readers can consume the data concurrently without deleting it from under each other.
+     *     As the channel is shared, a reader interrupted during a read closes it for all the readers.
+     *
+     * @return The current object
+     */
+    public FileStreamStorage sharedReaders(){
+        if (sharedFileChannel == null){
+            this.sharedFileChannel = new SharedFileChannel(file);
+        }
+        return this;
+    }
+
+    /**
+     * <p> Configures the current {@link FileStreamStorage} to give the file back to the given {@link TempFilePool} instead
+     *     of deleting it when the storage is disposed. The file is truncated and reused by another storage, so it MUST NOT
+     *     be read after {@link #dispose()}, not even via an {@code InputStream} obtained before.
+     *     If the storage never wrote to the file, the file is given back to the pool on dispose even if the storage is not
+     *     configured to delete it, as it was only reserved for this storage.
+     *
+     * <p> The files deleted when an {@code InputStream} is closed (see {@link #deleteFilesOnClose()}) are not recycled,
+     *     unless the storage is configured with {@link #sharedReaders()}.
+     *
+     * @param tempFilePool The pool or {@code null} to delete the file.
+     * @return The current object
+     */
+    public FileStreamStorage tempFilePool(final TempFilePool tempFilePool){
+        this.tempFilePool = tempFilePool;
+        return this;
+    }
+
+    /**
+     * <p> Configures the current {@link FileStreamStorage} to report the memory allocations, the switch to file, the close
+     *     and the dispose to the given {@link StreamStorageListener}. The storage is reported as created straight away.
+     *     This must be configured before writing any data.
+     *
+     * @param listener The listener.
+     * @return The current object
+     */
+    public FileStreamStorage listener(final StreamStorageListener listener){
+        this.listener = listener;
+        if (listener != null){
+            listener.storageCreated(this);
+        }
+        return this;
+    }
+
+    /**
+     * <p> Configures the current {@link FileStreamStorage} to delete its file if the storage becomes unreachable without
+     *     having been disposed, for example because the caller forgot to call {@link #dispose()} after an error.
+     *     The file is deleted by a background thread some time after the storage has been garbage collected.
+     *
+     * <p> Any {@code InputStream} still reading the file MUST keep a reference to the storage, otherwise the file can be
+     *     deleted while it is being read.
+     *
+     * @return The current object
+     */
+    public FileStreamStorage reclaimOrphanFile(){
+        if (orphanFileReference == null){
+            orphanFileReference = OrphanFileReaper.register(this, file);
+        }
+        return this;
+    }
+
+    /**
+     * <p> Configures the current {@link FileStreamStorage} to pass the data written to the file through the given
+     *     {@link StorageCodec}, for example to compress it with a {@link DeflateCodec}. The data is encoded as it is
+     *     written to disk and decoded by the {@code InputStream} returned by {@link #getInputStream()}, while the in
+     *     memory data is kept as it is.
+     *
+     * <p> An encoded file cannot be appended to, read while it is being written or mapped in memory, so a storage with a
+     *     codec cannot be configured in append or {@link #tailing()} mode and {@link #map()} fails once the data is on disk.
+     *     {@link #transferTo(WritableByteChannel)} copies the decoded data instead of transferring the file.
+     *     {@link #flush()} does not force the bytes held by the codec to the file.
+     *     This must be configured before writing any data.
+     *
+     * @param codec The codec or {@code null} to write the data to the file as it is.
+     * @return The current object
+     */
+    public FileStreamStorage codec(final StorageCodec codec){
+        if (codec != null && (append || tailing)){
+            throw new IllegalStateException("A codec cannot be used in append or tailing mode");
+        }
+        this.codec = codec;
+        return this;
+    }
+
+    /**
+     * <p> Configures the current {@link FileStreamStorage} to compute the given digests or checksums of the data as it is
+     *     written, so they are available via {@link #getDigest(String)} once {@link #close()} has been called without
+     *     reading the data again. The algorithms are the {@code MessageDigest} ones (e.g. {@code MD5} or {@code SHA-256})
+     *     and the checksums {@code CRC32}, {@code Adler32} and, from Java 9, {@code CRC32C}, whose value is returned as
+     *     4 bytes in big endian order.
+     *     This must be configured before writing any data.
+     *
+     * @param algorithms The names of the algorithms. No algorithm disables the digests.
+     * @return The current object
+     * @throws IllegalArgumentException if an algorithm is not supported.
+     */
+    public FileStreamStorage digests(final String... algorithms){
+        if (algorithms == null || algorithms.length == 0){
+            this.digests = null;
+            return this;
+        }
+        final StorageDigest[] digests = new StorageDigest[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++){
+            digests[i] = StorageDigest.newDigest(algorithms[i]);
+        }
+        this.digests = digests;
+        return this;
+    }
+
+    /**
+     * <p> Returns the digest of the data computed with the given algorithm. See {@link #digests(String...)}.
+     *     The method can only be called once the data has been written (see {@link #close()}).
+     *
+     * @param algorithm The name of the algorithm, as configured.
+     * @return The digest.
+     * @throws IllegalArgumentException if the storage has not been configured with the algorithm.
+     */
+    public byte[] getDigest(final String algorithm){
+        assertIsReadable();
+        if (digestValues != null){
+            for (Map.Entry<String, byte[]> digestValue : digestValues.entrySet()){
+                if (digestValue.getKey().equalsIgnoreCase(algorithm)){
+                    return digestValue.getValue().clone();
+                }
+            }
+        }
+        throw new IllegalArgumentException("No digest computed with the algorithm " + algorithm);
+    }
+
+    /**
+     * <p> Returns all the digests of the data, by algorithm. See {@link #digests(String...)}.
+     *     The method can only be called once the data has been written (see {@link #close()}).
+     *
+     * @return The digests, in the order the algorithms have been configured. Empty if no digest has been configured.
+     */
+    public Map<String, byte[]> getDigests(){
+        assertIsReadable();
+        if (digestValues == null){
+            return Collections.emptyMap();
+        }
+        final Map<String, byte[]> digests = new LinkedHashMap<String, byte[]>();
+        for (Map.Entry<String, byte[]> digestValue : digestValues.entrySet()){
+            digests.put(digestValue.getKey(), digestValue.getValue().clone());
+        }
+        return digests;
+    }
+
+    /**
+     * <p> Configures the current {@link FileStreamStorage} for data of the given size.
+     *     If the data is bigger than the threshold the file is created straight away, so the data is never buffered in
+     *     memory and copied to disk when the threshold is reached. Otherwise the in memory buffer is sized to hold exactly
+     *     the expected amount of data in one allocation. More data than expected can still be written.
+     *     This must be configured before writing any data.
+     *
+     * @param expectedSize The expected size of the data in bytes, or -1 if it is not known.
+     * @return The current object
+     */
+    public FileStreamStorage expectedSize(final long expectedSize){
+        if (expectedSize < 0 || !isInMemory()){
+            return this;
+        }
+        if (expectedSize > threshold){
+            if (log.isDebugEnabled()) log.debug("Expected size " + expectedSize + " over the threshold, switching to file");
+            try {
+                switchToFileNow();
+            }catch (IOException e){
+                throw new IllegalStateException("Unable to create the outputStream.", e);
+            }
+        }else if (expectedSize > 0 && byteArrayOutputStream != null && byteArrayOutputStream.size() == 0){
+            byteArrayOutputStream = new SegmentedByteArrayOutputStream((int) expectedSize,
+                    Math.max((int) expectedSize, SegmentedByteArrayOutputStream.DEFAULT_MAX_SEGMENT_SIZE), threshold);
+        }
+        return this;
+    }
+
     /**
      * <p> Configures the current {@link FileStreamStorage} to accept up to {@code maxCapacity} bytes.
      *     If the threshold is exceeded the storage will throw an {@link IllegalStateException}
@@ -164,7 +491,7 @@ public class FileStreamStorage extends StreamStorage {
             fileOutputStream = newFileOutputStream();
         }else{
             storageMode = StorageMode.MEMORY;
-            byteArrayOutputStream = new ByteArrayOutputStream();
+            byteArrayOutputStream = newByteArrayOutputStream();
         }
     }
 
@@ -179,11 +506,13 @@ public class FileStreamStorage extends StreamStorage {
     public void write(int b) throws IOException {
         assertIsWritable();
         assertMaxCapacity(1);
+        updateDigests(b);
         if (checkThreshold(1)){
-            byteArrayOutputStream.write(b);
+            appendToMemory(b);
         }else{
-            fileOutputStream.write(b);
+            writeToDisk(b);
         }
+        publish(1);
     }
 
     /**
@@ -193,11 +522,13 @@ public class FileStreamStorage extends StreamStorage {
     public void write(byte[] b, int off, int len) throws IOException {
         assertIsWritable();
         assertMaxCapacity(len);
+        updateDigests(b, off, len);
         if (checkThreshold(len)){
-            byteArrayOutputStream.write(b, off, len);
+            appendToMemory(b, off, len);
         }else{
-            fileOutputStream.write(b, off, len);
+            writeToDisk(b, off, len);
         }
+        publish(len);
     }
 
     /**
@@ -207,19 +538,84 @@ public class FileStreamStorage extends StreamStorage {
     public void write(byte[] b) throws IOException {
         assertIsWritable();
         assertMaxCapacity(b.length);
+        updateDigests(b, 0, b.length);
         if (checkThreshold(b.length)){
-            byteArrayOutputStream.write(b);
+            appendToMemory(b, 0, b.length);
+        }else{
+            writeToDisk(b, 0, b.length);
+        }
+        publish(b.length);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p> When the data is on disk the buffer is written directly to the file channel, so direct buffers are not copied on the heap.
+     */
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        assertIsWritable();
+        final int length = src.remaining();
+        assertMaxCapacity(length);
+        updateDigests(src);
+        if (checkThreshold(length)){
+            appendToMemory(src);
+        }else{
+            writeToFile(new ByteBuffer[]{src}, 0, 1, length);
+        }
+        publish(length);
+        return length;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p> When the data is on disk the buffers are written to the file channel with a single gathering write (or as few as possible).
+     */
+    @Override
+    public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+        if (offset < 0 || length < 0 || offset > srcs.length - length) {
+            throw new IndexOutOfBoundsException();
+        }
+        assertIsWritable();
+        long total = 0;
+        for (int i = offset; i < offset + length; i++){
+            total += srcs[i].remaining();
+        }
+        assertMaxCapacity(total);
+        for (int i = offset; i < offset + length; i++){
+            updateDigests(srcs[i]);
+        }
+        if (checkThreshold((int) Math.min(total, Integer.MAX_VALUE))){
+            for (int i = offset; i < offset + length; i++){
+                appendToMemory(srcs[i]);
+            }
         }else{
-            fileOutputStream.write(b);
+            writeToFile(srcs, offset, length, total);
         }
+        publish(total);
+        return total;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOpen() {
+        return readWriteStatus.equals(ReadWriteStatus.WRITE);
     }
 
     /**
      * {@inheritDoc}
+     *
+     * <p> If the in memory data is being flushed to disk in background, the method waits for it to complete.
+     *     The bytes coalesced in the write buffer are written to the file.
      */
     @Override
     public void flush() throws IOException {
         assertIsWritable();
+        completeSpill();
+        flushWriteBuffer();
         if (fileOutputStream != null) {
             fileOutputStream.flush();
         }
@@ -235,18 +631,125 @@ public class FileStreamStorage extends StreamStorage {
 
     /**
      * {@inheritDoc}
+     *
+     * <p> If the data is in memory the returned stream is a {@link SegmentedByteArrayInputStream} reading directly from the
+     *     memory buffer, so the data is not copied and the method can be called multiple times without extra allocations.
+     *
+     * <p> If the storage is configured with {@link #tailing()} and it is still in the <i>write</i> state, the returned
+     *     stream follows the writer.
+     *
+     * <p> If the storage is configured with {@link #sharedReaders()} and the data is on disk, the returned stream reads
+     *     the channel shared by all the readers.
+     *
+     * <p> If the storage is configured with a {@link #codec(StorageCodec)} and the data is on disk, the returned stream
+     *     decodes it.
      */
     @Override
     public InputStream getInputStream() {
-        if (readWriteStatus.equals(ReadWriteStatus.READ)) {
-            if (storageMode.equals(StorageMode.MEMORY)) {
-                return new ByteArrayInputStream(byteArrayOutputStream.toByteArray());
-            } else {
-                return newFileInputStream();
+        if (tailing && readWriteStatus.equals(ReadWriteStatus.WRITE)){
+            return new TailingInputStream(this);
+        }
+        assertIsReadable();
+        if (storageMode.equals(StorageMode.MEMORY)) {
+            return newMemoryInputStream();
+        } else if (sharedFileChannel != null) {
+            return decode(newSharedFileInputStream());
+        } else {
+            return decode(newFileInputStream());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p> If the data is on disk it is transferred via {@link FileChannel#transferTo(long, long, WritableByteChannel)}, allowing
+     *     the operating system to move the bytes directly from the file to the destination (for example a socket) without
+     *     copying them in user space. If the data is in memory the segments of the memory buffer are written to the channel
+     *     as they are, with a single gathering write when the channel supports it.
+     *
+     * <p> If the storage is configured to delete the files on close, the file is deleted once the transfer is completed,
+     *     the same way it happens when the {@code InputStream} returned by {@link #getInputStream()} is closed.
+     */
+    @Override
+    public long transferTo(final WritableByteChannel channel) throws IOException {
+        assertIsReadable();
+        if (storageMode.equals(StorageMode.MEMORY)) {
+            return transferMemoryTo(channel);
+        } else {
+            return transferFileTo(channel);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long transferTo(final OutputStream outputStream) throws IOException {
+        assertIsReadable();
+        if (storageMode.equals(StorageMode.MEMORY)) {
+            writeMemoryTo(outputStream);
+            return memorySize();
+        } else {
+            return transferFileTo(Channels.newChannel(outputStream));
+        }
+    }
+
+    /**
+     * <p> Maps the whole file in memory, read-only. See {@link #map(long, long)}.
+     *
+     * @return The read-only {@code MappedByteBuffer} of the data.
+     * @throws IOException if an I/O error occurs.
+     */
+    public MappedByteBuffer map() throws IOException {
+        return map(0, file.length());
+    }
+
+    /**
+     * <p> Maps a region of the file in memory, read-only. Random and repeated accesses to the returned buffer are served
+     *     directly by the page cache, without read system calls or heap buffers.
+     *     The method can only be called once the data has been written (see {@link #close()}) and it has been flushed to disk
+     *     (see {@link #isInMemory()}). For data in memory use the {@link SegmentedByteArrayInputStream} returned by {@link #getInputStream()}.
+     *
+     * <p> The mapping is released when the storage is disposed via {@link #dispose()}. The returned buffers (and any slice
+     *     or duplicate of them) MUST NOT be accessed after that, doing so can crash the JVM.
+     *     When the storage is configured to delete the files on close, mapping the file counts as a read and the file is
+     *     deleted on {@link #dispose()}.
+     *
+     * @param position The position in the file where the mapped region starts.
+     * @param size The size of the mapped region.
+     * @return The read-only {@code MappedByteBuffer} of the region.
+     * @throws IOException if an I/O error occurs.
+     */
+    public MappedByteBuffer map(final long position, final long size) throws IOException {
+        assertIsReadable();
+        if (storageMode.equals(StorageMode.MEMORY)) {
+            throw new IllegalStateException("The data is in memory and it cannot be mapped. Use the getInputStream() method to read it.");
+        }
+        if (codec != null) {
+            throw new IllegalStateException("The data is encoded and it cannot be mapped. Use the getInputStream() method to read it.");
+        }
+        if (sharedFileChannel != null){
+            try {
+                return map(sharedFileChannel.acquire(), position, size);
+            }finally {
+                sharedFileChannel.release();
             }
-        }else{
-            throw new IllegalStateException("The DeferredFileStreamStorage is still in write mode. Call the close() method when all the data has been written before asking for the InputStream.");
         }
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            return map(randomAccessFile.getChannel(), position, size);
+        }finally {
+            randomAccessFile.close();
+        }
+    }
+
+    MappedByteBuffer map(final FileChannel fileChannel, final long position, final long size) throws IOException {
+        // The mapping stays valid after the channel is closed
+        final MappedByteBuffer mappedByteBuffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        synchronized (mappedByteBuffers) {
+            mappedByteBuffers.add(mappedByteBuffer);
+        }
+        return mappedByteBuffer;
     }
 
     /**
@@ -261,52 +764,706 @@ public class FileStreamStorage extends StreamStorage {
     /**
      * <p> Dismisses the {@code DeferredFileStreamStorage} closing quietly the {@code OutputStream} and deleting the underlying file if it exists.
      *     This method is useful just in case of errors to free the resources and once called the {@code DeferredFileStreamStorage} is not usable anymore.
+     *     Calling it again only deletes a file kept by the previous call, e.g. after enabling {@link #deleteFilesOnDispose()}.
      *
      * @return <code>true</code> if and only if the file was created and it has been deleted successfully; <code>false</code> otherwise.
      */
     @Override
     public boolean dispose() {
+        if (readWriteStatus.equals(ReadWriteStatus.DISMISSED)){
+            // Already disposed. A file kept by the first call can still be deleted, but a file already purged is never
+            // purged again: it could have been given to the pool and taken by another storage in the meantime.
+            if (!disposeResult){
+                disposeResult = purgeDisposedFile(false);
+            }
+            return disposeResult;
+        }
+        final OrphanFileReaper.FileReference orphanFileReference = this.orphanFileReference;
+        if (orphanFileReference != null){
+            orphanFileReference.unregister();
+            this.orphanFileReference = null;
+        }
         try {
             close(ReadWriteStatus.DISMISSED);
         } catch (Exception e) {
             // Nothing to do
         }
-        return !(file != null && file.exists()) || (deleteFilesOnDispose && file.delete());
+        synchronized (tailLock) {
+            if (isInMemory()) {
+                releaseMemory();
+            }
+        }
+        if (spillBacklog != null){
+            // The background flush failed, the backlog will never be written
+            releaseBacklogMemory();
+        }
+        final boolean mapped = unmap();
+        if (listener != null){
+            listener.storageDisposed(this, closedFileSize);
+        }
+        disposeResult = purgeDisposedFile(mapped);
+        return disposeResult;
+    }
+
+    boolean purgeDisposedFile(final boolean mapped){
+        // A storage that never wrote to its file only holds it as a spare taken from the pool.
+        final boolean unusedPooledFile = tempFilePool != null && isInMemory();
+        if (sharedFileChannel != null){
+            return file == null || sharedFileChannel.dispose(deleteFilesOnDispose || deleteFilesOnClose || unusedPooledFile, tempFilePool);
+        }
+        return !(file != null && file.exists()) || ((deleteFilesOnDispose || (deleteFilesOnClose && mapped) || unusedPooledFile) && purgeFile());
+    }
+
+    /**
+     * <p> Gives the file to the {@link TempFilePool}, if any, or deletes it.
+     *
+     * @return true if the file has been pooled or deleted, false otherwise.
+     */
+    boolean purgeFile(){
+        if (tempFilePool != null && tempFilePool.release(file)){
+            return true;
+        }
+        return file.delete();
     }
 
     void close(final ReadWriteStatus newReadWriteStatus) throws IOException {
+        final boolean closing = readWriteStatus.equals(ReadWriteStatus.WRITE) && newReadWriteStatus.equals(ReadWriteStatus.READ);
         readWriteStatus = newReadWriteStatus;
-        if (fileOutputStream != null) {
+        try {
+            completeSpill();
+            flushWriteBuffer();
+        }finally {
+            writeBuffer = null;
+            closeDiskOutputStream();
+            if (closing && digests != null){
+                completeDigests();
+            }
+            if (closing && listener != null){
+                if (isInMemory()){
+                    listener.storageClosed(this, memorySize(), true);
+                }else{
+                    closedFileSize = file.length();
+                    listener.storageClosed(this, closedFileSize, false);
+                }
+            }
+            if (tailing){
+                synchronized (tailLock){
+                    tailLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    void updateDigests(final int b){
+        final StorageDigest[] digests = this.digests;
+        if (digests != null){
+            for (StorageDigest digest : digests){
+                digest.update(b);
+            }
+        }
+    }
+
+    void updateDigests(final byte[] b, final int off, final int len){
+        final StorageDigest[] digests = this.digests;
+        if (digests != null){
+            for (StorageDigest digest : digests){
+                digest.update(b, off, len);
+            }
+        }
+    }
+
+    void updateDigests(final ByteBuffer src){
+        final StorageDigest[] digests = this.digests;
+        if (digests != null){
+            for (StorageDigest digest : digests){
+                digest.update(src);
+            }
+        }
+    }
+
+    void completeDigests(){
+        final Map<String, byte[]> digestValues = new LinkedHashMap<String, byte[]>();
+        for (StorageDigest digest : digests){
+            digestValues.put(digest.algorithm, digest.digest());
+        }
+        this.digestValues = digestValues;
+    }
+
+    void closeDiskOutputStream() throws IOException {
+        if (fileOutputStream == null) {
+            return;
+        }
+        try {
+            // Even with no data the codec writes its trailer, so the file can be decoded.
+            if (codec != null) {
+                diskOutputStream().close();
+            }
+        }finally {
             fileOutputStream.close();
         }
     }
 
-    boolean checkThreshold(final int lengthToWrite) throws IOException {
-        if (byteArrayOutputStream != null && byteArrayOutputStream.size() + lengthToWrite <= threshold){
+    boolean unmap(){
+        synchronized (mappedByteBuffers) {
+            if (mappedByteBuffers.isEmpty()){
+                return false;
+            }
+            for (MappedByteBuffer mappedByteBuffer : mappedByteBuffers){
+                DirectBufferCleaner.clean(mappedByteBuffer);
+            }
+            mappedByteBuffers.clear();
             return true;
         }
+    }
+
+    boolean checkThreshold(final int lengthToWrite) throws IOException {
         if (isInMemory()){
+            if (!spillRequested && reserveMemory(lengthToWrite)){
+                return true;
+            }
             switchToFile();
         }
         return false;
     }
 
+    void assertIsReadable(){
+        if (!readWriteStatus.equals(ReadWriteStatus.READ)) {
+            throw new IllegalStateException("The DeferredFileStreamStorage is still in write mode. Call the close() method when all the data has been written before asking for the InputStream.");
+        }
+    }
+
     void assertIsWritable(){
         if (!readWriteStatus.equals(ReadWriteStatus.WRITE)){
             throw new IllegalStateException("OutputStream is closed");
         }
     }
 
+    void writeToDisk(final int b) throws IOException {
+        if (isSpillInProgress(1)){
+            spillBacklog.write(b);
+        }else if (isWriteBuffered(1)){
+            writeBuffer[writeBufferCount++] = (byte) b;
+        }else{
+            diskOutputStream().write(b);
+        }
+    }
+
+    void writeToDisk(final byte[] b, final int off, final int len) throws IOException {
+        if (isSpillInProgress(len)){
+            spillBacklog.write(b, off, len);
+        }else if (isWriteBuffered(len)){
+            System.arraycopy(b, off, writeBuffer, writeBufferCount, len);
+            writeBufferCount += len;
+        }else{
+            diskOutputStream().write(b, off, len);
+        }
+    }
+
+    void writeToFile(final ByteBuffer[] srcs, final int offset, final int length, final long total) throws IOException {
+        if (isSpillInProgress((int) Math.min(total, Integer.MAX_VALUE))){
+            for (int i = offset; i < offset + length; i++){
+                spillBacklog.write(srcs[i]);
+            }
+            return;
+        }
+        if (isWriteBuffered((int) Math.min(total, Integer.MAX_VALUE))){
+            for (int i = offset; i < offset + length; i++){
+                final int remaining = srcs[i].remaining();
+                srcs[i].get(writeBuffer, writeBufferCount, remaining);
+                writeBufferCount += remaining;
+            }
+            return;
+        }
+        if (codec != null){
+            final WritableByteChannel channel = Channels.newChannel(diskOutputStream());
+            for (int i = offset; i < offset + length; i++){
+                while (srcs[i].hasRemaining()){
+                    channel.write(srcs[i]);
+                }
+            }
+            return;
+        }
+        final FileChannel fileChannel = fileOutputStream.getChannel();
+        long written = 0;
+        while (written < total){
+            written += fileChannel.write(srcs, offset, length);
+        }
+    }
+
+    /**
+     * <p> Returns the stream writing to the file, encoding the data if the storage is configured with a codec.
+     *
+     * @return The stream writing to the file.
+     * @throws IOException if an I/O error occurs.
+     */
+    OutputStream diskOutputStream() throws IOException {
+        if (codec == null){
+            return fileOutputStream;
+        }
+        if (encodedOutputStream == null){
+            encodedOutputStream = codec.encode(fileOutputStream);
+        }
+        return encodedOutputStream;
+    }
+
+    /**
+     * <p> Checks if {@code length} bytes have to be coalesced in the write buffer. If the buffer cannot take them it is
+     *     written to the file first. Writes that are as big as the buffer are not buffered; in that case the buffer is
+     *     written to the file so the order of the bytes is preserved.
+     *
+     * @param length The number of bytes about to be written.
+     * @return true if the bytes have to be copied in the write buffer, false if they have to be written to the file.
+     * @throws IOException if an I/O error occurs.
+     */
+    boolean isWriteBuffered(final int length) throws IOException {
+        if (writeBufferSize <= 0 || tailing){
+            return false;
+        }
+        if (length >= writeBufferSize){
+            flushWriteBuffer();
+            return false;
+        }
+        if (writeBuffer == null){
+            writeBuffer = new byte[writeBufferSize];
+        }else if (writeBufferCount + length > writeBuffer.length){
+            flushWriteBuffer();
+        }
+        return true;
+    }
+
+    void flushWriteBuffer() throws IOException {
+        if (writeBufferCount > 0){
+            diskOutputStream().write(writeBuffer, 0, writeBufferCount);
+            writeBufferCount = 0;
+        }
+    }
+
     void switchToFile() throws IOException {
 
         if (log.isDebugEnabled()) log.debug("Switching to file");
 
+        if (tailing){
+            synchronized (tailLock){
+                switchToFileNow();
+            }
+        }else if (spillExecutor != null){
+            switchToFileInBackground();
+        }else{
+            switchToFileNow();
+        }
+    }
+
+    void switchToFileNow() throws IOException {
+        final long start = System.nanoTime();
+        final int bytes = memorySize();
         fileOutputStream = new FileOutputStream(file);
-        fileOutputStream.write(byteArrayOutputStream.toByteArray());
+        writeMemoryTo(diskOutputStream());
         fileOutputStream.flush();
-        byteArrayOutputStream.reset();
-        byteArrayOutputStream = null;
         storageMode = StorageMode.DISK;
+        releaseMemory();
+        reportSwitchedToFile(bytes, start);
+    }
+
+    void reportSwitchedToFile(final int bytes, final long start){
+        // Only actual copies are reported, not the file created up front for data known to be big
+        if (listener != null && bytes > 0){
+            listener.switchedToFile(this, bytes, System.nanoTime() - start);
+        }
+    }
+
+    void switchToFileInBackground(){
+        // From now on the in memory data is only accessed by the spill task, the new writes go to the backlog.
+        final FutureTask<FileOutputStream> spill = new FutureTask<FileOutputStream>(new Callable<FileOutputStream>() {
+            @Override
+            public FileOutputStream call() throws Exception {
+                final long start = System.nanoTime();
+                final int bytes = memorySize();
+                try {
+                    final FileOutputStream spillOutputStream = new FileOutputStream(file);
+                    try {
+                        if (codec != null){
+                            // Handed over to the writing thread with the stream, via the completion of the task.
+                            encodedOutputStream = codec.encode(spillOutputStream);
+                            writeMemoryTo(encodedOutputStream);
+                        }else{
+                            writeMemoryTo(spillOutputStream);
+                        }
+                        spillOutputStream.flush();
+                        reportSwitchedToFile(bytes, start);
+                        return spillOutputStream;
+                    }catch (IOException e){
+                        spillOutputStream.close();
+                        throw e;
+                    }
+                }finally {
+                    releaseMemory();
+                }
+            }
+        });
+        spillBacklog = new SegmentedByteArrayOutputStream(Math.min(SegmentedByteArrayOutputStream.DEFAULT_INITIAL_SEGMENT_SIZE, threshold),
+                SegmentedByteArrayOutputStream.DEFAULT_MAX_SEGMENT_SIZE, threshold);
+        pendingSpill = spill;
+        storageMode = StorageMode.DISK;
+        try {
+            spillExecutor.execute(spill);
+        }catch (RejectedExecutionException e){
+            if (log.isDebugEnabled()) log.debug("Background flush rejected, flushing on the writing thread", e);
+            spill.run();
+        }
+    }
+
+    void appendToMemory(final int b){
+        if (tailing){
+            synchronized (tailLock){
+                writeToMemory(b);
+            }
+        }else{
+            writeToMemory(b);
+        }
+    }
+
+    void appendToMemory(final byte[] b, final int off, final int len){
+        if (tailing){
+            synchronized (tailLock){
+                writeToMemory(b, off, len);
+            }
+        }else{
+            writeToMemory(b, off, len);
+        }
+    }
+
+    void appendToMemory(final ByteBuffer src){
+        if (tailing){
+            synchronized (tailLock){
+                writeToMemory(src);
+            }
+        }else{
+            writeToMemory(src);
+        }
+    }
+
+    /**
+     * <p> Makes the bytes just written visible to the tailing readers and wakes up the ones waiting for them.
+     *
+     * @param length The number of bytes written.
+     */
+    void publish(final long length){
+        if (!tailing){
+            return;
+        }
+        publishedBytes += length;
+        // A reader increments waitingReaders before checking publishedBytes, so either the reader sees the new bytes
+        // or the writer sees the waiting reader.
+        if (waitingReaders > 0){
+            synchronized (tailLock){
+                tailLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * <p> Waits until some bytes past {@code position} have been written or the storage is not in the <i>write</i> state anymore.
+     *
+     * @param position The position of the reader.
+     * @throws InterruptedIOException if the thread is interrupted while waiting.
+     */
+    void awaitPublished(final long position) throws InterruptedIOException {
+        synchronized (tailLock){
+            waitingReaders++;
+            try {
+                while (publishedBytes <= position && readWriteStatus.equals(ReadWriteStatus.WRITE)){
+                    tailLock.wait();
+                }
+            }catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for data");
+            }finally {
+                waitingReaders--;
+            }
+        }
+    }
+
+    /**
+     * <p> Reads published bytes from memory, if the data is still in memory.
+     *
+     * @return the number of bytes read, or -1 if the data is on disk.
+     */
+    int readPublishedFromMemory(final long position, final byte[] b, final int off, final int len) throws IOException {
+        synchronized (tailLock){
+            if (readWriteStatus.equals(ReadWriteStatus.DISMISSED)){
+                throw new IOException("The storage has been disposed");
+            }
+            if (!isInMemory()){
+                return -1;
+            }
+            final InputStream inputStream = newMemoryInputStream();
+            long toSkip = position;
+            while (toSkip > 0){
+                final long skipped = inputStream.skip(toSkip);
+                if (skipped <= 0){
+                    throw new IOException("Unable to reach position " + position + " of the in memory data");
+                }
+                toSkip -= skipped;
+            }
+            return inputStream.read(b, off, len);
+        }
+    }
+
+    /**
+     * <p> Checks if the new writes have to be buffered in the backlog because the in memory data is still being flushed
+     *     to disk in background. If the flush is done or the backlog cannot take {@code length} more bytes, the method
+     *     waits for the flush to complete and writes the backlog to the file.
+     *
+     * @param length The number of bytes about to be written.
+     * @return true if the bytes have to be written to the backlog, false if they can be written to the file.
+     * @throws IOException if the background flush failed.
+     */
+    boolean isSpillInProgress(final int length) throws IOException {
+        if (pendingSpill == null){
+            return false;
+        }
+        if (!pendingSpill.isDone() && spillBacklog.size() + (long) length <= threshold && reserveBacklogMemory(length)){
+            return true;
+        }
+        completeSpill();
+        return false;
+    }
+
+    void completeSpill() throws IOException {
+        final FutureTask<FileOutputStream> spill = pendingSpill;
+        if (spill == null){
+            return;
+        }
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    fileOutputStream = spill.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }catch (ExecutionException e){
+            // The spill stays pending, so every following operation reports the failure.
+            throw new IOException("Unable to flush the data to disk", e.getCause());
+        }finally {
+            if (interrupted){
+                Thread.currentThread().interrupt();
+            }
+        }
+        pendingSpill = null;
+        try {
+            spillBacklog.writeTo(diskOutputStream());
+        }finally {
+            releaseBacklogMemory();
+        }
+    }
+
+    /**
+     * <p> Reserves the memory the backlog needs to take {@code length} more bytes, as {@link #reserveMemory(int)} does for
+     *     the in memory data. The backlog is only accessed by the writing thread, the spill task never touches it.
+     *
+     * @param length The number of bytes about to be written to the backlog.
+     * @return true if the bytes can be written to the backlog, false if the writing thread has to wait for the flush.
+     */
+    boolean reserveBacklogMemory(final int length){
+        if (memoryBudget != null || listener != null){
+            final int capacityIncrease = spillBacklog.capacityIncrease(length);
+            if (capacityIncrease > 0){
+                if (memoryBudget != null){
+                    if (!memoryBudget.reserve(this, capacityIncrease)){
+                        return false;
+                    }
+                    reservedBacklogMemory += capacityIncrease;
+                }
+                if (listener != null){
+                    allocatedBacklogMemory += capacityIncrease;
+                    listener.memoryAllocated(this, capacityIncrease);
+                }
+            }
+        }
+        return true;
+    }
+
+    void releaseBacklogMemory(){
+        spillBacklog = null;
+        if (memoryBudget != null && reservedBacklogMemory > 0){
+            final long released = reservedBacklogMemory;
+            // Cleared first, so the budget can tell if the storage still holds any memory
+            reservedBacklogMemory = 0;
+            memoryBudget.release(this, released);
+        }
+        if (listener != null && allocatedBacklogMemory > 0){
+            listener.memoryReleased(this, allocatedBacklogMemory);
+            allocatedBacklogMemory = 0;
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------------
+    // In memory storage. Subclasses keeping the in memory data somewhere else override the methods below and
+    // return null from newByteArrayOutputStream()
+    // ------------------------------------------------------------------------------------------------------
+
+    /**
+     * <p> Checks if {@code length} more bytes can be kept in memory. This is called only while the storage is in memory
+     *     and if it returns false the storage switches to file.
+     *
+     * @param length The number of bytes about to be written.
+     * @return true if the bytes can be written in memory, false otherwise.
+     */
+    boolean reserveMemory(final int length){
+        if (byteArrayOutputStream.size() + (long) length > threshold){
+            return false;
+        }
+        if (memoryBudget != null || listener != null){
+            final int capacityIncrease = byteArrayOutputStream.capacityIncrease(length);
+            if (capacityIncrease > 0){
+                if (memoryBudget != null){
+                    if (!memoryBudget.reserve(this, capacityIncrease)){
+                        return false;
+                    }
+                    reservedMemory += capacityIncrease;
+                }
+                reportMemoryAllocated(capacityIncrease);
+            }
+        }
+        return true;
+    }
+
+    void reportMemoryAllocated(final long bytes){
+        if (listener != null){
+            allocatedMemory += bytes;
+            listener.memoryAllocated(this, bytes);
+        }
+    }
+
+    void reportMemoryReleased(){
+        if (listener != null && allocatedMemory > 0){
+            listener.memoryReleased(this, allocatedMemory);
+            allocatedMemory = 0;
+        }
+    }
+
+    void writeToMemory(final int b){
+        byteArrayOutputStream.write(b);
+    }
+
+    void writeToMemory(final byte[] b, final int off, final int len){
+        byteArrayOutputStream.write(b, off, len);
+    }
+
+    void writeToMemory(final ByteBuffer src){
+        byteArrayOutputStream.write(src);
+    }
+
+    int memorySize(){
+        return byteArrayOutputStream.size();
+    }
+
+    void writeMemoryTo(final OutputStream outputStream) throws IOException {
+        byteArrayOutputStream.writeTo(outputStream);
+    }
+
+    InputStream newMemoryInputStream(){
+        return byteArrayOutputStream.toInputStream();
+    }
+
+    ByteBuffer[] memoryByteBuffers(){
+        return byteArrayOutputStream.toInputStream().asByteBuffers();
+    }
+
+    void releaseMemory(){
+        if (byteArrayOutputStream != null){
+            byteArrayOutputStream.reset();
+            byteArrayOutputStream = null;
+        }
+        if (memoryBudget != null && reservedMemory > 0){
+            final long released = reservedMemory;
+            // Cleared first, so the budget can tell if the storage still holds any memory
+            reservedMemory = 0;
+            memoryBudget.release(this, released);
+        }
+        reportMemoryReleased();
+    }
+
+    SegmentedByteArrayOutputStream newByteArrayOutputStream(){
+        // The threshold is used as capacity limit, the in memory data will never be bigger than that.
+        return new SegmentedByteArrayOutputStream(Math.min(SegmentedByteArrayOutputStream.DEFAULT_INITIAL_SEGMENT_SIZE, threshold),
+                SegmentedByteArrayOutputStream.DEFAULT_MAX_SEGMENT_SIZE, threshold);
+    }
+
+    long transferMemoryTo(final WritableByteChannel channel) throws IOException {
+        final ByteBuffer[] byteBuffers = memoryByteBuffers();
+        final long size = memorySize();
+        long transferred = 0;
+        if (channel instanceof GatheringByteChannel){
+            final GatheringByteChannel gatheringByteChannel = (GatheringByteChannel) channel;
+            while (transferred < size){
+                transferred += gatheringByteChannel.write(byteBuffers);
+            }
+        }else{
+            for (ByteBuffer byteBuffer : byteBuffers){
+                while (byteBuffer.hasRemaining()){
+                    transferred += channel.write(byteBuffer);
+                }
+            }
+        }
+        return transferred;
+    }
+
+    long transferFileTo(final WritableByteChannel channel) throws IOException {
+        if (codec != null){
+            // The file holds the encoded data, copy the decoded one.
+            return super.transferTo(channel);
+        }
+        if (sharedFileChannel != null){
+            try {
+                return transferFileTo(sharedFileChannel.acquire(), channel);
+            }finally {
+                sharedFileChannel.release();
+            }
+        }
+        final NameAwarePurgableFileInputStream inputStream = newFileInputStream();
+        try {
+            return transferFileTo(inputStream.getChannel(), channel);
+        }finally {
+            inputStream.close();
+        }
+    }
+
+    static long transferFileTo(final FileChannel fileChannel, final WritableByteChannel channel) throws IOException {
+        final long size = fileChannel.size();
+        long transferred = 0;
+        while (transferred < size){
+            final long count = fileChannel.transferTo(transferred, size - transferred, channel);
+            if (count <= 0){
+                // Nothing is transferred if the file has been truncated meanwhile or if the channel does not take the
+                // bytes, copy the rest via a buffer instead of retrying forever.
+                return transferred + copyFileTo(fileChannel, transferred, size, channel);
+            }
+            transferred += count;
+        }
+        return transferred;
+    }
+
+    static long copyFileTo(final FileChannel fileChannel, final long position, final long size, final WritableByteChannel channel) throws IOException {
+        final ByteBuffer byteBuffer = ByteBuffer.allocate(8192);
+        long copied = 0;
+        int read;
+        while (position + copied < size){
+            byteBuffer.limit((int) Math.min(byteBuffer.capacity(), size - position - copied));
+            if ((read = fileChannel.read(byteBuffer, position + copied)) == -1){
+                break;
+            }
+            byteBuffer.flip();
+            while (byteBuffer.hasRemaining()){
+                channel.write(byteBuffer);
+            }
+            byteBuffer.clear();
+            copied += read;
+        }
+        return copied;
     }
 
     FileOutputStream newFileOutputStream(){
@@ -325,6 +1482,30 @@ public class FileStreamStorage extends StreamStorage {
         }
     }
 
+    InputStream decode(final InputStream inputStream){
+        if (codec == null){
+            return inputStream;
+        }
+        try{
+            return codec.decode(inputStream);
+        }catch (Exception e){
+            try {
+                inputStream.close();
+            }catch (IOException ioe){
+                // Nothing to do
+            }
+            throw new IllegalStateException("Unable to create the inputStream.", e);
+        }
+    }
+
+    InputStream newSharedFileInputStream(){
+        try{
+            return new SharedFileChannelInputStream(sharedFileChannel);
+        }catch (Exception e){
+            throw new IllegalStateException("Unable to create the inputStream.", e);
+        }
+    }
+
     void assertMaxCapacity(long numBytesToBeWritten){
         if (maxCapacity == -1){
             return;// The storage can accept an infinite amount of bytes
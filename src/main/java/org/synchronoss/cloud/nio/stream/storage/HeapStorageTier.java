@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+/**
+ * <p> {@link StorageTier} keeping the data in heap memory, in a {@link FileStreamStorage} that never reaches its threshold.
+ *     The max size bounds the bytes of data, the heap used can be slightly higher as the buffers grow in segments.
+ *
+ * @author Silvano Riz
+ */
+public class HeapStorageTier extends BoundedStorageTier {
+
+    /**
+     * <p> Constructor.
+     *
+     * @param threshold The maximum amount of data in bytes a single storage can keep in the tier.
+     * @param maxMemory The maximum amount of data in bytes all the storages can keep in the tier, or -1 for no limit.
+     */
+    public HeapStorageTier(final int threshold, final long maxMemory) {
+        super(threshold, maxMemory);
+        if (threshold <= 0){
+            throw new IllegalArgumentException("Invalid threshold " + threshold);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public StreamStorage newStorage() {
+        // The tiered storage moves the data to the next tier before the threshold is reached, so no file is needed.
+        return FileStreamStorage.deferred(null, (int) threshold);
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p> An aggregate cap on the heap memory used by the in memory data of a group of {@link FileStreamStorage}s.
+ *
+ * <p> The storages reserve memory from the budget every time their in memory buffer needs to grow and they give it back
+ *     when the data is flushed to disk or when they are disposed. If a reservation would exceed the budget, it is refused
+ *     and the storage that asked for it switches to file. At the same time the budget asks the largest in memory storage
+ *     still being written to flush its data to disk as well, so memory is freed where it matters most. The request is
+ *     honoured by that storage at its next write, on its own writing thread.
+ *
+ * <p> The storages flushing their data in background reserve from the budget the memory buffering the writes received
+ *     in the meantime too. If that reservation is refused, the writing thread waits for the flush and writes to the file.
+ *
+ * @author Silvano Riz
+ */
+public class MemoryBudget {
+
+    private final long maxMemory;
+    private final AtomicLong usedMemory = new AtomicLong(0);
+    private final Set<FileStreamStorage> storages = Collections.newSetFromMap(new ConcurrentHashMap<FileStreamStorage, Boolean>());
+
+    /**
+     * <p> Constructor.
+     *
+     * @param maxMemory The maximum amount of heap memory in bytes that the storages can use for their in memory data.
+     */
+    public MemoryBudget(final long maxMemory) {
+        if (maxMemory < 0){
+            throw new IllegalArgumentException("Invalid max memory " + maxMemory);
+        }
+        this.maxMemory = maxMemory;
+    }
+
+    /**
+     * <p> Returns the maximum amount of heap memory in bytes.
+     *
+     * @return the maximum amount of heap memory in bytes.
+     */
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    /**
+     * <p> Returns the amount of heap memory in bytes currently reserved by the storages.
+     *
+     * @return the amount of heap memory in bytes currently reserved.
+     */
+    public long getUsedMemory() {
+        return usedMemory.get();
+    }
+
+    /**
+     * <p> Returns the number of storages currently holding memory reserved from this budget.
+     *
+     * @return the number of storages holding memory.
+     */
+    public int getStoragesCount() {
+        return storages.size();
+    }
+
+    boolean reserve(final FileStreamStorage storage, final long bytes){
+        long used;
+        do {
+            used = usedMemory.get();
+            if (used + bytes > maxMemory){
+                requestSpillOfLargest(storage);
+                return false;
+            }
+        } while (!usedMemory.compareAndSet(used, used + bytes));
+        storages.add(storage);
+        return true;
+    }
+
+    void release(final FileStreamStorage storage, final long bytes){
+        usedMemory.addAndGet(-bytes);
+        // The storage keeps being a spill candidate while it holds memory for its in memory data or for its backlog
+        if (storage.reservedMemory == 0 && storage.reservedBacklogMemory == 0){
+            storages.remove(storage);
+        }
+    }
+
+    void requestSpillOfLargest(final FileStreamStorage requester){
+        FileStreamStorage largest = null;
+        for (FileStreamStorage storage : storages){
+            if (storage != requester && !storage.spillRequested && storage.readWriteStatus == FileStreamStorage.ReadWriteStatus.WRITE
+                    && (largest == null || storage.reservedMemory > largest.reservedMemory)){
+                largest = storage;
+            }
+        }
+        if (largest != null){
+            largest.spillRequested = true;
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p> Deletes the files of the {@link FileStreamStorage}s that become unreachable without having been disposed.
+ *     See {@link FileStreamStorage#reclaimOrphanFile()}.
+ *
+ * <p> Each registered storage is tracked by a {@code PhantomReference}. When the garbage collector finds the storage
+ *     unreachable the reference is enqueued and a single daemon thread, started on the first registration, deletes the file.
+ *     Disposing the storage unregisters it, so the file of a disposed storage (possibly recycled by a {@link TempFilePool})
+ *     is never touched.
+ *
+ * @author Silvano Riz
+ */
+class OrphanFileReaper {
+
+    private static final Logger log = LoggerFactory.getLogger(OrphanFileReaper.class);
+
+    static final ReferenceQueue<FileStreamStorage> queue = new ReferenceQueue<FileStreamStorage>();
+    // Keeps the references reachable until the storage is disposed or reaped
+    static final Set<FileReference> references = Collections.newSetFromMap(new ConcurrentHashMap<FileReference, Boolean>());
+    static final AtomicLong reclaimedFiles = new AtomicLong();
+    static Thread reaperThread;
+
+    static class FileReference extends PhantomReference<FileStreamStorage> {
+
+        final File file;
+
+        FileReference(final FileStreamStorage streamStorage, final File file) {
+            super(streamStorage, queue);
+            this.file = file;
+        }
+
+        /**
+         * <p> Stops tracking the storage, its file will not be deleted.
+         */
+        void unregister(){
+            references.remove(this);
+            clear();
+        }
+
+        void reap(){
+            if (!references.remove(this)){
+                return;
+            }
+            if (file.exists()){
+                if (file.delete()){
+                    reclaimedFiles.incrementAndGet();
+                    if (log.isDebugEnabled()) log.debug("Deleted the file of a storage that has not been disposed: " + file.getAbsolutePath());
+                }else{
+                    log.warn("Failed to purge file: " + file.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    /**
+     * <p> Starts tracking a storage.
+     *
+     * @param streamStorage The storage.
+     * @param file The file to delete if the storage becomes unreachable without being disposed.
+     * @return The reference to unregister when the storage is disposed.
+     */
+    static FileReference register(final FileStreamStorage streamStorage, final File file){
+        final FileReference fileReference = new FileReference(streamStorage, file);
+        references.add(fileReference);
+        startReaperThread();
+        return fileReference;
+    }
+
+    /**
+     * <p> Deletes the files of the storages already found unreachable, without waiting for the reaper thread.
+     *
+     * @return The number of storages reaped.
+     */
+    static int reapEnqueued(){
+        int reaped = 0;
+        Reference<? extends FileStreamStorage> reference;
+        while ((reference = queue.poll()) != null){
+            ((FileReference) reference).reap();
+            reaped++;
+        }
+        return reaped;
+    }
+
+    static synchronized void startReaperThread(){
+        if (reaperThread != null){
+            return;
+        }
+        reaperThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true){
+                    try {
+                        ((FileReference) queue.remove()).reap();
+                    }catch (InterruptedException e){
+                        // Daemon thread, keep reaping
+                    }catch (Throwable t){
+                        log.warn("Failed to reclaim the file of a storage that has not been disposed", t);
+                    }
+                }
+            }
+        }, "nio-stream-storage-reaper");
+        reaperThread.setDaemon(true);
+        reaperThread.start();
+    }
+
+}
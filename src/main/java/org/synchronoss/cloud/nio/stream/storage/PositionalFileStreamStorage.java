@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p> A {@code StreamStorage} backed by a file that can be written by many threads at the same time, each one writing a
+ *     different range of the data via {@link #write(long, ByteBuffer)}. This is useful to assemble an object uploaded as
+ *     parallel ranges directly in its final file.
+ *
+ * <p> The storage keeps track of the ranges received and {@link #close()} fails if the data is not complete, i.e. if
+ *     the ranges do not cover all the bytes from 0 to the expected size (or to the end of the last range, if the expected
+ *     size is not known). In that case the storage is still writable, so the missing ranges can be written.
+ *
+ * <p> The {@code OutputStream} methods are supported too: each write reserves the next free position after the
+ *     bytes written with the {@code OutputStream} methods, so concurrent writers do not overwrite each other,
+ *     but the order of their writes is not defined. Every write is a system call, writing a byte at the time is slow.
+ *
+ * <p> Like the {@link FileStreamStorage} the storage has a <i>write</i> state and a <i>read</i> state, and the data
+ *     can be read via {@link #getInputStream()} only after {@link #close()} has been called successfully.
+ *
+ * @author Silvano Riz
+ */
+public class PositionalFileStreamStorage extends StreamStorage {
+
+    private static final Logger log = LoggerFactory.getLogger(PositionalFileStreamStorage.class);
+
+    final File file;
+    final long expectedSize;
+    volatile long maxCapacity = -1;
+    volatile boolean deleteFilesOnClose = false;
+    volatile boolean deleteFilesOnDispose = false;
+
+    volatile FileStreamStorage.ReadWriteStatus readWriteStatus = FileStreamStorage.ReadWriteStatus.WRITE;
+    final RandomAccessFile randomAccessFile;
+    final FileChannel fileChannel;
+    final ByteRanges receivedRanges = new ByteRanges();
+    final AtomicLong nextStreamPosition = new AtomicLong(0);
+
+    // Writes share the read lock, close and dispose take the write lock and wait for the writes in progress.
+    final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * <p> Constructor.
+     *
+     * @param file The file where the data is stored. If it exists it is truncated.
+     * @param expectedSize The size of the complete data in bytes, or -1 if it is not known.
+     */
+    public PositionalFileStreamStorage(final File file, final long expectedSize) {
+        if (expectedSize < -1){
+            throw new IllegalArgumentException("Invalid expected size " + expectedSize);
+        }
+        this.file = file;
+        this.expectedSize = expectedSize;
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            randomAccessFile.setLength(0);
+        }catch (Exception e){
+            if (randomAccessFile != null){
+                // The file could not be truncated, do not leak the file descriptor
+                try {
+                    randomAccessFile.close();
+                }catch (IOException ioe){
+                    // Nothing to do
+                }
+            }
+            throw new IllegalStateException("Unable to create the file.", e);
+        }
+        this.randomAccessFile = randomAccessFile;
+        this.fileChannel = randomAccessFile.getChannel();
+    }
+
+    /**
+     * <p> Constructor for data of unknown size.
+     *
+     * @param file The file where the data is stored. If it exists it is truncated.
+     */
+    public PositionalFileStreamStorage(final File file) {
+        this(file, -1);
+    }
+
+    /**
+     * <p> Configures the current {@link PositionalFileStreamStorage} to delete the underlying file after the
+     *     {@code InputStream} returned by {@link #getInputStream()} is closed.
+     *
+     * @return The current object
+     */
+    public PositionalFileStreamStorage deleteFilesOnClose(){
+        this.deleteFilesOnClose = true;
+        return this;
+    }
+
+    /**
+     * <p> Configures the current {@link PositionalFileStreamStorage} to delete the underlying file after calling the {@link #dispose()} method.
+     *
+     * @return The current object
+     */
+    public PositionalFileStreamStorage deleteFilesOnDispose(){
+        this.deleteFilesOnDispose = true;
+        return this;
+    }
+
+    /**
+     * <p> Configures the current {@link PositionalFileStreamStorage} to reject the writes going beyond {@code maxCapacity} bytes
+     *     with an {@link IllegalStateException}.
+     *
+     * @param maxCapacity The max capacity in bytes. A value of -1 indicates infinite, the value 0 or a value lower that -1 is not accepted.
+     * @return The current object
+     */
+    public PositionalFileStreamStorage maxCapacity(final long maxCapacity){
+        if (maxCapacity < -1 || maxCapacity == 0){
+            throw new IllegalArgumentException("Invalid max size " + maxCapacity);
+        }
+        this.maxCapacity = maxCapacity;
+        return this;
+    }
+
+    /**
+     * <p> Writes the remaining bytes of the buffer at the given position of the data. The method can be called by many
+     *     threads at the same time. The position of the buffer is moved to its limit.
+     *
+     * @param position The position of the first byte of the buffer in the data.
+     * @param src The buffer holding the bytes to write.
+     * @return The number of bytes written, i.e. all the remaining bytes of the buffer.
+     * @throws IOException if an I/O error occurs.
+     */
+    public int write(final long position, final ByteBuffer src) throws IOException {
+        if (position < 0){
+            throw new IllegalArgumentException("Invalid position " + position);
+        }
+        final int length = src.remaining();
+        assertWithinCapacity(position + length);
+        lock.readLock().lock();
+        try {
+            assertIsWritable();
+            long written = 0;
+            while (written < length){
+                written += fileChannel.write(src, position + written);
+            }
+            // Recorded under the read lock, so close() sees every write completed before it took the write lock
+            receivedRanges.add(position, position + length);
+        }finally {
+            lock.readLock().unlock();
+        }
+        return length;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p> The bytes are written at the next free position after the bytes written with the {@code OutputStream} methods.
+     */
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        return write(reserve(src.remaining()), src);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p> The bytes are written at the next free position after the bytes written with the {@code OutputStream} methods.
+     */
+    @Override
+    public void write(final int b) throws IOException {
+        write(reserve(1), ByteBuffer.wrap(new byte[]{(byte) b}));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p> The bytes are written at the next free position after the bytes written with the {@code OutputStream} methods.
+     */
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        write(reserve(len), ByteBuffer.wrap(b, off, len));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOpen() {
+        return readWriteStatus.equals(FileStreamStorage.ReadWriteStatus.WRITE);
+    }
+
+    /**
+     * <p> Tells whether or not all the data has been received.
+     *
+     * @return {@code true} if the ranges received cover all the bytes from 0 to the expected size (or to the end of the last range if the size is not known).
+     */
+    public boolean isComplete(){
+        final long size = expectedSize == -1 ? receivedRanges.end() : expectedSize;
+        return receivedRanges.contiguousEnd() >= size;
+    }
+
+    /**
+     * <p> Returns the number of distinct bytes received so far.
+     *
+     * @return the number of bytes received.
+     */
+    public long getReceivedBytes(){
+        return receivedRanges.coveredBytes();
+    }
+
+    /**
+     * <p> Closes the write channel and switches the storage to the <i>read</i> state once all the writes in progress are
+     *     completed.
+     *
+     * @throws IllegalStateException if the data is not complete. The storage is still writable in that case.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (!isOpen()){
+                return;
+            }
+            if (!isComplete()){
+                throw new IllegalStateException("The data is not complete. Expected size: " + expectedSize + ", received ranges: " + receivedRanges);
+            }
+            readWriteStatus = FileStreamStorage.ReadWriteStatus.READ;
+            fileChannel.force(false);
+            randomAccessFile.close();
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream getInputStream() {
+        assertIsReadable();
+        try{
+            return new NameAwarePurgableFileInputStream(file, deleteFilesOnClose);
+        }catch (Exception e){
+            throw new IllegalStateException("Unable to create the inputStream.", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p> The data is transferred via {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+     */
+    @Override
+    public long transferTo(final WritableByteChannel channel) throws IOException {
+        final NameAwarePurgableFileInputStream inputStream = (NameAwarePurgableFileInputStream) getInputStream();
+        try {
+            return FileStreamStorage.transferFileTo(inputStream.getChannel(), channel);
+        }finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * <p> Dismisses the storage, waiting for the writes in progress, closing the write channel and deleting the file if
+     *     configured to do so.
+     *
+     * @return <code>true</code> if the file does not exist or it has been deleted successfully; <code>false</code> otherwise.
+     */
+    @Override
+    public boolean dispose() {
+        lock.writeLock().lock();
+        try {
+            readWriteStatus = FileStreamStorage.ReadWriteStatus.DISMISSED;
+            randomAccessFile.close();
+        } catch (Exception e) {
+            if (log.isDebugEnabled()) log.debug("Unable to close the file " + file.getAbsolutePath(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return !file.exists() || (deleteFilesOnDispose && file.delete());
+    }
+
+    long reserve(final int length){
+        return nextStreamPosition.getAndAdd(length);
+    }
+
+    void assertWithinCapacity(final long end){
+        if (maxCapacity != -1 && end > maxCapacity){
+            throw new IllegalStateException("Exceeded the number of bytes allowed to be written to the storage. Max capacity: " + maxCapacity);
+        }
+        if (expectedSize != -1 && end > expectedSize){
+            throw new IllegalStateException("The write ends at " + end + ", beyond the expected size: " + expectedSize);
+        }
+    }
+
+    void assertIsReadable(){
+        if (!readWriteStatus.equals(FileStreamStorage.ReadWriteStatus.READ)) {
+            throw new IllegalStateException("The PositionalFileStreamStorage is still in write mode. Call the close() method when all the data has been written before asking for the InputStream.");
+        }
+    }
+
+    void assertIsWritable(){
+        if (!readWriteStatus.equals(FileStreamStorage.ReadWriteStatus.WRITE)){
+            throw new IllegalStateException("OutputStream is closed");
+        }
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p> A {@code StreamStorage} that stores the data on disk in a sequence of segment files, rolling over to a new segment
+ *     every {@code segmentSize} bytes. The segments are named after the file given to the constructor, adding the index
+ *     of the segment as extension (e.g. {@code stream-object-<id>.tmp.0}, {@code stream-object-<id>.tmp.1}, ...).
+ *
+ * <p> Compared to a single file:
+ * <ul>
+ *     <li>The segments can be read in parallel, see {@link #getSegmentInputStream(int)}.</li>
+ *     <li>If the storage is configured to delete the files on close, the {@code InputStream} returned by
+ *         {@link #getInputStream()} deletes each segment as soon as it has been read, so the disk used by a streaming
+ *         consumer is bounded to about one segment.</li>
+ * </ul>
+ *
+ * <p> Like the {@link FileStreamStorage} the storage has a <i>write</i> state and a <i>read</i> state, and the data
+ *     can be read only after {@link #close()} has been called.
+ *
+ * @author Silvano Riz
+ */
+public class RollingFileStreamStorage extends StreamStorage {
+
+    private static final Logger log = LoggerFactory.getLogger(RollingFileStreamStorage.class);
+
+    final File file;
+    final long segmentSize;
+    volatile long maxCapacity = -1;
+    volatile boolean deleteFilesOnClose = false;
+    volatile boolean deleteFilesOnDispose = false;
+
+    volatile FileStreamStorage.ReadWriteStatus readWriteStatus = FileStreamStorage.ReadWriteStatus.WRITE;
+    final List<File> segments = Collections.synchronizedList(new ArrayList<File>());
+    volatile FileOutputStream segmentOutputStream;
+    long segmentBytesWritten = 0;
+    volatile long bytesWritten = 0;
+
+    /**
+     * <p> Constructor.
+     *
+     * @param file The file used to name the segments. The file itself is never created.
+     * @param segmentSize The maximum size in bytes of each segment.
+     */
+    public RollingFileStreamStorage(final File file, final long segmentSize) {
+        if (segmentSize <= 0){
+            throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+        }
+        this.file = file;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * <p> Configures the current {@link RollingFileStreamStorage} to delete the segments once they have been read via
+     *     the {@code InputStream} returned by {@link #getInputStream()} or via {@link #transferTo(WritableByteChannel)}.
+     *     Closing the {@code InputStream} deletes the segments not read yet.
+     *
+     * @return The current object
+     */
+    public RollingFileStreamStorage deleteFilesOnClose(){
+        this.deleteFilesOnClose = true;
+        return this;
+    }
+
+    /**
+     * <p> Configures the current {@link RollingFileStreamStorage} to delete the segments after calling the {@link #dispose()} method.
+     *
+     * @return The current object
+     */
+    public RollingFileStreamStorage deleteFilesOnDispose(){
+        this.deleteFilesOnDispose = true;
+        return this;
+    }
+
+    /**
+     * <p> Configures the current {@link RollingFileStreamStorage} to accept up to {@code maxCapacity} bytes.
+     *     If the threshold is exceeded the storage will throw an {@link IllegalStateException}
+     *
+     * @param maxCapacity The max capacity in bytes. A value of -1 indicates infinite, the value 0 or a value lower that -1 is not accepted.
+     * @return The current object
+     */
+    public RollingFileStreamStorage maxCapacity(final long maxCapacity){
+        if (maxCapacity < -1 || maxCapacity == 0){
+            throw new IllegalArgumentException("Invalid max size " + maxCapacity);
+        }
+        this.maxCapacity = maxCapacity;
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final int b) throws IOException {
+        assertIsWritable();
+        assertMaxCapacity(1);
+        nextSegmentIfFull().write(b);
+        segmentBytesWritten++;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p> The bytes are split among the segments if needed.
+     */
+    @Override
+    public void write(final byte[] b, int off, int len) throws IOException {
+        assertIsWritable();
+        assertMaxCapacity(len);
+        while (len > 0){
+            final FileOutputStream outputStream = nextSegmentIfFull();
+            final int toWrite = (int) Math.min(len, segmentSize - segmentBytesWritten);
+            outputStream.write(b, off, toWrite);
+            segmentBytesWritten += toWrite;
+            off += toWrite;
+            len -= toWrite;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() throws IOException {
+        assertIsWritable();
+        if (segmentOutputStream != null){
+            segmentOutputStream.flush();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOpen() {
+        return readWriteStatus.equals(FileStreamStorage.ReadWriteStatus.WRITE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        close(FileStreamStorage.ReadWriteStatus.READ);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p> The returned stream reads the segments one after the other. If the storage is configured to delete the
+     *     files on close, each segment is deleted as soon as it has been read, so this method can be called only once.
+     */
+    @Override
+    public InputStream getInputStream() {
+        assertIsReadable();
+        return new RollingInputStream(getSegmentFiles(), deleteFilesOnClose);
+    }
+
+    /**
+     * <p> Returns an {@code InputStream} reading a single segment. The segments can be read in parallel.
+     *     The segment is never deleted when the stream is closed.
+     *
+     * @param index The index of the segment, from 0 to {@link #getSegmentsCount()} - 1.
+     * @return The {@code InputStream} of the segment.
+     */
+    public InputStream getSegmentInputStream(final int index) {
+        assertIsReadable();
+        try{
+            return new NameAwarePurgableFileInputStream(segments.get(index), false);
+        }catch (Exception e){
+            throw new IllegalStateException("Unable to create the inputStream.", e);
+        }
+    }
+
+    /**
+     * <p> Returns the number of segments.
+     *
+     * @return the number of segments created so far.
+     */
+    public int getSegmentsCount() {
+        return segments.size();
+    }
+
+    /**
+     * <p> Returns the segment files, in order.
+     *
+     * @return a copy of the list of the segment files.
+     */
+    public List<File> getSegmentFiles() {
+        synchronized (segments){
+            return new ArrayList<File>(segments);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p> Each segment is transferred via {@link FileChannel#transferTo(long, long, WritableByteChannel)}. If the storage
+     *     is configured to delete the files on close, each segment is deleted once transferred.
+     */
+    @Override
+    public long transferTo(final WritableByteChannel channel) throws IOException {
+        assertIsReadable();
+        long transferred = 0;
+        for (File segment : getSegmentFiles()){
+            final NameAwarePurgableFileInputStream inputStream = new NameAwarePurgableFileInputStream(segment, deleteFilesOnClose);
+            try {
+                final FileChannel fileChannel = inputStream.getChannel();
+                final long size = fileChannel.size();
+                long segmentTransferred = 0;
+                while (segmentTransferred < size){
+                    segmentTransferred += fileChannel.transferTo(segmentTransferred, size - segmentTransferred, channel);
+                }
+                transferred += segmentTransferred;
+            }finally {
+                inputStream.close();
+            }
+        }
+        return transferred;
+    }
+
+    /**
+     * <p> Dismisses the storage closing quietly the current segment and deleting the segments if configured to do so.
+     *
+     * @return <code>true</code> if none of the segments exists anymore; <code>false</code> otherwise.
+     */
+    @Override
+    public boolean dispose() {
+        try {
+            close(FileStreamStorage.ReadWriteStatus.DISMISSED);
+        } catch (Exception e) {
+            // Nothing to do
+        }
+        boolean allDeleted = true;
+        for (File segment : getSegmentFiles()){
+            if (segment.exists() && !(deleteFilesOnDispose && segment.delete())){
+                allDeleted = false;
+            }
+        }
+        return allDeleted;
+    }
+
+    void close(final FileStreamStorage.ReadWriteStatus newReadWriteStatus) throws IOException {
+        readWriteStatus = newReadWriteStatus;
+        if (segmentOutputStream != null) {
+            segmentOutputStream.close();
+        }
+    }
+
+    FileOutputStream nextSegmentIfFull() throws IOException {
+        if (segmentOutputStream == null || segmentBytesWritten >= segmentSize){
+            if (segmentOutputStream != null){
+                segmentOutputStream.close();
+            }
+            final File segment = new File(file.getParentFile(), file.getName() + "." + segments.size());
+            if (log.isDebugEnabled()) log.debug("Rolling over to segment " + segment.getAbsolutePath());
+            segmentOutputStream = new FileOutputStream(segment);
+            segments.add(segment);
+            segmentBytesWritten = 0;
+        }
+        return segmentOutputStream;
+    }
+
+    void assertMaxCapacity(final long numBytesToBeWritten){
+        if (maxCapacity == -1){
+            return;
+        }
+        bytesWritten += numBytesToBeWritten;
+        if (bytesWritten > maxCapacity){
+            throw new IllegalStateException("Exceeded the number of bytes allowed to be written to the storage. Max capacity: " + maxCapacity);
+        }
+    }
+
+    void assertIsReadable(){
+        if (!readWriteStatus.equals(FileStreamStorage.ReadWriteStatus.READ)) {
+            throw new IllegalStateException("The RollingFileStreamStorage is still in write mode. Call the close() method when all the data has been written before asking for the InputStream.");
+        }
+    }
+
+    void assertIsWritable(){
+        if (!readWriteStatus.equals(FileStreamStorage.ReadWriteStatus.WRITE)){
+            throw new IllegalStateException("OutputStream is closed");
+        }
+    }
+
+    /**
+     * <p> {@code InputStream} reading a sequence of segments, optionally deleting each one once read.
+     */
+    static class RollingInputStream extends InputStream {
+
+        final List<File> segments;
+        final boolean purgeSegments;
+        int nextSegment = 0;
+        NameAwarePurgableFileInputStream current;
+
+        RollingInputStream(final List<File> segments, final boolean purgeSegments) {
+            this.segments = segments;
+            this.purgeSegments = purgeSegments;
+        }
+
+        @Override
+        public int read() throws IOException {
+            while (nextSegmentIfEnded()){
+                final int b = current.read();
+                if (b != -1){
+                    return b;
+                }
+                closeCurrent();
+            }
+            return -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0){
+                return 0;
+            }
+            while (nextSegmentIfEnded()){
+                final int read = current.read(b, off, len);
+                if (read != -1){
+                    return read;
+                }
+                closeCurrent();
+            }
+            return -1;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && nextSegmentIfEnded()){
+                // A FileInputStream can skip beyond the end of the file, stay within the segment
+                final long segmentSkipped = current.skip(Math.min(n - skipped, current.available()));
+                if (segmentSkipped <= 0){
+                    closeCurrent();
+                }else{
+                    skipped += segmentSkipped;
+                }
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return current == null ? 0 : current.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            closeCurrent();
+            if (purgeSegments){
+                while (nextSegment < segments.size()){
+                    final File segment = segments.get(nextSegment++);
+                    if (segment.exists() && !segment.delete()){
+                        log.warn("Failed to purge file: " + segment.getAbsolutePath());
+                    }
+                }
+            }
+        }
+
+        boolean nextSegmentIfEnded() throws IOException {
+            if (current == null){
+                if (nextSegment >= segments.size()){
+                    return false;
+                }
+                current = new NameAwarePurgableFileInputStream(segments.get(nextSegment++), purgeSegments);
+            }
+            return true;
+        }
+
+        void closeCurrent() throws IOException {
+            if (current != null){
+                try {
+                    current.close();
+                }finally {
+                    current = null;
+                }
+            }
+        }
+    }
+}
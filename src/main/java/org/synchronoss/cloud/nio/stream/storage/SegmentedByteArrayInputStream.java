@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * <p> An {@code InputStream} that reads directly from the segments of a {@link SegmentedByteArrayOutputStream}, without copying them.
+ *
+ * <p> The stream sees the data written to the {@link SegmentedByteArrayOutputStream} up to the moment it was created.
+ *     Any number of streams can be created on the same data and each one of them has its own position.
+ *     The remaining data can also be accessed as read-only {@code ByteBuffer}s via {@link #asByteBuffers()}.
+ *
+ * <p> The class is NOT thread safe.
+ *
+ * @author Silvano Riz
+ */
+public class SegmentedByteArrayInputStream extends InputStream {
+
+    private final byte[][] segments;
+    private final int segmentsCount;
+    private final int lastSegmentLength;
+    private final int size;
+
+    int position = 0;
+    int segmentIndex = 0;
+    int segmentPosition = 0;
+    int mark = 0;
+
+    /**
+     * <p> Constructor.
+     *
+     * @param source The {@link SegmentedByteArrayOutputStream} holding the data.
+     */
+    public SegmentedByteArrayInputStream(final SegmentedByteArrayOutputStream source) {
+        this.segments = source.segments;
+        this.segmentsCount = source.segmentsCount;
+        this.lastSegmentLength = source.currentSegmentCount;
+        this.size = source.size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() {
+        if (position >= size){
+            return -1;
+        }
+        if (segmentPosition == segmentLength(segmentIndex)){
+            segmentIndex++;
+            segmentPosition = 0;
+        }
+        position++;
+        return segments[segmentIndex][segmentPosition++] & 0xFF;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || off > b.length - len) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0){
+            return 0;
+        }
+        if (position >= size){
+            return -1;
+        }
+        int read = 0;
+        while (read < len && position < size){
+            if (segmentPosition == segmentLength(segmentIndex)){
+                segmentIndex++;
+                segmentPosition = 0;
+            }
+            final int toCopy = Math.min(len - read, segmentLength(segmentIndex) - segmentPosition);
+            System.arraycopy(segments[segmentIndex], segmentPosition, b, off + read, toCopy);
+            segmentPosition += toCopy;
+            position += toCopy;
+            read += toCopy;
+        }
+        return read;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long skip(long n) {
+        if (n <= 0){
+            return 0;
+        }
+        final int toSkip = (int) Math.min(n, size - position);
+        seek(position + toSkip);
+        return toSkip;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int available() {
+        return size - position;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void mark(int readLimit) {
+        mark = position;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset() {
+        seek(mark);
+    }
+
+    /**
+     * <p> Returns read-only {@code ByteBuffer}s, one for each segment, wrapping the data not yet read from this stream.
+     *     The buffers share the data with the stream (nothing is copied) and reading from them does not change the stream position.
+     *
+     * @return The read-only views of the remaining data. The array is empty if there is no more data to read.
+     */
+    public ByteBuffer[] asByteBuffers(){
+        if (position >= size){
+            return new ByteBuffer[0];
+        }
+        // The current segment could be fully read, in that case the remaining data starts from the next one.
+        int firstSegment = segmentIndex;
+        int firstSegmentPosition = segmentPosition;
+        if (firstSegmentPosition == segmentLength(firstSegment)){
+            firstSegment++;
+            firstSegmentPosition = 0;
+        }
+        final ByteBuffer[] byteBuffers = new ByteBuffer[segmentsCount - firstSegment];
+        for (int i = firstSegment; i < segmentsCount; i++){
+            final int offset = i == firstSegment ? firstSegmentPosition : 0;
+            byteBuffers[i - firstSegment] = ByteBuffer.wrap(segments[i], offset, segmentLength(i) - offset).slice().asReadOnlyBuffer();
+        }
+        return byteBuffers;
+    }
+
+    int segmentLength(final int index){
+        return index == segmentsCount - 1 ? lastSegmentLength : segments[index].length;
+    }
+
+    void seek(final int newPosition){
+        position = 0;
+        segmentIndex = 0;
+        segmentPosition = 0;
+        int toMove = newPosition;
+        while (toMove > 0){
+            final int length = segmentLength(segmentIndex);
+            if (toMove <= length){
+                segmentPosition = toMove;
+                break;
+            }
+            toMove -= length;
+            segmentIndex++;
+        }
+        position = newPosition;
+    }
+
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p> An in memory {@code OutputStream} that stores the bytes in a list of segments (byte arrays).
+ *
+ * <p> Unlike {@link java.io.ByteArrayOutputStream}, the data already written is never copied when the stream grows: when the
+ *     current segment is full a new one is allocated and the previous ones are left untouched. The segments start small
+ *     and double in size up to a maximum, so small payloads do not pay for a large allocation.
+ *     A {@code capacityLimit} can be set to avoid allocating segments that would exceed the expected amount of data.
+ *
+ * <p> The class is NOT thread safe. It is meant to be owned by a single writer and it does not synchronize any of its methods.
+ *
+ * @author Silvano Riz
+ */
+public class SegmentedByteArrayOutputStream extends OutputStream {
+
+    /**
+     * <p> Default size of the first segment. 256 bytes.
+     */
+    public static final int DEFAULT_INITIAL_SEGMENT_SIZE = 256;
+
+    /**
+     * <p> Default maximum size of a segment. 8Kb.
+     */
+    public static final int DEFAULT_MAX_SEGMENT_SIZE = 8192;
+
+    private static final byte[] EMPTY_SEGMENT = new byte[0];
+
+    private final int initialSegmentSize;
+    private final int maxSegmentSize;
+    private final int capacityLimit;
+
+    byte[][] segments = new byte[4][];
+    int segmentsCount = 0;
+    byte[] currentSegment = EMPTY_SEGMENT;
+    int currentSegmentCount = 0;
+    int size = 0;
+    int capacity = 0;
+
+    /**
+     * <p> Constructor.
+     *
+     * @param initialSegmentSize The size in bytes of the first segment.
+     * @param maxSegmentSize The maximum size in bytes of a segment.
+     * @param capacityLimit The amount of bytes the stream is expected to hold. New segments are sized not to exceed it, unless
+     *                      more bytes are written. A value lower or equal to 0 means no limit.
+     */
+    public SegmentedByteArrayOutputStream(final int initialSegmentSize, final int maxSegmentSize, final int capacityLimit) {
+        if (initialSegmentSize <= 0 || maxSegmentSize < initialSegmentSize){
+            throw new IllegalArgumentException("Invalid segment sizes. Initial: " + initialSegmentSize + ", max: " + maxSegmentSize);
+        }
+        this.initialSegmentSize = initialSegmentSize;
+        this.maxSegmentSize = maxSegmentSize;
+        this.capacityLimit = capacityLimit;
+    }
+
+    /**
+     * <p> Constructor that uses the default segment sizes and no capacity limit.
+     */
+    public SegmentedByteArrayOutputStream() {
+        this(DEFAULT_INITIAL_SEGMENT_SIZE, DEFAULT_MAX_SEGMENT_SIZE, -1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int b) {
+        if (currentSegmentCount == currentSegment.length){
+            addSegment();
+        }
+        currentSegment[currentSegmentCount++] = (byte) b;
+        size++;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || off > b.length - len) {
+            throw new IndexOutOfBoundsException();
+        }
+        while (len > 0){
+            if (currentSegmentCount == currentSegment.length){
+                addSegment();
+            }
+            final int toCopy = Math.min(len, currentSegment.length - currentSegmentCount);
+            System.arraycopy(b, off, currentSegment, currentSegmentCount, toCopy);
+            currentSegmentCount += toCopy;
+            size += toCopy;
+            off += toCopy;
+            len -= toCopy;
+        }
+    }
+
+    /**
+     * <p> Writes the remaining bytes of the buffer, moving its position to the limit.
+     *     The bytes are copied straight into the segments, heap and direct buffers alike.
+     *
+     * @param src The buffer holding the bytes to write.
+     */
+    public void write(final ByteBuffer src){
+        while (src.hasRemaining()){
+            if (currentSegmentCount == currentSegment.length){
+                addSegment();
+            }
+            final int toCopy = Math.min(src.remaining(), currentSegment.length - currentSegmentCount);
+            src.get(currentSegment, currentSegmentCount, toCopy);
+            currentSegmentCount += toCopy;
+            size += toCopy;
+        }
+    }
+
+    /**
+     * <p> Writes the content of this stream to the specified {@code OutputStream}, one segment at the time.
+     *
+     * @param outputStream The destination.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void writeTo(final OutputStream outputStream) throws IOException {
+        for (int i = 0; i < segmentsCount; i++){
+            outputStream.write(segments[i], 0, segmentLength(i));
+        }
+    }
+
+    /**
+     * <p> Returns an {@code InputStream} that reads the data written so far directly from the segments, without copying them.
+     *
+     * @return a new {@link SegmentedByteArrayInputStream}.
+     */
+    public SegmentedByteArrayInputStream toInputStream(){
+        return new SegmentedByteArrayInputStream(this);
+    }
+
+    /**
+     * <p> Returns a copy of the content of this stream.
+     *
+     * @return a newly allocated byte array with the content of this stream.
+     */
+    public byte[] toByteArray(){
+        final byte[] bytes = new byte[size];
+        int position = 0;
+        for (int i = 0; i < segmentsCount; i++){
+            final int length = segmentLength(i);
+            System.arraycopy(segments[i], 0, bytes, position, length);
+            position += length;
+        }
+        return bytes;
+    }
+
+    /**
+     * <p> Returns the number of bytes written.
+     *
+     * @return the number of bytes written.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * <p> Returns the number of bytes allocated by the segments.
+     *
+     * @return the number of bytes allocated.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * <p> Discards all the data and releases the segments.
+     */
+    public void reset(){
+        segments = new byte[4][];
+        segmentsCount = 0;
+        currentSegment = EMPTY_SEGMENT;
+        currentSegmentCount = 0;
+        size = 0;
+        capacity = 0;
+    }
+
+    /**
+     * <p> Returns how many bytes would be allocated by writing {@code length} more bytes.
+     *
+     * @param length The number of bytes to write.
+     * @return The number of bytes the capacity would grow by, 0 if the bytes fit in the allocated segments.
+     */
+    public int capacityIncrease(final int length){
+        int missing = size + length - capacity;
+        if (missing <= 0){
+            return 0;
+        }
+        int increase = 0;
+        int lastSegmentSize = currentSegment.length;
+        int count = segmentsCount;
+        while (missing > 0){
+            lastSegmentSize = nextSegmentSize(count++, lastSegmentSize, capacity + increase);
+            increase += lastSegmentSize;
+            missing -= lastSegmentSize;
+        }
+        return increase;
+    }
+
+    int segmentLength(final int segmentIndex){
+        return segmentIndex == segmentsCount - 1 ? currentSegmentCount : segments[segmentIndex].length;
+    }
+
+    int nextSegmentSize(final int count, final int lastSegmentSize, final int currentCapacity){
+        int segmentSize = count == 0 ? initialSegmentSize : Math.min(lastSegmentSize * 2, maxSegmentSize);
+        if (capacityLimit > currentCapacity){
+            segmentSize = Math.min(segmentSize, capacityLimit - currentCapacity);
+        }
+        return segmentSize;
+    }
+
+    void addSegment(){
+        final int segmentSize = nextSegmentSize(segmentsCount, currentSegment.length, capacity);
+        if (segmentsCount == segments.length){
+            segments = Arrays.copyOf(segments, segmentsCount * 2);
+        }
+        currentSegment = new byte[segmentSize];
+        currentSegmentCount = 0;
+        segments[segmentsCount++] = currentSegment;
+        capacity += segmentSize;
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p> Read-only {@code FileChannel} on a data file, shared by all the readers of a storage.
+ *
+ * <p> The channel is opened by the first reader and closed when the last reader releases it. The file is purged only
+ *     when no reader is using it and the storage has been disposed, so a reader closing its stream never deletes the
+ *     file from under the other readers.
+ *
+ * @author Silvano Riz
+ */
+class SharedFileChannel {
+
+    private static final Logger log = LoggerFactory.getLogger(SharedFileChannel.class);
+
+    final File file;
+    RandomAccessFile randomAccessFile;
+    FileChannel fileChannel;
+    int references = 0;
+    boolean disposed = false;
+    boolean purgeOnDispose = false;
+    TempFilePool tempFilePool;
+
+    SharedFileChannel(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * <p> Takes a reference to the channel, opening it if no other reader is using it.
+     *     Every call must be followed by a call to {@link #release()}.
+     *
+     * @return The shared channel. It MUST NOT be closed by the caller.
+     * @throws IOException if the storage has been disposed or the file cannot be opened.
+     */
+    synchronized FileChannel acquire() throws IOException {
+        if (disposed){
+            throw new IOException("The storage has been disposed");
+        }
+        if (fileChannel == null){
+            randomAccessFile = new RandomAccessFile(file, "r");
+            fileChannel = randomAccessFile.getChannel();
+        }
+        references++;
+        return fileChannel;
+    }
+
+    /**
+     * <p> Releases a reference taken via {@link #acquire()}. The last reference closes the channel and, if the storage
+     *     has been disposed, purges the file.
+     *
+     * @throws IOException if an I/O error occurs closing the channel.
+     */
+    synchronized void release() throws IOException {
+        if (references <= 0){
+            return;
+        }
+        if (--references == 0){
+            try {
+                closeChannel();
+            }finally {
+                if (disposed && purgeOnDispose){
+                    purge();
+                }
+            }
+        }
+    }
+
+    /**
+     * <p> Marks the storage as disposed. No new reader can take the channel from now on.
+     *
+     * @param purge If {@code true} the file is purged, now or as soon as the last reader releases the channel.
+     * @param tempFilePool The pool the purged file is given back to, or {@code null} to delete it.
+     * @return {@code true} if the file does not exist or it is going to be purged, {@code false} if it has to be kept or it could not be deleted.
+     */
+    synchronized boolean dispose(final boolean purge, final TempFilePool tempFilePool){
+        disposed = true;
+        purgeOnDispose = purge;
+        this.tempFilePool = tempFilePool;
+        if (references > 0){
+            return purge;
+        }
+        return !file.exists() || (purge && purge());
+    }
+
+    synchronized int references(){
+        return references;
+    }
+
+    void closeChannel() throws IOException {
+        if (randomAccessFile != null){
+            try {
+                randomAccessFile.close();
+            }finally {
+                randomAccessFile = null;
+                fileChannel = null;
+            }
+        }
+    }
+
+    boolean purge(){
+        if (tempFilePool != null && tempFilePool.release(file)){
+            return true;
+        }
+        if (file.exists() && !file.delete()){
+            log.warn("Failed to purge file: " + file.getAbsolutePath());
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p> {@code InputStream} reading a file through a {@link SharedFileChannel}. Each stream keeps its own position and
+ *     reads with positional reads, so any number of streams can read the same channel concurrently.
+ *
+ * <p> The stream takes a reference to the channel when it is created and releases it when it is closed.
+ *
+ * @author Silvano Riz
+ */
+class SharedFileChannelInputStream extends InputStream {
+
+    final SharedFileChannel sharedFileChannel;
+    final FileChannel fileChannel;
+    long position = 0;
+    long mark = 0;
+    boolean closed = false;
+
+    SharedFileChannelInputStream(final SharedFileChannel sharedFileChannel) throws IOException {
+        this.sharedFileChannel = sharedFileChannel;
+        this.fileChannel = sharedFileChannel.acquire();
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (off < 0 || len < 0 || off > b.length - len) {
+            throw new IndexOutOfBoundsException();
+        }
+        assertIsOpen();
+        if (len == 0){
+            return 0;
+        }
+        final int read = fileChannel.read(ByteBuffer.wrap(b, off, len), position);
+        if (read > 0){
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        assertIsOpen();
+        final long skipped = Math.max(Math.min(n, fileChannel.size() - position), 0);
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        assertIsOpen();
+        return (int) Math.min(Math.max(fileChannel.size() - position, 0), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(final int readLimit) {
+        mark = position;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        assertIsOpen();
+        position = mark;
+    }
+
+    /**
+     * <p> Closes the stream and releases the shared channel. The channel is closed, and the file possibly purged,
+     *     only when this is the last stream using it.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed){
+            closed = true;
+            sharedFileChannel.release();
+        }
+    }
+
+    void assertIsOpen() throws IOException {
+        if (closed){
+            throw new IOException("Stream closed");
+        }
+    }
+}
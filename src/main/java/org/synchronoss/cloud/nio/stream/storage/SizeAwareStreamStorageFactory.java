@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+/**
+ * <p> A {@link StreamStorageFactory} that can use the size of the data, when it is known before writing it, to choose
+ *     where to store the data up front.
+ *
+ * <p> It is a separate interface so that the existing implementations of {@link StreamStorageFactory} keep compiling.
+ *
+ * @author Silvano Riz
+ */
+public interface SizeAwareStreamStorageFactory extends StreamStorageFactory {
+
+    /**
+     * <p> Creates the {@code StreamStorage} for data of the given size, when the size is known before writing the data
+     *     (e.g. from a {@code Content-Length} header). Implementations can use the hint to choose where to store the data
+     *     up front, the storage must still accept any amount of data.
+     *
+     * @param expectedSize The expected size of the data in bytes, or -1 if it is not known.
+     * @return The {@code StreamStorage}.
+     */
+    StreamStorage create(long expectedSize);
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <p> Transforms the data on its way to and from the disk, for example to compress it (see {@link DeflateCodec}).
+ *     A codec is set on the storages via {@link FileStreamStorage#codec(StorageCodec)} or on a factory via
+ *     {@link DeferredFileStreamStorageFactory#setCodec(StorageCodec)}.
+ *
+ * <p> Only the data written to the file goes through the codec, the in memory data is kept as it is. A codec that is
+ *     not built in, for example one based on a faster compression library, can be plugged in implementing this interface.
+ *     Implementations must be thread safe, as the same codec is shared by many storages.
+ *
+ * @author Silvano Riz
+ */
+public interface StorageCodec {
+
+    /**
+     * <p> Wraps the stream writing to the file. Closing the returned stream must close the wrapped one.
+     *
+     * @param outputStream The stream writing to the file.
+     * @return The stream encoding the data written to it.
+     * @throws IOException if an I/O error occurs.
+     */
+    OutputStream encode(OutputStream outputStream) throws IOException;
+
+    /**
+     * <p> Wraps a stream reading the file. Closing the returned stream must close the wrapped one.
+     *
+     * @param inputStream The stream reading the file.
+     * @return The stream decoding the data read from the file.
+     * @throws IOException if an I/O error occurs.
+     */
+    InputStream decode(InputStream inputStream) throws IOException;
+
+}
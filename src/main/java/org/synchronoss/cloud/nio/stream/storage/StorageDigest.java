@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * <p> A digest or checksum of the data updated while the data is written to a {@link FileStreamStorage}.
+ *     See {@link FileStreamStorage#digests(String...)}.
+ *
+ * <p> The algorithms supported are the {@link MessageDigest} ones (e.g. {@code MD5}, {@code SHA-1}, {@code SHA-256}) and
+ *     the checksums {@code CRC32}, {@code Adler32} and, from Java 9, {@code CRC32C}. The value of a checksum is returned as
+ *     4 bytes in big endian order.
+ *
+ * @author Silvano Riz
+ */
+abstract class StorageDigest {
+
+    static final String CRC32 = "CRC32";
+    static final String CRC32C = "CRC32C";
+    static final String ADLER32 = "Adler32";
+
+    final String algorithm;
+    // Used to copy the content of direct buffers, allocated on first use.
+    byte[] scratch;
+
+    StorageDigest(final String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * <p> Returns a new digest for the given algorithm.
+     *
+     * @param algorithm The algorithm.
+     * @return The digest.
+     * @throws IllegalArgumentException if the algorithm is not supported.
+     */
+    static StorageDigest newDigest(final String algorithm){
+        if (CRC32.equalsIgnoreCase(algorithm)){
+            return new ChecksumDigest(algorithm, new CRC32());
+        }else if (ADLER32.equalsIgnoreCase(algorithm)){
+            return new ChecksumDigest(algorithm, new Adler32());
+        }else if (CRC32C.equalsIgnoreCase(algorithm)){
+            return new ChecksumDigest(algorithm, newCrc32c());
+        }
+        try {
+            return new MessageDigestDigest(algorithm, MessageDigest.getInstance(algorithm));
+        }catch (NoSuchAlgorithmException e){
+            throw new IllegalArgumentException("Unsupported digest algorithm " + algorithm, e);
+        }
+    }
+
+    static Checksum newCrc32c(){
+        // java.util.zip.CRC32C is only available from Java 9
+        try {
+            return (Checksum) Class.forName("java.util.zip.CRC32C").getConstructor().newInstance();
+        }catch (Exception e){
+            throw new IllegalArgumentException("Unsupported digest algorithm " + CRC32C + ", it requires Java 9 or later", e);
+        }
+    }
+
+    abstract void update(int b);
+
+    abstract void update(byte[] b, int off, int len);
+
+    abstract byte[] digest();
+
+    /**
+     * <p> Updates the digest with the remaining bytes of the buffer, without changing its position.
+     *
+     * @param src The buffer.
+     */
+    void update(final ByteBuffer src){
+        if (src.hasArray()){
+            update(src.array(), src.arrayOffset() + src.position(), src.remaining());
+            return;
+        }
+        if (scratch == null){
+            scratch = new byte[8192];
+        }
+        final ByteBuffer duplicate = src.duplicate();
+        while (duplicate.hasRemaining()){
+            final int length = Math.min(duplicate.remaining(), scratch.length);
+            duplicate.get(scratch, 0, length);
+            update(scratch, 0, length);
+        }
+    }
+
+    static class MessageDigestDigest extends StorageDigest {
+
+        final MessageDigest messageDigest;
+
+        MessageDigestDigest(final String algorithm, final MessageDigest messageDigest) {
+            super(algorithm);
+            this.messageDigest = messageDigest;
+        }
+
+        @Override
+        void update(final int b) {
+            messageDigest.update((byte) b);
+        }
+
+        @Override
+        void update(final byte[] b, final int off, final int len) {
+            messageDigest.update(b, off, len);
+        }
+
+        @Override
+        byte[] digest() {
+            return messageDigest.digest();
+        }
+    }
+
+    static class ChecksumDigest extends StorageDigest {
+
+        final Checksum checksum;
+
+        ChecksumDigest(final String algorithm, final Checksum checksum) {
+            super(algorithm);
+            this.checksum = checksum;
+        }
+
+        @Override
+        void update(final int b) {
+            checksum.update(b);
+        }
+
+        @Override
+        void update(final byte[] b, final int off, final int len) {
+            checksum.update(b, off, len);
+        }
+
+        @Override
+        byte[] digest() {
+            final long value = checksum.getValue();
+            return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+        }
+    }
+}
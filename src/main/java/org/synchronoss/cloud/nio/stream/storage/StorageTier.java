@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+/**
+ * <p> A tier of a {@link TieredStreamStorage}, for example the heap, off-heap memory, a tmpfs directory or a disk
+ *     directory. The data of a tiered storage moves through the tiers in order, to the next tier as soon as the current
+ *     one cannot take it anymore.
+ *
+ * <p> Each tier bounds the data of a single storage via its threshold and it can bound the data of all the storages
+ *     using it via {@link #reserve(long, long)}, for example to cap the memory used by a tmpfs directory.
+ *     Implementations must be thread safe, as a tier is shared by many storages.
+ *
+ * @author Silvano Riz
+ * @see BoundedStorageTier
+ */
+public interface StorageTier {
+
+    /**
+     * <p> Returns the maximum amount of data a single storage can keep in this tier.
+     *
+     * @return The threshold in bytes, or -1 if a storage can keep any amount of data in this tier.
+     */
+    long getThreshold();
+
+    /**
+     * <p> Creates the storage holding the data of a {@link TieredStreamStorage} while it is in this tier. The storage must
+     *     accept as many bytes as reserved via {@link #reserve(long, long)}, and it must release all its resources,
+     *     including any file, when it is disposed.
+     *
+     * @return The storage.
+     */
+    StreamStorage newStorage();
+
+    /**
+     * <p> Reserves the room for a storage of this tier growing from {@code size} to {@code size + length} bytes.
+     *     If the room cannot be reserved the data is moved to the next tier.
+     *
+     * @param size The current size of the data of the storage in bytes.
+     * @param length The number of bytes about to be written.
+     * @return true if the room has been reserved, false if the tier is full.
+     */
+    boolean reserve(long size, long length);
+
+    /**
+     * <p> Gives back the room reserved for a storage that leaves the tier or is disposed.
+     *
+     * @param size The size of the data of the storage in bytes.
+     */
+    void release(long size);
+
+}
@@ -17,17 +17,25 @@
 package org.synchronoss.cloud.nio.stream.storage;
 
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * <p> Defines a storage that allows to store bytes and read them back.
  *     This class extends {@code OutputStream} to allow the write operations, and it exposes the {@link #getInputStream()} method
  *     to read the data back.
  *
+ * <p> The storage is also a {@code GatheringByteChannel}, so {@code ByteBuffer}s (for example the ones received from a socket)
+ *     can be written without copying them in a temporary byte array first.
+ *
  * @author Silvano Riz.
  */
-public abstract class StreamStorage extends OutputStream implements Disposable {
+public abstract class StreamStorage extends OutputStream implements GatheringByteChannel, Disposable {
 
     /**
      * <p> Returns the {@code InputStream} to read back data from the store.
@@ -36,4 +44,118 @@ public abstract class StreamStorage extends OutputStream implements Disposable {
      */
     public abstract InputStream getInputStream();
 
+    /**
+     * <p> Tells whether or not the storage is still accepting writes.
+     *     The default implementation always returns {@code true}, as it cannot tell when the storage is closed or disposed.
+     *     It is not abstract so that existing implementations keep compiling, but implementations are encouraged to override it.
+     *
+     * @return {@code true} if the storage can be written, {@code false} once it has been closed or disposed.
+     */
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    /**
+     * <p> Writes the remaining bytes of the buffer to the storage. The position of the buffer is moved to its limit.
+     *     The default implementation writes the backing array of heap buffers directly and copies direct buffers in chunks,
+     *     implementations are encouraged to override it.
+     *
+     * @param src The buffer holding the bytes to write.
+     * @return The number of bytes written, i.e. all the remaining bytes of the buffer.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        final int length = src.remaining();
+        if (src.hasArray()){
+            write(src.array(), src.arrayOffset() + src.position(), length);
+            src.position(src.limit());
+        }else{
+            final byte[] chunk = new byte[Math.min(length, 8192)];
+            while (src.hasRemaining()){
+                final int chunkLength = Math.min(chunk.length, src.remaining());
+                src.get(chunk, 0, chunkLength);
+                write(chunk, 0, chunkLength);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * <p> Writes the remaining bytes of a sequence of buffers to the storage. See {@link #write(ByteBuffer)}.
+     *
+     * @param srcs The buffers holding the bytes to write.
+     * @param offset The offset within the array of the first buffer to write.
+     * @param length The number of buffers to write.
+     * @return The number of bytes written, i.e. all the remaining bytes of the buffers.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+        if (offset < 0 || length < 0 || offset > srcs.length - length) {
+            throw new IndexOutOfBoundsException();
+        }
+        long written = 0;
+        for (int i = offset; i < offset + length; i++){
+            written += write(srcs[i]);
+        }
+        return written;
+    }
+
+    /**
+     * <p> Writes the remaining bytes of a sequence of buffers to the storage. See {@link #write(ByteBuffer)}.
+     *
+     * @param srcs The buffers holding the bytes to write.
+     * @return The number of bytes written, i.e. all the remaining bytes of the buffers.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public long write(final ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    /**
+     * <p> Writes all the stored data to the given {@code WritableByteChannel}.
+     *     The default implementation copies the data read from {@link #getInputStream()}, implementations are encouraged
+     *     to override it with a more efficient transfer (for example {@link java.nio.channels.FileChannel#transferTo(long, long, WritableByteChannel)}).
+     *
+     * <p> The channel is not closed and it is expected to be in blocking mode.
+     *
+     * @param channel The destination channel.
+     * @return The number of bytes transferred.
+     * @throws IOException if an I/O error occurs.
+     */
+    public long transferTo(final WritableByteChannel channel) throws IOException {
+        final InputStream inputStream = getInputStream();
+        try {
+            final byte[] buffer = new byte[8192];
+            final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            long transferred = 0;
+            int read;
+            while ((read = inputStream.read(buffer)) != -1){
+                byteBuffer.clear().limit(read);
+                while (byteBuffer.hasRemaining()){
+                    channel.write(byteBuffer);
+                }
+                transferred += read;
+            }
+            return transferred;
+        }finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * <p> Writes all the stored data to the given {@code OutputStream}. The stream is not closed.
+     *
+     * @param outputStream The destination stream.
+     * @return The number of bytes transferred.
+     * @throws IOException if an I/O error occurs.
+     * @see #transferTo(WritableByteChannel)
+     */
+    public long transferTo(final OutputStream outputStream) throws IOException {
+        return transferTo(Channels.newChannel(outputStream));
+    }
+
 }
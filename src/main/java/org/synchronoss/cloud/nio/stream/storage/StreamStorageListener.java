@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.stream.storage;
+
+/**
+ * <p> Receives the events of the life cycle of {@link FileStreamStorage}s, for example to collect metrics
+ *     (see {@link StreamStorageMetrics}). A listener is set on the storages via {@link FileStreamStorage#listener(StreamStorageListener)}
+ *     or on a factory via {@link DeferredFileStreamStorageFactory#setListener(StreamStorageListener)}.
+ *
+ * <p> The events are reported at coarse grain (memory allocations, switch to file, close and dispose) and never for
+ *     single writes, so listening does not slow down the write path. The methods can be called concurrently by the
+ *     writing threads and by the threads flushing data to disk in background, so implementations must be thread safe
+ *     and should return quickly.
+ *
+ * @author Silvano Riz
+ */
+public interface StreamStorageListener {
+
+    /**
+     * <p> Called when the listener is set on a storage, before any data is written.
+     *
+     * @param streamStorage The storage.
+     */
+    void storageCreated(FileStreamStorage streamStorage);
+
+    /**
+     * <p> Called when a storage allocates memory to hold its in memory data.
+     *
+     * @param streamStorage The storage.
+     * @param bytes The amount of memory allocated in bytes.
+     */
+    void memoryAllocated(FileStreamStorage streamStorage, long bytes);
+
+    /**
+     * <p> Called when a storage releases all its in memory data, because it has been flushed to disk or disposed.
+     *
+     * @param streamStorage The storage.
+     * @param bytes The amount of memory released in bytes. It is the sum of all the allocations reported so far.
+     */
+    void memoryReleased(FileStreamStorage streamStorage, long bytes);
+
+    /**
+     * <p> Called when a storage has copied its in memory data to disk, because the threshold or the memory budget has been exceeded.
+     *
+     * @param streamStorage The storage.
+     * @param bytes The number of bytes copied to disk.
+     * @param durationNanos The time taken to create the file and copy the data, in nanoseconds.
+     */
+    void switchedToFile(FileStreamStorage streamStorage, long bytes, long durationNanos);
+
+    /**
+     * <p> Called when all the data has been written to a storage and it has been closed.
+     *
+     * @param streamStorage The storage.
+     * @param size The size of the data in bytes.
+     * @param inMemory {@code true} if the data is in memory, {@code false} if it is on disk.
+     */
+    void storageClosed(FileStreamStorage streamStorage, long size, boolean inMemory);
+
+    /**
+     * <p> Called the first time a storage is disposed.
+     *
+     * @param streamStorage The storage.
+     * @param fileSize The size of the data on disk reported by {@link #storageClosed(FileStreamStorage, long, boolean)}, or 0 if the data was in memory or the storage has not been closed.
+     */
+    void storageDisposed(FileStreamStorage streamStorage, long fileSize);
+
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.stream.storage;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p> A {@link StreamStorageListener} counting the storages, the memory and the disk they use and how often and how long
+ *     they take to flush their data to disk. The values can be read directly or via JMX (see {@link #registerMBean(String)}),
+ *     and they are meant to size the thresholds and the disks, and to alert before the temporary folder fills up.
+ *
+ * <p> The time taken by the spills is recorded in a histogram with buckets of exponentially growing size: the bucket
+ *     {@code i} counts the spills that took less than {@code 2^i} microseconds (and not less than {@code 2^(i-1)}),
+ *     the last bucket counts all the longer spills.
+ *
+ * <p> The metrics are updated with atomic operations and only on the coarse grained events of the storages, never for single writes.
+ *
+ * @author Silvano Riz
+ */
+public class StreamStorageMetrics implements StreamStorageListener, StreamStorageMetricsMBean {
+
+    /**
+     * <p> Number of buckets of the spill time histogram. The last bounded bucket is 2^24 microseconds (about 16 seconds).
+     */
+    public static final int HISTOGRAM_BUCKETS = 26;
+
+    private final File folder;
+    private final AtomicLong storagesCreated = new AtomicLong();
+    private final AtomicLong storagesDisposed = new AtomicLong();
+    private final AtomicLong storagesClosedInMemory = new AtomicLong();
+    private final AtomicLong storagesClosedOnDisk = new AtomicLong();
+    private final AtomicLong memoryBytes = new AtomicLong();
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final AtomicLong spills = new AtomicLong();
+    private final AtomicLong spilledBytes = new AtomicLong();
+    private final AtomicLong spillTimeTotalNanos = new AtomicLong();
+    private final AtomicLong spillTimeMaxNanos = new AtomicLong();
+    private final AtomicLongArray spillTimeHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private volatile ObjectName objectName;
+
+    /**
+     * <p> Constructor.
+     *
+     * @param folder The folder where the data files are stored, used to report the usable disk space. Can be {@code null}.
+     */
+    public StreamStorageMetrics(final File folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * <p> Constructor that does not report the usable disk space.
+     */
+    public StreamStorageMetrics() {
+        this(null);
+    }
+
+    // ---------
+    // LISTENER
+    // ---------
+
+    @Override
+    public void storageCreated(final FileStreamStorage streamStorage) {
+        storagesCreated.incrementAndGet();
+    }
+
+    @Override
+    public void memoryAllocated(final FileStreamStorage streamStorage, final long bytes) {
+        memoryBytes.addAndGet(bytes);
+    }
+
+    @Override
+    public void memoryReleased(final FileStreamStorage streamStorage, final long bytes) {
+        memoryBytes.addAndGet(-bytes);
+    }
+
+    @Override
+    public void switchedToFile(final FileStreamStorage streamStorage, final long bytes, final long durationNanos) {
+        spills.incrementAndGet();
+        spilledBytes.addAndGet(bytes);
+        spillTimeTotalNanos.addAndGet(durationNanos);
+        long max;
+        while (durationNanos > (max = spillTimeMaxNanos.get()) && !spillTimeMaxNanos.compareAndSet(max, durationNanos)){
+            // Retry
+        }
+        spillTimeHistogram.incrementAndGet(bucket(TimeUnit.NANOSECONDS.toMicros(durationNanos)));
+    }
+
+    @Override
+    public void storageClosed(final FileStreamStorage streamStorage, final long size, final boolean inMemory) {
+        if (inMemory){
+            storagesClosedInMemory.incrementAndGet();
+        }else{
+            storagesClosedOnDisk.incrementAndGet();
+            diskBytes.addAndGet(size);
+        }
+    }
+
+    @Override
+    public void storageDisposed(final FileStreamStorage streamStorage, final long fileSize) {
+        storagesDisposed.incrementAndGet();
+        diskBytes.addAndGet(-fileSize);
+    }
+
+    // -----
+    // JMX
+    // -----
+
+    /**
+     * <p> Registers the metrics in the platform {@code MBeanServer}.
+     *
+     * @param name The {@code ObjectName} of the MBean, e.g. {@code org.synchronoss.cloud.nio.stream.storage:type=StreamStorageMetrics,name=uploads}.
+     * @return The {@code ObjectName} the metrics have been registered with.
+     */
+    public ObjectName registerMBean(final String name){
+        try {
+            final ObjectName objectName = new ObjectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+            return objectName;
+        }catch (JMException e){
+            throw new IllegalStateException("Unable to register the MBean " + name, e);
+        }
+    }
+
+    /**
+     * <p> Removes the metrics from the platform {@code MBeanServer}, if they have been registered via {@link #registerMBean(String)}.
+     */
+    public void unregisterMBean(){
+        final ObjectName objectName = this.objectName;
+        if (objectName == null){
+            return;
+        }
+        try {
+            final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            if (mBeanServer.isRegistered(objectName)){
+                mBeanServer.unregisterMBean(objectName);
+            }
+            this.objectName = null;
+        }catch (JMException e){
+            throw new IllegalStateException("Unable to unregister the MBean " + objectName, e);
+        }
+    }
+
+    @Override
+    public long getStoragesCreated() {
+        return storagesCreated.get();
+    }
+
+    @Override
+    public long getStoragesDisposed() {
+        return storagesDisposed.get();
+    }
+
+    @Override
+    public long getLiveStorages() {
+        // Read the disposed first, so the value is never negative
+        final long disposed = storagesDisposed.get();
+        return storagesCreated.get() - disposed;
+    }
+
+    @Override
+    public long getStoragesClosedInMemory() {
+        return storagesClosedInMemory.get();
+    }
+
+    @Override
+    public long getStoragesClosedOnDisk() {
+        return storagesClosedOnDisk.get();
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        return memoryBytes.get();
+    }
+
+    @Override
+    public long getDiskBytes() {
+        return diskBytes.get();
+    }
+
+    @Override
+    public long getUsableDiskSpace() {
+        return folder == null ? -1 : folder.getUsableSpace();
+    }
+
+    @Override
+    public long getSpills() {
+        return spills.get();
+    }
+
+    @Override
+    public long getSpilledBytes() {
+        return spilledBytes.get();
+    }
+
+    @Override
+    public long getSpillTimeTotalMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(spillTimeTotalNanos.get());
+    }
+
+    @Override
+    public long getSpillTimeMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(spillTimeMaxNanos.get());
+    }
+
+    @Override
+    public long getSpillTimeP99Micros() {
+        return getSpillTimePercentileMicros(0.99);
+    }
+
+    /**
+     * <p> Returns a percentile of the time spent copying the data of a storage from memory to disk, in microseconds.
+     *     The value is the upper bound of the histogram bucket holding the percentile, or the max if it is in the last bucket.
+     *
+     * @param percentile The percentile, between 0 and 1.
+     * @return the percentile of the spill time in microseconds, or 0 if there are no spills.
+     */
+    public long getSpillTimePercentileMicros(final double percentile){
+        final long[] histogram = getSpillTimeHistogram();
+        long total = 0;
+        for (long count : histogram){
+            total += count;
+        }
+        if (total == 0){
+            return 0;
+        }
+        final long rank = (long) Math.ceil(percentile * total);
+        long count = 0;
+        for (int i = 0; i < histogram.length - 1; i++){
+            count += histogram[i];
+            if (count >= rank){
+                return 1L << i;
+            }
+        }
+        return getSpillTimeMaxMicros();
+    }
+
+    @Override
+    public long[] getSpillTimeHistogram() {
+        final long[] histogram = new long[HISTOGRAM_BUCKETS];
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++){
+            histogram[i] = spillTimeHistogram.get(i);
+        }
+        return histogram;
+    }
+
+    @Override
+    public long[] getSpillTimeHistogramBoundsMicros() {
+        final long[] bounds = new long[HISTOGRAM_BUCKETS - 1];
+        for (int i = 0; i < bounds.length; i++){
+            bounds[i] = 1L << i;
+        }
+        return bounds;
+    }
+
+    static int bucket(final long micros){
+        // Bucket i holds the values in [2^(i-1), 2^i), bucket 0 the values lower than 1
+        final int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, HISTOGRAM_BUCKETS - 1);
+    }
+
+}
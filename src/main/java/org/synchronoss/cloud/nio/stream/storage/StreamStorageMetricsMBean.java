@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.synchronoss.cloud.nio.stream.storage;
+
+/**
+ * <p> JMX management interface of {@link StreamStorageMetrics}.
+ *
+ * @author Silvano Riz
+ */
+public interface StreamStorageMetricsMBean {
+
+    /**
+     * <p> Returns the number of storages created.
+     *
+     * @return the number of storages created.
+     */
+    long getStoragesCreated();
+
+    /**
+     * <p> Returns the number of storages disposed.
+     *
+     * @return the number of storages disposed.
+     */
+    long getStoragesDisposed();
+
+    /**
+     * <p> Returns the number of storages created and not disposed yet.
+     *
+     * @return the number of storages created and not disposed yet.
+     */
+    long getLiveStorages();
+
+    /**
+     * <p> Returns the number of storages closed with the data in memory.
+     *
+     * @return the number of storages closed with the data in memory.
+     */
+    long getStoragesClosedInMemory();
+
+    /**
+     * <p> Returns the number of storages closed with the data on disk.
+     *
+     * @return the number of storages closed with the data on disk.
+     */
+    long getStoragesClosedOnDisk();
+
+    /**
+     * <p> Returns the memory in bytes currently allocated by the storages for their in memory data.
+     *
+     * @return the memory in bytes currently allocated by the storages for their in memory data.
+     */
+    long getMemoryBytes();
+
+    /**
+     * <p> Returns the bytes on disk of the storages closed with the data on disk and not disposed yet.
+     *
+     * @return the bytes on disk of the storages closed with the data on disk and not disposed yet.
+     */
+    long getDiskBytes();
+
+    /**
+     * <p> Returns the usable space in bytes of the volume holding the data files, or -1 if the folder is not known.
+     *
+     * @return the usable space in bytes of the volume holding the data files, or -1 if the folder is not known.
+     */
+    long getUsableDiskSpace();
+
+    /**
+     * <p> Returns the number of times the in memory data has been copied to disk.
+     *
+     * @return the number of times the in memory data has been copied to disk.
+     */
+    long getSpills();
+
+    /**
+     * <p> Returns the number of bytes copied from memory to disk.
+     *
+     * @return the number of bytes copied from memory to disk.
+     */
+    long getSpilledBytes();
+
+    /**
+     * <p> Returns the total time spent copying data from memory to disk, in microseconds.
+     *
+     * @return the total time spent copying data from memory to disk, in microseconds.
+     */
+    long getSpillTimeTotalMicros();
+
+    /**
+     * <p> Returns the longest time spent copying the data of a storage from memory to disk, in microseconds.
+     *
+     * @return the longest time spent copying the data of a storage from memory to disk, in microseconds.
+     */
+    long getSpillTimeMaxMicros();
+
+    /**
+     * <p> Returns the 99th percentile of the time spent copying the data of a storage from memory to disk, in microseconds.
+     *     The value is the upper bound of the histogram bucket holding the percentile.
+     *
+     * @return the 99th percentile of the spill time in microseconds.
+     */
+    long getSpillTimeP99Micros();
+
+    /**
+     * <p> Returns the number of spills per bucket of the spill time histogram. See {@link #getSpillTimeHistogramBoundsMicros()}.
+     *
+     * @return the number of spills per bucket of the spill time histogram. See {@link #getSpillTimeHistogramBoundsMicros()}.
+     */
+    long[] getSpillTimeHistogram();
+
+    /**
+     * <p> Returns the upper bounds (exclusive) of the buckets of the spill time histogram, in microseconds. The last bucket has no bound.
+     *
+     * @return the upper bounds (exclusive) of the buckets of the spill time histogram, in microseconds. The last bucket has no bound.
+     */
+    long[] getSpillTimeHistogramBoundsMicros();
+
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p> {@link ByteBufferPublisher} emitting the data of a closed {@link StreamStorage} in chunks, as they are requested.
+ *     Each subscriber reads the data from the start.
+ *
+ * <p> The data is read without blocking the requesting thread whenever possible:
+ * <ul>
+ *     <li>The in memory data of a {@link FileStreamStorage} is emitted as read-only views of the memory buffers, without copies.</li>
+ *     <li>The file of a {@link FileStreamStorage} is read via an {@code AsynchronousFileChannel}, and the chunks are emitted
+ *         by the threads completing the reads.</li>
+ *     <li>Any other data (other storages, or files that are encoded, shared or deleted once read) is read from
+ *         {@link StreamStorage#getInputStream()}, on the given {@code Executor} or on the requesting thread if there is none.</li>
+ * </ul>
+ *
+ * <p> The storage MUST NOT be disposed while a subscriber is receiving its data.
+ *
+ * @author Silvano Riz
+ */
+public class StreamStoragePublisher implements ByteBufferPublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamStoragePublisher.class);
+
+    /**
+     * <p> Default size of the emitted chunks. 8Kb
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    final StreamStorage streamStorage;
+    final int chunkSize;
+    final Executor executor;
+
+    /**
+     * <p> Constructor.
+     *
+     * @param streamStorage The storage, already closed.
+     * @param chunkSize The maximum size in bytes of the emitted chunks.
+     * @param executor The executor reading the data from an {@code InputStream} or {@code null} to read it on the requesting thread.
+     */
+    public StreamStoragePublisher(final StreamStorage streamStorage, final int chunkSize, final Executor executor) {
+        if (chunkSize <= 0){
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+        }
+        this.streamStorage = streamStorage;
+        this.chunkSize = chunkSize;
+        this.executor = executor;
+    }
+
+    /**
+     * <p> Constructor that uses the default chunk size (8Kb) and reads the data from an {@code InputStream}, when needed,
+     *     on the requesting thread.
+     *
+     * @param streamStorage The storage, already closed.
+     */
+    public StreamStoragePublisher(final StreamStorage streamStorage) {
+        this(streamStorage, DEFAULT_CHUNK_SIZE, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void subscribe(final ByteBufferSubscriber subscriber) {
+        ReadSubscription subscription;
+        try {
+            subscription = newSubscription(subscriber);
+        }catch (Exception e){
+            subscription = new FailedSubscription(subscriber, e);
+        }
+        subscriber.onSubscribe(subscription);
+        subscription.drain();
+    }
+
+    ReadSubscription newSubscription(final ByteBufferSubscriber subscriber) throws IOException {
+        if (streamStorage instanceof FileStreamStorage){
+            final FileStreamStorage fileStreamStorage = (FileStreamStorage) streamStorage;
+            fileStreamStorage.assertIsReadable();
+            if (fileStreamStorage.isInMemory()){
+                return new MemorySubscription(subscriber, fileStreamStorage.memoryByteBuffers());
+            }
+            if (fileStreamStorage.codec == null && fileStreamStorage.sharedFileChannel == null && !fileStreamStorage.deleteFilesOnClose){
+                return new FileSubscription(subscriber, fileStreamStorage.getFile());
+            }
+        }
+        return new InputStreamSubscription(subscriber, streamStorage.getInputStream());
+    }
+
+    /**
+     * <p> Emits the chunks read by the subclasses, serially and within the demand of the subscriber. A subclass reads
+     *     the next chunk in {@link #readNext()} and reports it, synchronously or not, via {@link #chunkRead(ByteBuffer)},
+     *     {@link #endOfData()} or {@link #readFailed(Throwable)}.
+     */
+    abstract class ReadSubscription implements ByteBufferSubscription {
+
+        final ByteBufferSubscriber subscriber;
+        final AtomicLong demand = new AtomicLong(0);
+        final AtomicInteger wip = new AtomicInteger(0);
+        volatile boolean cancelled = false;
+        volatile Throwable error;
+        volatile ByteBuffer chunk;
+        volatile boolean readPending = false;
+        volatile boolean endOfData = false;
+        // Only accessed in drain()
+        boolean done = false;
+
+        ReadSubscription(final ByteBufferSubscriber subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0){
+                error = new IllegalArgumentException("Invalid request of " + n + " buffers");
+            }else{
+                long current;
+                do {
+                    current = demand.get();
+                } while (!demand.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        void drain(){
+            if (wip.getAndIncrement() != 0){
+                // Another thread is draining, it will see the new state
+                return;
+            }
+            int missed = 1;
+            do {
+                while (!done){
+                    if (cancelled){
+                        finish();
+                    }else if (error != null){
+                        finish();
+                        subscriber.onError(error);
+                    }else if (chunk != null){
+                        if (demand.get() == 0){
+                            break;
+                        }
+                        final ByteBuffer byteBuffer = chunk;
+                        chunk = null;
+                        demand.decrementAndGet();
+                        subscriber.onNext(byteBuffer);
+                    }else if (endOfData){
+                        finish();
+                        subscriber.onComplete();
+                    }else if (!readPending && demand.get() > 0){
+                        readPending = true;
+                        readNext();
+                    }else{
+                        break;
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        void finish(){
+            done = true;
+            chunk = null;
+            try {
+                close();
+            }catch (IOException e){
+                if (log.isDebugEnabled()) log.debug("Unable to close the source of the data", e);
+            }
+        }
+
+        void chunkRead(final ByteBuffer byteBuffer){
+            chunk = byteBuffer;
+            readPending = false;
+            drain();
+        }
+
+        void endOfData(){
+            endOfData = true;
+            readPending = false;
+            drain();
+        }
+
+        void readFailed(final Throwable throwable){
+            error = throwable;
+            readPending = false;
+            drain();
+        }
+
+        abstract void readNext();
+
+        abstract void close() throws IOException;
+    }
+
+    class FailedSubscription extends ReadSubscription {
+
+        FailedSubscription(final ByteBufferSubscriber subscriber, final Throwable throwable) {
+            super(subscriber);
+            this.error = throwable;
+        }
+
+        @Override
+        void readNext() {
+            // Nothing to read
+        }
+
+        @Override
+        void close() {
+            // Nothing to close
+        }
+    }
+
+    class MemorySubscription extends ReadSubscription {
+
+        final ByteBuffer[] byteBuffers;
+        int index = 0;
+
+        MemorySubscription(final ByteBufferSubscriber subscriber, final ByteBuffer[] byteBuffers) {
+            super(subscriber);
+            this.byteBuffers = byteBuffers;
+        }
+
+        @Override
+        void readNext() {
+            while (index < byteBuffers.length && !byteBuffers[index].hasRemaining()){
+                index++;
+            }
+            if (index == byteBuffers.length){
+                endOfData();
+                return;
+            }
+            final ByteBuffer byteBuffer = byteBuffers[index];
+            final ByteBuffer slice = byteBuffer.slice();
+            if (slice.remaining() > chunkSize){
+                slice.limit(chunkSize);
+            }
+            byteBuffer.position(byteBuffer.position() + slice.remaining());
+            chunkRead(slice);
+        }
+
+        @Override
+        void close() {
+            // Nothing to close, the memory is released when the storage is disposed
+        }
+    }
+
+    class FileSubscription extends ReadSubscription implements CompletionHandler<Integer, ByteBuffer> {
+
+        final AsynchronousFileChannel fileChannel;
+        long position = 0;
+
+        FileSubscription(final ByteBufferSubscriber subscriber, final File file) throws IOException {
+            super(subscriber);
+            this.fileChannel = AsynchronousFileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+
+        @Override
+        void readNext() {
+            final ByteBuffer byteBuffer = ByteBuffer.allocate(chunkSize);
+            fileChannel.read(byteBuffer, position, byteBuffer, this);
+        }
+
+        @Override
+        public void completed(final Integer read, final ByteBuffer byteBuffer) {
+            if (read < 0){
+                endOfData();
+            }else{
+                position += read;
+                byteBuffer.flip();
+                chunkRead(byteBuffer);
+            }
+        }
+
+        @Override
+        public void failed(final Throwable throwable, final ByteBuffer byteBuffer) {
+            readFailed(throwable);
+        }
+
+        @Override
+        void close() throws IOException {
+            fileChannel.close();
+        }
+    }
+
+    class InputStreamSubscription extends ReadSubscription implements Runnable {
+
+        final InputStream inputStream;
+
+        InputStreamSubscription(final ByteBufferSubscriber subscriber, final InputStream inputStream) {
+            super(subscriber);
+            this.inputStream = inputStream;
+        }
+
+        @Override
+        void readNext() {
+            if (executor != null){
+                executor.execute(this);
+            }else{
+                run();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                final byte[] bytes = new byte[chunkSize];
+                final int read = inputStream.read(bytes);
+                if (read < 0){
+                    endOfData();
+                }else{
+                    chunkRead(ByteBuffer.wrap(bytes, 0, read));
+                }
+            }catch (Throwable t){
+                readFailed(t);
+            }
+        }
+
+        @Override
+        void close() throws IOException {
+            inputStream.close();
+        }
+    }
+
+}
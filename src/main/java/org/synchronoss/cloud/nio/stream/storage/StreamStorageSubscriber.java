@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p> {@link ByteBufferSubscriber} writing the received buffers into a {@link StreamStorage}.
+ *
+ * <p> The subscriber requests {@code prefetch} buffers up front and one more buffer each time a buffer has been written,
+ *     so at most {@code prefetch} buffers are waiting to be written and a slow storage (e.g. a disk under pressure)
+ *     slows down the publisher instead of piling up data in memory. The buffers are written on the given
+ *     {@code Executor}, or on the thread calling {@link #onNext(ByteBuffer)} if there is none.
+ *
+ * <p> When the publisher completes, the storage is closed and the {@code CompletionHandler} receives the number of bytes
+ *     written. If the publisher or the storage fails, the storage is disposed and the handler receives the failure.
+ *
+ * @author Silvano Riz
+ */
+public class StreamStorageSubscriber implements ByteBufferSubscriber {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamStorageSubscriber.class);
+
+    /**
+     * <p> Default number of buffers requested ahead of the writes.
+     */
+    public static final int DEFAULT_PREFETCH = 4;
+
+    final StreamStorage streamStorage;
+    final int prefetch;
+    final Executor executor;
+    final CompletionHandler<Long, StreamStorage> completionHandler;
+    final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    final AtomicInteger wip = new AtomicInteger(0);
+    volatile ByteBufferSubscription subscription;
+    volatile boolean completed = false;
+    volatile Throwable error;
+    // Only accessed in drain()
+    long written = 0;
+    boolean done = false;
+
+    /**
+     * <p> Constructor.
+     *
+     * @param streamStorage The storage, in write mode.
+     * @param prefetch The number of buffers requested ahead of the writes.
+     * @param executor The executor writing the buffers or {@code null} to write them on the thread emitting them.
+     * @param completionHandler The handler notified when the storage has been closed or has failed.
+     */
+    public StreamStorageSubscriber(final StreamStorage streamStorage, final int prefetch, final Executor executor,
+                                   final CompletionHandler<Long, StreamStorage> completionHandler) {
+        if (prefetch <= 0){
+            throw new IllegalArgumentException("Invalid prefetch " + prefetch);
+        }
+        this.streamStorage = streamStorage;
+        this.prefetch = prefetch;
+        this.executor = executor;
+        this.completionHandler = completionHandler;
+    }
+
+    /**
+     * <p> Constructor that prefetches the default number of buffers and writes them on the thread emitting them.
+     *
+     * @param streamStorage The storage, in write mode.
+     * @param completionHandler The handler notified when the storage has been closed or has failed.
+     */
+    public StreamStorageSubscriber(final StreamStorage streamStorage, final CompletionHandler<Long, StreamStorage> completionHandler) {
+        this(streamStorage, DEFAULT_PREFETCH, null, completionHandler);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onSubscribe(final ByteBufferSubscription subscription) {
+        if (this.subscription != null){
+            // Only one publisher can write the storage
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(prefetch);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onNext(final ByteBuffer byteBuffer) {
+        buffers.offer(byteBuffer);
+        schedule();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onError(final Throwable throwable) {
+        error = throwable;
+        schedule();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onComplete() {
+        completed = true;
+        schedule();
+    }
+
+    void schedule(){
+        if (wip.getAndIncrement() != 0){
+            // A drain is in progress, it will see the new state
+            return;
+        }
+        if (executor != null){
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            });
+        }else{
+            drain();
+        }
+    }
+
+    void drain(){
+        int missed = 1;
+        do {
+            while (!done){
+                final ByteBuffer byteBuffer = buffers.poll();
+                if (byteBuffer != null){
+                    try {
+                        written += streamStorage.write(byteBuffer);
+                    }catch (Throwable t){
+                        fail(t);
+                        subscription.cancel();
+                        break;
+                    }
+                    subscription.request(1);
+                }else if (error != null){
+                    fail(error);
+                }else if (completed){
+                    complete();
+                }else{
+                    break;
+                }
+            }
+            if (done){
+                buffers.clear();
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    void complete(){
+        done = true;
+        try {
+            streamStorage.close();
+        }catch (Throwable t){
+            fail(t);
+            return;
+        }
+        completionHandler.completed(written, streamStorage);
+    }
+
+    void fail(final Throwable throwable){
+        done = true;
+        try {
+            streamStorage.dispose();
+        }catch (Exception e){
+            if (log.isDebugEnabled()) log.debug("Unable to dispose the storage", e);
+        }
+        completionHandler.failed(throwable, streamStorage);
+    }
+
+}
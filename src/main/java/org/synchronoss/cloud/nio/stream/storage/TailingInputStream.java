@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p> {@code InputStream} reading the data of a {@link FileStreamStorage} while it is being written.
+ *     See {@link FileStreamStorage#tailing()}.
+ *
+ * <p> The stream reads from memory while the data is in memory and from the file once the data has been flushed to disk.
+ *     When it reaches the bytes written so far it blocks until more data is written or the storage is closed.
+ *     If the storage is configured to delete the files on close, the file is deleted when this stream is closed after
+ *     the storage has been closed, unless the storage is configured with {@link FileStreamStorage#sharedReaders()}.
+ *
+ * @author Silvano Riz
+ */
+class TailingInputStream extends InputStream {
+
+    private static final Logger log = LoggerFactory.getLogger(TailingInputStream.class);
+
+    final FileStreamStorage streamStorage;
+    long position = 0;
+    RandomAccessFile randomAccessFile;
+    FileChannel fileChannel;
+
+    TailingInputStream(final FileStreamStorage streamStorage) {
+        this.streamStorage = streamStorage;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (off < 0 || len < 0 || off > b.length - len) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0){
+            return 0;
+        }
+        final long available = awaitData();
+        if (available == -1){
+            return -1;
+        }
+        final int toRead = (int) Math.min(len, available);
+        int read = streamStorage.readPublishedFromMemory(position, b, off, toRead);
+        if (read == -1){
+            read = readFromFile(b, off, toRead);
+        }
+        position += read;
+        return read;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        if (n <= 0){
+            return 0;
+        }
+        final long available = awaitData();
+        if (available == -1){
+            return 0;
+        }
+        final long skipped = Math.min(n, available);
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(Math.max(streamStorage.publishedBytes - position, 0), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (randomAccessFile != null){
+            randomAccessFile.close();
+            randomAccessFile = null;
+            fileChannel = null;
+        }
+        final FileStreamStorage.ReadWriteStatus status = streamStorage.readWriteStatus;
+        // With shared readers the file is purged when the storage is disposed
+        if (streamStorage.deleteFilesOnClose && streamStorage.sharedFileChannel == null && status.equals(FileStreamStorage.ReadWriteStatus.READ) && streamStorage.file.exists()){
+            if (!streamStorage.file.delete()) {
+                log.warn("Failed to purge file: " + streamStorage.file.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * <p> Waits for bytes past the current position.
+     *
+     * @return the number of bytes that can be read, or -1 if the end of the data has been reached.
+     * @throws IOException if the storage has been disposed or the thread has been interrupted.
+     */
+    long awaitData() throws IOException {
+        while (true){
+            final long published = streamStorage.publishedBytes;
+            if (published > position){
+                return published - position;
+            }
+            final FileStreamStorage.ReadWriteStatus status = streamStorage.readWriteStatus;
+            if (!status.equals(FileStreamStorage.ReadWriteStatus.WRITE)){
+                // The last bytes are published before the status changes
+                if (streamStorage.publishedBytes > position){
+                    continue;
+                }
+                if (status.equals(FileStreamStorage.ReadWriteStatus.DISMISSED)){
+                    throw new IOException("The storage has been disposed");
+                }
+                return -1;
+            }
+            streamStorage.awaitPublished(position);
+        }
+    }
+
+    int readFromFile(final byte[] b, final int off, final int len) throws IOException {
+        if (fileChannel == null){
+            randomAccessFile = new RandomAccessFile(streamStorage.file, "r");
+            fileChannel = randomAccessFile.getChannel();
+        }
+        final ByteBuffer byteBuffer = ByteBuffer.wrap(b, off, len);
+        while (byteBuffer.hasRemaining()){
+            if (fileChannel.read(byteBuffer, position + byteBuffer.position() - off) == -1){
+                throw new IOException("Unexpected end of file " + streamStorage.file.getAbsolutePath());
+            }
+        }
+        return len;
+    }
+}
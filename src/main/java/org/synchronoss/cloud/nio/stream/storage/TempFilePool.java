@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p> A thread safe pool of empty data files, recycled by the disposed storages instead of deleting them.
+ *
+ * <p> Creating and deleting a file for each storage costs an inode allocation, two directory updates and the related
+ *     journal commits. A storage created with a pooled file writes over it and, when it is disposed, truncates it and gives
+ *     it back to the pool, so under a steady load the files are created once and reused.
+ *
+ * <p> The pool holds at most {@code maxFiles} files: when it is full the released files are deleted as usual. Files that
+ *     stay in the pool longer than {@code maxIdleTime} are deleted, so the pool shrinks back when the load drops.
+ *     The most recently released files are reused first.
+ *
+ * @author Silvano Riz
+ */
+public class TempFilePool {
+
+    private static final Logger log = LoggerFactory.getLogger(TempFilePool.class);
+
+    /**
+     * <p> Default time after which an unused file is deleted. 1 minute.
+     */
+    public static final long DEFAULT_MAX_IDLE_TIME_MILLIS = 60000;
+
+    static class PooledFile {
+        final File file;
+        final long releaseTime;
+
+        PooledFile(final File file, final long releaseTime) {
+            this.file = file;
+            this.releaseTime = releaseTime;
+        }
+    }
+
+    private final int maxFiles;
+    private final long maxIdleTimeNanos;
+    // Newest files at the head, oldest at the tail
+    private final ConcurrentLinkedDeque<PooledFile> files = new ConcurrentLinkedDeque<PooledFile>();
+    private final AtomicInteger size = new AtomicInteger(0);
+    // The files currently in the pool, so a file released twice is not handed out twice
+    private final Set<File> pooledFiles = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+    /**
+     * <p> Constructor.
+     *
+     * @param maxFiles The maximum number of files kept in the pool.
+     * @param maxIdleTimeMillis The time in milliseconds after which a file that has not been reused is deleted.
+     */
+    public TempFilePool(final int maxFiles, final long maxIdleTimeMillis) {
+        if (maxFiles < 0){
+            throw new IllegalArgumentException("Invalid max files " + maxFiles);
+        }
+        if (maxIdleTimeMillis < 0){
+            throw new IllegalArgumentException("Invalid max idle time " + maxIdleTimeMillis);
+        }
+        this.maxFiles = maxFiles;
+        this.maxIdleTimeNanos = TimeUnit.MILLISECONDS.toNanos(maxIdleTimeMillis);
+    }
+
+    /**
+     * <p> Constructor that deletes the files not reused within the default idle time (1 minute).
+     *
+     * @param maxFiles The maximum number of files kept in the pool.
+     */
+    public TempFilePool(final int maxFiles) {
+        this(maxFiles, DEFAULT_MAX_IDLE_TIME_MILLIS);
+    }
+
+    /**
+     * <p> Takes an empty file from the pool.
+     *
+     * @return The file or {@code null} if the pool is empty.
+     */
+    public File acquire(){
+        evictIdleFiles();
+        final PooledFile pooledFile = files.pollFirst();
+        if (pooledFile == null){
+            return null;
+        }
+        size.decrementAndGet();
+        pooledFiles.remove(pooledFile.file.getAbsoluteFile());
+        return pooledFile.file;
+    }
+
+    /**
+     * <p> Truncates the file and gives it to the pool. The file must not be used anymore by the caller.
+     *
+     * @param file The file.
+     * @return {@code true} if the file has been pooled or it is already in the pool, {@code false} if the pool is full or
+     *         the file cannot be reused, in which case the caller is expected to delete it.
+     */
+    public boolean release(final File file){
+        if (!file.isFile()){
+            return false;
+        }
+        final File absoluteFile = file.getAbsoluteFile();
+        if (!pooledFiles.add(absoluteFile)){
+            // Released twice: the file is already waiting in the pool and must not be truncated nor pooled again
+            if (log.isDebugEnabled()) log.debug("The file " + absoluteFile.getAbsolutePath() + " is already in the pool");
+            return true;
+        }
+        if (size.incrementAndGet() > maxFiles){
+            size.decrementAndGet();
+            pooledFiles.remove(absoluteFile);
+            return false;
+        }
+        try {
+            truncate(file);
+        }catch (IOException e){
+            size.decrementAndGet();
+            pooledFiles.remove(absoluteFile);
+            if (log.isDebugEnabled()) log.debug("Unable to truncate " + file.getAbsolutePath() + ", not pooling it", e);
+            return false;
+        }
+        files.offerFirst(new PooledFile(file, System.nanoTime()));
+        evictIdleFiles();
+        return true;
+    }
+
+    /**
+     * <p> Deletes the files that have not been reused within the max idle time.
+     *     This is done on every {@link #acquire()} and {@link #release(File)}, call it periodically to shrink the pool
+     *     when no storage is created.
+     *
+     * @return The number of files deleted.
+     */
+    public int evictIdleFiles(){
+        int evicted = 0;
+        final long now = System.nanoTime();
+        PooledFile oldest;
+        while ((oldest = files.peekLast()) != null && now - oldest.releaseTime > maxIdleTimeNanos){
+            final PooledFile pooledFile = files.pollLast();
+            if (pooledFile == null){
+                break;
+            }
+            if (now - pooledFile.releaseTime <= maxIdleTimeNanos){
+                // Another thread took the oldest file in the meantime
+                files.offerLast(pooledFile);
+                break;
+            }
+            size.decrementAndGet();
+            pooledFiles.remove(pooledFile.file.getAbsoluteFile());
+            delete(pooledFile.file);
+            evicted++;
+        }
+        return evicted;
+    }
+
+    /**
+     * <p> Deletes all the files in the pool.
+     */
+    public void clear(){
+        PooledFile pooledFile;
+        while ((pooledFile = files.pollFirst()) != null){
+            size.decrementAndGet();
+            pooledFiles.remove(pooledFile.file.getAbsoluteFile());
+            delete(pooledFile.file);
+        }
+    }
+
+    /**
+     * <p> Returns the number of files in the pool.
+     *
+     * @return the number of files in the pool.
+     */
+    public int size(){
+        return size.get();
+    }
+
+    /**
+     * <p> Returns the maximum number of files kept in the pool.
+     *
+     * @return the maximum number of files.
+     */
+    public int getMaxFiles() {
+        return maxFiles;
+    }
+
+    void truncate(final File file) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(0);
+        }finally {
+            randomAccessFile.close();
+        }
+    }
+
+    void delete(final File file){
+        if (file.exists() && !file.delete()){
+            log.warn("Failed to purge file: " + file.getAbsolutePath());
+        }
+    }
+
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p> A {@code StreamStorage} moving the data through an ordered chain of {@link StorageTier}s, for example heap memory,
+ *     off-heap memory, a tmpfs directory and a disk directory. It generalizes the two tiers of the {@link FileStreamStorage}
+ *     (memory and file), so mid-sized data can stay in a cheap RAM-backed tier instead of going from the heap to a slow disk.
+ *
+ * <p> The data is kept in the storage created by the current tier. When a write would take the data over the threshold
+ *     of the current tier, or the tier is full, all the data is copied to a storage of the first following tier that can
+ *     take it, and the previous storage is disposed. The data never moves back to a previous tier.
+ *     If no tier can take the data the write fails with an {@link IllegalStateException}, so the last tier should have no limits.
+ *     If the storage of a tier fails to write or to move the data, the tiered storage is failed: it cannot be written
+ *     or read anymore and it only needs to be disposed.
+ *
+ * <p> As the {@link FileStreamStorage}, the storage starts in the <i>write</i> state and it can be read once {@link #close()}
+ *     has been called.
+ *
+ * @author Silvano Riz
+ * @see TieredStreamStorageFactory
+ */
+public class TieredStreamStorage extends StreamStorage {
+
+    private static final Logger log = LoggerFactory.getLogger(TieredStreamStorage.class);
+
+    final List<StorageTier> tiers;
+    volatile int tierIndex;
+    volatile StreamStorage storage;
+    volatile long size = 0;
+    volatile boolean open = true;
+    volatile boolean disposed = false;
+    volatile boolean failed = false;
+
+    /**
+     * <p> Constructor.
+     *
+     * @param tiers The tiers, in the order the data moves through them.
+     */
+    public TieredStreamStorage(final List<StorageTier> tiers) {
+        this(tiers, -1);
+    }
+
+    /**
+     * <p> Constructor for data of the given size. The data starts in the first tier whose threshold is not smaller than
+     *     the expected size, so it is not copied through the tiers that cannot hold it anyway. More data than expected
+     *     can still be written.
+     *
+     * @param tiers The tiers, in the order the data moves through them.
+     * @param expectedSize The expected size of the data in bytes, or -1 if it is not known.
+     */
+    public TieredStreamStorage(final List<StorageTier> tiers, final long expectedSize) {
+        if (tiers.isEmpty()){
+            throw new IllegalArgumentException("At least one tier is needed");
+        }
+        this.tiers = new ArrayList<StorageTier>(tiers);
+        int index = 0;
+        while (expectedSize > 0 && index < this.tiers.size() - 1 && !fits(this.tiers.get(index), expectedSize)){
+            index++;
+        }
+        this.tierIndex = index;
+        this.storage = this.tiers.get(index).newStorage();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final int b) throws IOException {
+        assertIsWritable();
+        reserve(1);
+        boolean written = false;
+        try {
+            storage.write(b);
+            written = true;
+        }finally {
+            if (!written) fail();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        assertIsWritable();
+        reserve(len);
+        boolean written = false;
+        try {
+            storage.write(b, off, len);
+            written = true;
+        }finally {
+            if (!written) fail();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        assertIsWritable();
+        final int length = src.remaining();
+        reserve(length);
+        boolean written = false;
+        try {
+            final int result = storage.write(src);
+            written = true;
+            return result;
+        }finally {
+            if (!written) fail();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+        if (offset < 0 || length < 0 || offset > srcs.length - length) {
+            throw new IndexOutOfBoundsException();
+        }
+        assertIsWritable();
+        long total = 0;
+        for (int i = offset; i < offset + length; i++){
+            total += srcs[i].remaining();
+        }
+        reserve(total);
+        boolean written = false;
+        try {
+            final long result = storage.write(srcs, offset, length);
+            written = true;
+            return result;
+        }finally {
+            if (!written) fail();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() throws IOException {
+        assertIsWritable();
+        storage.flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        if (open){
+            open = false;
+            storage.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream getInputStream() {
+        assertIsReadable();
+        return storage.getInputStream();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p> The transfer is delegated to the storage of the current tier.
+     */
+    @Override
+    public long transferTo(final WritableByteChannel channel) throws IOException {
+        assertIsReadable();
+        return storage.transferTo(channel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long transferTo(final OutputStream outputStream) throws IOException {
+        assertIsReadable();
+        return storage.transferTo(outputStream);
+    }
+
+    /**
+     * <p> Disposes the storage of the current tier and gives its room back to the tier.
+     *
+     * @return The result of the {@link Disposable#dispose()} of the storage of the current tier.
+     */
+    @Override
+    public boolean dispose() {
+        if (disposed){
+            return true;
+        }
+        disposed = true;
+        open = false;
+        try {
+            return storage.dispose();
+        }finally {
+            tiers.get(tierIndex).release(size);
+        }
+    }
+
+    /**
+     * <p> Returns the tier currently holding the data.
+     *
+     * @return the current tier.
+     */
+    public StorageTier getTier() {
+        return tiers.get(tierIndex);
+    }
+
+    /**
+     * <p> Returns the position in the chain of the tier currently holding the data.
+     *
+     * @return the index of the current tier.
+     */
+    public int getTierIndex() {
+        return tierIndex;
+    }
+
+    /**
+     * <p> Reserves the room for {@code length} more bytes in the current tier, or moves the data to the first following
+     *     tier that can take it.
+     *
+     * @param length The number of bytes about to be written.
+     * @throws IOException if the data cannot be moved to the next tier.
+     */
+    void reserve(final long length) throws IOException {
+        final StorageTier tier = tiers.get(tierIndex);
+        if (fits(tier, size + length) && tier.reserve(size, length)){
+            size += length;
+            return;
+        }
+        for (int i = tierIndex + 1; i < tiers.size(); i++){
+            final StorageTier nextTier = tiers.get(i);
+            if (fits(nextTier, size + length) && nextTier.reserve(0, size + length)){
+                moveTo(i, length);
+                size += length;
+                return;
+            }
+        }
+        throw new IllegalStateException("No tier can store " + (size + length) + " bytes");
+    }
+
+    void moveTo(final int index, final long length) throws IOException {
+        if (log.isDebugEnabled()) log.debug("Moving " + size + " bytes from tier " + tierIndex + " to tier " + index);
+        final StorageTier nextTier = tiers.get(index);
+        final StreamStorage nextStorage = nextTier.newStorage();
+        boolean moved = false;
+        try {
+            storage.close();
+            // The storages are GatheringByteChannels, so the data is copied with as few writes as possible
+            storage.transferTo((WritableByteChannel) nextStorage);
+            moved = true;
+        }finally {
+            if (!moved){
+                // The current storage is closed already, so the data cannot be written anywhere anymore
+                nextStorage.dispose();
+                nextTier.release(size + length);
+                fail();
+            }
+        }
+        final StreamStorage previousStorage = storage;
+        final StorageTier previousTier = tiers.get(tierIndex);
+        storage = nextStorage;
+        tierIndex = index;
+        previousStorage.dispose();
+        previousTier.release(size);
+    }
+
+    /**
+     * <p> Marks the storage as failed after the storage of the current tier failed to write or to move the data, and
+     *     gives back to the current tier all the room reserved by the storage, as the data cannot be read anymore.
+     */
+    void fail(){
+        if (log.isDebugEnabled()) log.debug("Failed to store the data in tier " + tierIndex);
+        failed = true;
+        open = false;
+        tiers.get(tierIndex).release(size);
+        size = 0;
+    }
+
+    static boolean fits(final StorageTier tier, final long size){
+        final long threshold = tier.getThreshold();
+        return threshold < 0 || size <= threshold;
+    }
+
+    void assertIsWritable(){
+        if (failed){
+            throw new IllegalStateException("The TieredStreamStorage failed to store the data");
+        }
+        if (!open){
+            throw new IllegalStateException("OutputStream is closed");
+        }
+    }
+
+    void assertIsReadable(){
+        if (failed){
+            throw new IllegalStateException("The TieredStreamStorage failed to store the data");
+        }
+        if (open){
+            throw new IllegalStateException("The TieredStreamStorage is still in write mode. Call the close() method when all the data has been written before asking for the InputStream.");
+        }
+        if (disposed){
+            throw new IllegalStateException("The TieredStreamStorage has been disposed");
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Factory for creating {@link TieredStreamStorage}s, all moving their data through the same chain of {@link StorageTier}s.
+ * For example:
+ * <pre>{@code
+ * new TieredStreamStorageFactory(
+ *     new HeapStorageTier(10 * 1024, 64 * 1024 * 1024),
+ *     new DirectBufferStorageTier(256 * 1024, 256 * 1024 * 1024),
+ *     new DirectoryStorageTier(new File("/dev/shm/nio-stream-storage"), 16 * 1024 * 1024, 1024 * 1024 * 1024),
+ *     new DirectoryStorageTier(new File("/var/tmp/nio-stream-storage")));
+ * }</pre>
+ */
+public class TieredStreamStorageFactory implements SizeAwareStreamStorageFactory {
+
+    final List<StorageTier> tiers;
+
+    /**
+     * <p> Constructor.
+     *
+     * @param tiers The tiers, in the order the data moves through them.
+     */
+    public TieredStreamStorageFactory(final List<StorageTier> tiers) {
+        if (tiers.isEmpty()){
+            throw new IllegalArgumentException("At least one tier is needed");
+        }
+        this.tiers = Collections.unmodifiableList(new ArrayList<StorageTier>(tiers));
+    }
+
+    /**
+     * <p> Constructor.
+     *
+     * @param tiers The tiers, in the order the data moves through them.
+     */
+    public TieredStreamStorageFactory(final StorageTier... tiers) {
+        this(Arrays.asList(tiers));
+    }
+
+    /**
+     * Creates a new {@link TieredStreamStorage}, starting in the first tier.
+     *
+     * @return a {@link StreamStorage} moving the data through the tiers.
+     */
+    @Override
+    public StreamStorage create() {
+        return new TieredStreamStorage(tiers);
+    }
+
+    /**
+     * <p> Creates a new {@link TieredStreamStorage} for data of the given size, starting in the first tier that can hold it.
+     *
+     * @param expectedSize The expected size of the data in bytes, or -1 if it is not known.
+     * @return a {@link StreamStorage} moving the data through the tiers.
+     */
+    @Override
+    public StreamStorage create(final long expectedSize) {
+        return new TieredStreamStorage(tiers, expectedSize);
+    }
+
+    /**
+     * <p> Returns the tiers, in the order the data moves through them.
+     *
+     * @return the tiers.
+     */
+    public List<StorageTier> getTiers() {
+        return tiers;
+    }
+
+}
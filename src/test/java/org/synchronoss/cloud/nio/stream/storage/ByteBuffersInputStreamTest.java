@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * <p> Unit tests for {@link ByteBuffersInputStream}
+ *
+ * @author Silvano Riz
+ */
+public class ByteBuffersInputStreamTest {
+
+    private static ByteBuffersInputStream newInputStream(){
+        ByteBuffer direct = ByteBuffer.allocateDirect(4);
+        direct.put(new byte[]{0x03, 0x04}).flip();
+        return new ByteBuffersInputStream(new ByteBuffer[]{
+                ByteBuffer.wrap(new byte[]{0x01, 0x02}),
+                ByteBuffer.allocate(0),
+                direct,
+                ByteBuffer.wrap(new byte[]{0x00, 0x05, 0x06}, 1, 2)
+        });
+    }
+
+    @Test
+    public void testRead() {
+        ByteBuffersInputStream inputStream = newInputStream();
+        assertEquals(6, inputStream.available());
+        for (int i = 1; i <= 6; i++){
+            assertEquals(i, inputStream.read());
+        }
+        assertEquals(-1, inputStream.read());
+        assertEquals(0, inputStream.available());
+    }
+
+    @Test
+    public void testReadWithByteArray() {
+        ByteBuffersInputStream inputStream = newInputStream();
+        byte[] buffer = new byte[8];
+        assertEquals(0, inputStream.read(buffer, 0, 0));
+        assertEquals(3, inputStream.read(buffer, 0, 3));
+        assertEquals(3, inputStream.read(buffer, 3, 5));
+        assertEquals(-1, inputStream.read(buffer, 0, 8));
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x00, 0x00}, buffer);
+    }
+
+    @Test
+    public void testSkip() {
+        ByteBuffersInputStream inputStream = newInputStream();
+        assertEquals(3, inputStream.skip(3));
+        assertEquals(4, inputStream.read());
+        assertEquals(2, inputStream.skip(10));
+        assertEquals(0, inputStream.skip(10));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testRead_outOfBounds() {
+        newInputStream().read(new byte[2], 1, 2);
+    }
+
+}
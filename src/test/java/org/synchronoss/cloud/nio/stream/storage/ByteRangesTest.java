@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * <p> Unit tests for {@link ByteRanges}
+ *
+ * @author Silvano Riz
+ */
+public class ByteRangesTest {
+
+    @Test
+    public void testAdd() {
+        ByteRanges byteRanges = new ByteRanges();
+        assertEquals(0, byteRanges.contiguousEnd());
+        assertEquals(0, byteRanges.end());
+
+        byteRanges.add(10, 20);
+        byteRanges.add(30, 40);
+        assertEquals("[[10, 20), [30, 40)]", byteRanges.toString());
+        assertEquals(0, byteRanges.contiguousEnd());
+        assertEquals(40, byteRanges.end());
+        assertEquals(20, byteRanges.coveredBytes());
+
+        // Adjacent
+        byteRanges.add(0, 10);
+        assertEquals("[[0, 20), [30, 40)]", byteRanges.toString());
+        assertEquals(20, byteRanges.contiguousEnd());
+
+        // Overlapping both
+        byteRanges.add(15, 35);
+        assertEquals("[[0, 40)]", byteRanges.toString());
+        assertEquals(40, byteRanges.contiguousEnd());
+        assertEquals(40, byteRanges.coveredBytes());
+
+        // Contained and empty
+        byteRanges.add(5, 6);
+        byteRanges.add(50, 50);
+        assertEquals("[[0, 40)]", byteRanges.toString());
+    }
+
+    @Test
+    public void testAdd_spanningManyRanges() {
+        ByteRanges byteRanges = new ByteRanges();
+        for (int i = 0; i < 10; i++){
+            byteRanges.add(i * 10 + 5, i * 10 + 8);
+        }
+        assertEquals(30, byteRanges.coveredBytes());
+        byteRanges.add(7, 96);
+        assertEquals("[[5, 98)]", byteRanges.toString());
+    }
+
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * <p> Unit tests for {@link DeduplicatingStreamStorage} and {@link DeduplicatingStreamStorageFactory}
+ *
+ * @author Silvano Riz
+ */
+public class DeduplicatingStreamStorageTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    DeduplicatingStreamStorageFactory newFactory(final long minSize){
+        DeferredFileStreamStorageFactory deferredFileStreamStorageFactory = new DeferredFileStreamStorageFactory(tempFolder.getRoot().getAbsolutePath(), 4);
+        deferredFileStreamStorageFactory.setDeleteFilesOnDispose(true);
+        return new DeduplicatingStreamStorageFactory(deferredFileStreamStorageFactory, minSize);
+    }
+
+    @Test
+    public void testIdenticalPayloadsAreStoredOnce() throws IOException {
+        DeduplicatingStreamStorageFactory factory = newFactory(0);
+        byte[] data = new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06};
+
+        DeduplicatingStreamStorage first = (DeduplicatingStreamStorage) factory.create();
+        first.write(data);
+        first.close();
+        DeduplicatingStreamStorage second = (DeduplicatingStreamStorage) factory.create();
+        second.write(data[0]);
+        second.write(data, 1, 2);
+        ByteBuffer direct = ByteBuffer.allocateDirect(3);
+        direct.put(data, 3, 3).flip();
+        second.write(new ByteBuffer[]{direct}, 0, 1);
+        second.close();
+
+        assertTrue(first.isShared());
+        assertTrue(second.isShared());
+        assertEquals(1, factory.getSharedPayloadsCount());
+        assertEquals(6, factory.getDeduplicatedBytes());
+        // Only the first copy is kept on disk
+        assertEquals(1, tempFolder.getRoot().list().length);
+
+        assertTrue(first.dispose());
+        InputStream inputStream = second.getInputStream();
+        assertArrayEquals(data, IOUtils.toByteArray(inputStream));
+        inputStream.close();
+        ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+        assertEquals(6, second.transferTo(Channels.newChannel(transferred)));
+        assertArrayEquals(data, transferred.toByteArray());
+
+        assertTrue(second.dispose());
+        assertEquals(0, factory.getSharedPayloadsCount());
+        assertEquals(0, tempFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void testDifferentPayloads() throws IOException {
+        DeduplicatingStreamStorageFactory factory = newFactory(0);
+        StreamStorage first = factory.create();
+        first.write(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05});
+        first.close();
+        StreamStorage second = factory.create();
+        second.write(new byte[]{0x01, 0x02, 0x03, 0x04, 0x06});
+        second.close();
+
+        assertEquals(2, factory.getSharedPayloadsCount());
+        assertEquals(0, factory.getDeduplicatedBytes());
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05}, IOUtils.toByteArray(first.getInputStream()));
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x06}, IOUtils.toByteArray(second.getInputStream()));
+        assertTrue(first.dispose());
+        assertTrue(second.dispose());
+        assertEquals(0, factory.getSharedPayloadsCount());
+    }
+
+    @Test
+    public void testSmallPayloadsAreNotDeduplicated() throws IOException {
+        DeduplicatingStreamStorageFactory factory = newFactory(10);
+        DeduplicatingStreamStorage unknownSize = (DeduplicatingStreamStorage) factory.create();
+        unknownSize.write(new byte[9]);
+        unknownSize.close();
+        assertFalse(unknownSize.isShared());
+
+        DeduplicatingStreamStorage knownSize = (DeduplicatingStreamStorage) factory.create(9);
+        assertEquals(null, knownSize.digest);
+        knownSize.write(new byte[9]);
+        knownSize.close();
+        assertFalse(knownSize.isShared());
+        assertEquals(0, factory.getSharedPayloadsCount());
+        assertArrayEquals(new byte[9], IOUtils.toByteArray(knownSize.getInputStream()));
+
+        assertTrue(unknownSize.dispose());
+        assertTrue(knownSize.dispose());
+    }
+
+    @Test
+    public void testCreateWithExpectedSize_factoryNotSizeAware() throws IOException {
+        final DeferredFileStreamStorageFactory deferredFileStreamStorageFactory = new DeferredFileStreamStorageFactory(tempFolder.getRoot().getAbsolutePath(), 4);
+        deferredFileStreamStorageFactory.setDeleteFilesOnDispose(true);
+        // A factory only implementing create(), as the ones written before the size hint
+        DeduplicatingStreamStorageFactory factory = new DeduplicatingStreamStorageFactory(new StreamStorageFactory() {
+            @Override
+            public StreamStorage create() {
+                return deferredFileStreamStorageFactory.create();
+            }
+        }, 0);
+
+        DeduplicatingStreamStorage storage = (DeduplicatingStreamStorage) factory.create(3);
+        storage.write(new byte[]{0x01, 0x02, 0x03});
+        storage.close();
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03}, IOUtils.toByteArray(storage.getInputStream()));
+        assertTrue(storage.dispose());
+    }
+
+    @Test
+    public void testPartialWrites() throws IOException {
+        final DeferredFileStreamStorageFactory deferredFileStreamStorageFactory = new DeferredFileStreamStorageFactory(tempFolder.getRoot().getAbsolutePath(), 4);
+        deferredFileStreamStorageFactory.setDeleteFilesOnDispose(true);
+        // A factory creating storages that write at most 2 bytes of a buffer at a time
+        DeduplicatingStreamStorageFactory factory = new DeduplicatingStreamStorageFactory(new StreamStorageFactory() {
+            @Override
+            public StreamStorage create() {
+                return new PartialWriteStreamStorage(deferredFileStreamStorageFactory.create());
+            }
+        }, 0);
+        byte[] data = new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06};
+
+        StreamStorage first = factory.create();
+        first.write(data);
+        first.close();
+        StreamStorage second = factory.create();
+        ByteBuffer src = ByteBuffer.wrap(data, 0, 3);
+        assertEquals(2, second.write(src));
+        assertEquals(1, second.write(src));
+        ByteBuffer[] srcs = new ByteBuffer[]{ByteBuffer.wrap(data, 3, 3)};
+        assertEquals(2, second.write(srcs, 0, 1));
+        assertEquals(1, second.write(srcs, 0, 1));
+        second.close();
+
+        // Only the written bytes are hashed, so the payloads are identical
+        assertEquals(1, factory.getSharedPayloadsCount());
+        assertEquals(6, factory.getDeduplicatedBytes());
+        assertArrayEquals(data, IOUtils.toByteArray(second.getInputStream()));
+        assertTrue(first.dispose());
+        assertTrue(second.dispose());
+    }
+
+    @Test
+    public void testWrite_closed() throws IOException {
+        DeduplicatingStreamStorageFactory factory = newFactory(0);
+        StreamStorage first = factory.create();
+        first.write(new byte[]{0x01, 0x02});
+        first.close();
+        StreamStorage second = factory.create();
+        second.write(new byte[]{0x01, 0x02});
+        second.close();
+        try {
+            second.write(0x03);
+            fail("Expected an IllegalStateException");
+        }catch (IllegalStateException e){
+            // Expected
+        }
+        try {
+            second.write(ByteBuffer.wrap(new byte[]{0x03}));
+            fail("Expected an IllegalStateException");
+        }catch (IllegalStateException e){
+            // Expected
+        }
+        // The shared payload is untouched
+        assertArrayEquals(new byte[]{0x01, 0x02}, IOUtils.toByteArray(first.getInputStream()));
+        assertTrue(first.dispose());
+        assertTrue(second.dispose());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetInputStream_disposed() throws IOException {
+        StreamStorage storage = newFactory(0).create();
+        storage.write(0x01);
+        storage.close();
+        storage.dispose();
+        storage.getInputStream();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDeleteFilesOnClose() {
+        DeferredFileStreamStorageFactory deferredFileStreamStorageFactory = new DeferredFileStreamStorageFactory(tempFolder.getRoot().getAbsolutePath(), 4);
+        deferredFileStreamStorageFactory.setDeleteFilesOnClose(true);
+        new DeduplicatingStreamStorageFactory(deferredFileStreamStorageFactory);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDeleteFilesOnClose_directBuffers() {
+        DirectBufferStreamStorageFactory directBufferStreamStorageFactory = new DirectBufferStreamStorageFactory(tempFolder.getRoot().getAbsolutePath(), 4, 1024);
+        directBufferStreamStorageFactory.setDeleteFilesOnClose(true);
+        new DeduplicatingStreamStorageFactory(directBufferStreamStorageFactory);
+    }
+
+    @Test
+    public void testDeletesDataOnClose() {
+        DeferredFileStreamStorageFactory deferredFileStreamStorageFactory = new DeferredFileStreamStorageFactory(tempFolder.getRoot().getAbsolutePath(), 4);
+        assertFalse(DeduplicatingStreamStorageFactory.deletesDataOnClose(deferredFileStreamStorageFactory));
+        deferredFileStreamStorageFactory.setDeleteFilesOnClose(true);
+        assertTrue(DeduplicatingStreamStorageFactory.deletesDataOnClose(deferredFileStreamStorageFactory));
+        assertFalse(DeduplicatingStreamStorageFactory.deletesDataOnClose(new TieredStreamStorageFactory(new HeapStorageTier(4, -1))));
+        assertFalse(DeduplicatingStreamStorageFactory.deletesDataOnClose(newFactory(0)));
+    }
+
+    @Test
+    public void testToHex() {
+        assertEquals("00ff7f10", DeduplicatingStreamStorage.toHex(new byte[]{0x00, (byte) 0xFF, 0x7F, 0x10}));
+    }
+
+    static class PartialWriteStreamStorage extends StreamStorage {
+
+        final StreamStorage storage;
+
+        PartialWriteStreamStorage(final StreamStorage storage) {
+            this.storage = storage;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            storage.write(b);
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            final ByteBuffer part = src.duplicate();
+            part.limit(Math.min(src.limit(), src.position() + 2));
+            final int written = storage.write(part);
+            src.position(src.position() + written);
+            return written;
+        }
+
+        @Override
+        public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+            return write(srcs[offset]);
+        }
+
+        @Override
+        public void close() throws IOException {
+            storage.close();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return storage.getInputStream();
+        }
+
+        @Override
+        public boolean dispose() {
+            return storage.dispose();
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p> Unit tests for {@link DeflateCodec}
+ *
+ * @author Silvano Riz
+ */
+public class DeflateCodecTest {
+
+    @Test
+    public void testEncodeDecode() throws IOException {
+        final byte[] data = FileStreamStorageTest.compressibleData(100000);
+        for (DeflateCodec codec : new DeflateCodec[]{new DeflateCodec(), DeflateCodec.fast(), new DeflateCodec(Deflater.BEST_COMPRESSION, 512)}){
+            final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            final OutputStream outputStream = codec.encode(encoded);
+            outputStream.write(data);
+            outputStream.close();
+            // Closing twice is harmless
+            outputStream.close();
+            assertTrue(encoded.size() < data.length / 3);
+
+            final InputStream inputStream = codec.decode(new ByteArrayInputStream(encoded.toByteArray()));
+            assertArrayEquals(data, IOUtils.toByteArray(inputStream));
+            inputStream.close();
+            inputStream.close();
+        }
+    }
+
+    @Test
+    public void testEncodeDecode_empty() throws IOException {
+        final DeflateCodec codec = new DeflateCodec();
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        codec.encode(encoded).close();
+        assertArrayEquals(new byte[0], IOUtils.toByteArray(codec.decode(new ByteArrayInputStream(encoded.toByteArray()))));
+    }
+
+    @Test
+    public void testConstructor() {
+        assertEquals(Deflater.DEFAULT_COMPRESSION, new DeflateCodec().getLevel());
+        assertEquals(DeflateCodec.DEFAULT_BUFFER_SIZE, new DeflateCodec().getBufferSize());
+        assertEquals(Deflater.BEST_SPEED, DeflateCodec.fast().getLevel());
+        assertEquals(1024, new DeflateCodec(Deflater.NO_COMPRESSION, 1024).getBufferSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_invalidLevel() {
+        new DeflateCodec(10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_invalidBufferSize() {
+        new DeflateCodec(Deflater.BEST_SPEED, 0);
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p> Unit tests for {@link DirectBufferCleaner}
+ *
+ * @author Silvano Riz
+ */
+public class DirectBufferCleanerTest {
+
+    @Test
+    public void testClean() {
+        assertTrue(DirectBufferCleaner.clean(ByteBuffer.allocateDirect(16)));
+    }
+
+    @Test
+    public void testClean_notDirect() {
+        assertFalse(DirectBufferCleaner.clean(null));
+        assertFalse(DirectBufferCleaner.clean(ByteBuffer.allocate(16)));
+    }
+
+}
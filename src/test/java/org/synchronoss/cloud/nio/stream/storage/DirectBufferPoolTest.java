@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p> Unit tests for {@link DirectBufferPool}
+ *
+ * @author Silvano Riz
+ */
+public class DirectBufferPoolTest {
+
+    @Test
+    public void testAcquireAndRelease() {
+        DirectBufferPool bufferPool = new DirectBufferPool(16, 32);
+        ByteBuffer first = bufferPool.acquire();
+        ByteBuffer second = bufferPool.acquire();
+        assertNotNull(first);
+        assertNotNull(second);
+        assertTrue(first.isDirect());
+        assertEquals(16, first.capacity());
+        assertEquals(32, bufferPool.getAllocatedMemory());
+        assertEquals(32, bufferPool.getUsedMemory());
+
+        // Budget exhausted
+        assertNull(bufferPool.acquire());
+
+        first.put((byte) 0x01);
+        bufferPool.release(first);
+        assertEquals(16, bufferPool.getUsedMemory());
+        assertEquals(32, bufferPool.getAllocatedMemory());
+
+        // The released buffer is reused, cleared
+        ByteBuffer reused = bufferPool.acquire();
+        assertSame(first, reused);
+        assertEquals(0, reused.position());
+        assertEquals(32, bufferPool.getAllocatedMemory());
+    }
+
+    @Test
+    public void testDefaults() {
+        DirectBufferPool bufferPool = new DirectBufferPool(1024 * 1024);
+        assertEquals(DirectBufferPool.DEFAULT_BUFFER_SIZE, bufferPool.getBufferSize());
+        assertEquals(1024 * 1024, bufferPool.getMaxMemory());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_invalidBufferSize() {
+        new DirectBufferPool(0, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_invalidMaxMemory() {
+        new DirectBufferPool(10, -1);
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p> Unit tests for {@link DirectBufferStreamStorageFactory}
+ *
+ * @author Silvano Riz
+ */
+public class DirectBufferStreamStorageFactoryTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testCreate() throws IOException {
+        DirectBufferStreamStorageFactory factory = new DirectBufferStreamStorageFactory(tempFolder.getRoot().getAbsolutePath(), 100, 1024);
+        factory.setMaxCapacity(50);
+        StreamStorage streamStorage = factory.create();
+        assertTrue(streamStorage instanceof DirectBufferStreamStorage);
+
+        DirectBufferStreamStorage directBufferStreamStorage = (DirectBufferStreamStorage) streamStorage;
+        assertSame(factory.getBufferPool(), directBufferStreamStorage.bufferPool);
+        assertEquals(100, directBufferStreamStorage.threshold);
+        assertEquals(50, directBufferStreamStorage.maxCapacity);
+        assertEquals(1024, factory.getBufferPool().getMaxMemory());
+        assertTrue(directBufferStreamStorage.dispose());
+    }
+
+    @Test
+    public void testDefaults() {
+        DirectBufferStreamStorageFactory factory = new DirectBufferStreamStorageFactory();
+        assertEquals(DirectBufferStreamStorageFactory.DEFAULT_MAX_DIRECT_MEMORY, factory.getBufferPool().getMaxMemory());
+        assertEquals(DirectBufferPool.DEFAULT_BUFFER_SIZE, factory.getBufferPool().getBufferSize());
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p> Unit tests for {@link DirectBufferStreamStorage}
+ *
+ * @author Silvano Riz
+ */
+public class DirectBufferStreamStorageTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static byte[] bytes(final int length){
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++){
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testWriteAndRead_memory() throws IOException {
+        DirectBufferPool bufferPool = new DirectBufferPool(4, 64);
+        File file = new File(tempFolder.getRoot(), "testWriteAndRead_memory.tmp");
+        DirectBufferStreamStorage storage = DirectBufferStreamStorage.deferred(file, 20, bufferPool);
+        assertNull(storage.byteArrayOutputStream);
+
+        storage.write(0x00);
+        storage.write(bytes(10), 1, 9);
+        storage.write(new byte[]{0x0A, 0x0B});
+        storage.close();
+
+        assertTrue(storage.isInMemory());
+        assertFalse(file.exists());
+        assertEquals(12, storage.memorySize());
+        // 12 bytes in buffers of 4 bytes
+        assertEquals(12, bufferPool.getUsedMemory());
+
+        assertArrayEquals(bytes(12), IOUtils.toByteArray(storage.getInputStream()));
+        // Repeatable
+        assertArrayEquals(bytes(12), IOUtils.toByteArray(storage.getInputStream()));
+
+        ByteArrayOutputStream destination = new ByteArrayOutputStream();
+        assertEquals(12, storage.transferTo(destination));
+        assertArrayEquals(bytes(12), destination.toByteArray());
+
+        assertTrue(storage.dispose());
+        assertEquals(0, bufferPool.getUsedMemory());
+    }
+
+    @Test
+    public void testWrite_ByteBuffer_memory() throws IOException {
+        DirectBufferPool bufferPool = new DirectBufferPool(4, 64);
+        File file = new File(tempFolder.getRoot(), "testWrite_ByteBuffer_memory.tmp");
+        DirectBufferStreamStorage storage = DirectBufferStreamStorage.deferred(file, 20, bufferPool);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(7);
+        direct.put(bytes(7)).flip();
+        ByteBuffer heap = ByteBuffer.wrap(bytes(12));
+        heap.position(7);
+        assertEquals(12, storage.write(new ByteBuffer[]{direct, heap}));
+        storage.close();
+
+        assertTrue(storage.isInMemory());
+        assertArrayEquals(bytes(12), IOUtils.toByteArray(storage.getInputStream()));
+        assertTrue(storage.dispose());
+    }
+
+    @Test
+    public void testSwitchToFile_threshold() throws IOException {
+        DirectBufferPool bufferPool = new DirectBufferPool(4, 64);
+        File file = new File(tempFolder.getRoot(), "testSwitchToFile_threshold.tmp");
+        DirectBufferStreamStorage storage = DirectBufferStreamStorage.deferred(file, 10, bufferPool);
+
+        storage.write(bytes(10));
+        assertTrue(storage.isInMemory());
+        storage.write(0x0A);
+        assertFalse(storage.isInMemory());
+        assertEquals(0, bufferPool.getUsedMemory());
+        storage.close();
+
+        assertEquals(11, file.length());
+        InputStream inputStream = storage.getInputStream();
+        assertArrayEquals(bytes(11), IOUtils.toByteArray(inputStream));
+        inputStream.close();
+    }
+
+    @Test
+    public void testSwitchToFile_budget() throws IOException {
+        DirectBufferPool bufferPool = new DirectBufferPool(4, 12);
+        DirectBufferStreamStorage first = DirectBufferStreamStorage.deferred(new File(tempFolder.getRoot(), "testSwitchToFile_budget1.tmp"), 100, bufferPool);
+        DirectBufferStreamStorage second = DirectBufferStreamStorage.deferred(new File(tempFolder.getRoot(), "testSwitchToFile_budget2.tmp"), 100, bufferPool);
+
+        first.write(bytes(6));
+        assertTrue(first.isInMemory());
+        assertEquals(8, bufferPool.getUsedMemory());
+
+        // Only one buffer left, it is not enough for 5 bytes. The partially acquired buffer is given back.
+        second.write(bytes(5));
+        assertFalse(second.isInMemory());
+        assertEquals(8, bufferPool.getUsedMemory());
+
+        // The first storage can still fill its buffers, but 5 more bytes don't fit in the last free buffer
+        first.write(bytes(2));
+        assertTrue(first.isInMemory());
+        first.write(bytes(5), 0, 5);
+        assertFalse(first.isInMemory());
+        assertEquals(0, bufferPool.getUsedMemory());
+
+        first.close();
+        second.close();
+        assertEquals(13, first.getFile().length());
+        assertArrayEquals(bytes(5), IOUtils.toByteArray(second.getInputStream()));
+    }
+
+}
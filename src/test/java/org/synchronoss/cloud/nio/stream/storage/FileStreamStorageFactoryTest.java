@@ -1,10 +1,17 @@
 package org.synchronoss.cloud.nio.stream.storage;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.junit.After;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.junit.Assert.*;
 
@@ -13,10 +20,11 @@ public class FileStreamStorageFactoryTest {
     private static final String TEMP_TEST_FOLDER_PATH = "temp_test_folder_path";
 
     @After
-    public void cleanUp() {
+    public void cleanUp() throws IOException {
+        // Deletes the data files left by the tests too, File.delete() fails on a folder that is not empty
         File tempFolder = new File(TEMP_TEST_FOLDER_PATH);
         if (tempFolder.exists())
-            tempFolder.delete();
+            FileUtils.deleteDirectory(tempFolder);
     }
 
     @Test
@@ -100,6 +108,263 @@ public class FileStreamStorageFactoryTest {
         assertEquals(10, deferredFileStreamStorage.maxCapacity);
     }
 
+    @Test
+    public void testCreateWithSpillExecutor() throws IOException {
+        DeferredFileStreamStorageFactory deferredFileStreamStorageFactory = new DeferredFileStreamStorageFactory(TEMP_TEST_FOLDER_PATH, 2);
+        ExecutorService spillExecutor = Executors.newSingleThreadExecutor();
+        try {
+            deferredFileStreamStorageFactory.setSpillExecutor(spillExecutor);
+            FileStreamStorage deferredFileStreamStorage = (FileStreamStorage) deferredFileStreamStorageFactory.create();
+            assertSame(spillExecutor, deferredFileStreamStorage.spillExecutor);
+            deferredFileStreamStorage.dispose();
+        }finally {
+            spillExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCreateWithWriteBuffer() throws IOException {
+        DeferredFileStreamStorageFactory deferredFileStreamStorageFactory = new DeferredFileStreamStorageFactory(TEMP_TEST_FOLDER_PATH, 0);
+        deferredFileStreamStorageFactory.setWriteBufferSize(8192);
+        deferredFileStreamStorageFactory.setDeleteFilesOnDispose(true);
+        FileStreamStorage deferredFileStreamStorage = (FileStreamStorage) deferredFileStreamStorageFactory.create();
+        assertEquals(8192, deferredFileStreamStorage.writeBufferSize);
+        deferredFileStreamStorage.dispose();
+    }
+
+    @Test
+    public void testCreateWithSharedReaders() throws IOException {
+        DeferredFileStreamStorageFactory deferredFileStreamStorageFactory = new DeferredFileStreamStorageFactory(TEMP_TEST_FOLDER_PATH, 0);
+        deferredFileStreamStorageFactory.setSharedReaders(true);
+        deferredFileStreamStorageFactory.setDeleteFilesOnDispose(true);
+        FileStreamStorage deferredFileStreamStorage = (FileStreamStorage) deferredFileStreamStorageFactory.create();
+        assertNotNull(deferredFileStreamStorage.sharedFileChannel);
+        deferredFileStreamStorage.dispose();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetWriteBufferSize_wrongValueNegative() {
+        new DeferredFileStreamStorageFactory(TEMP_TEST_FOLDER_PATH, 0).setWriteBufferSize(-1);
+    }
+
+    @Test
+    public void testCreatePositional() throws IOException {
+        DeferredFileStreamStorageFactory deferredFileStreamStorageFactory = new DeferredFileStreamStorageFactory(TEMP_TEST_FOLDER_PATH, 10);
+        deferredFileStreamStorageFactory.setDeleteFilesOnDispose(true);
+        deferredFileStreamStorageFactory.setMaxCapacity(100);
+        PositionalFileStreamStorage positionalFileStreamStorage = deferredFileStreamStorageFactory.createPositional(50);
+
+        assertEquals(50, positionalFileStreamStorage.expectedSize);
+        assertEquals(100, positionalFileStreamStorage.maxCapacity);
+        assertTrue(positionalFileStreamStorage.deleteFilesOnDispose);
+        assertFalse(positionalFileStreamStorage.deleteFilesOnClose);
+        assertEquals(new File(TEMP_TEST_FOLDER_PATH).getAbsoluteFile(), positionalFileStreamStorage.file.getAbsoluteFile().getParentFile());
+        assertTrue(positionalFileStreamStorage.dispose());
+    }
+
+    @Test
+    public void testCreateRolling() throws IOException {
+        DeferredFileStreamStorageFactory deferredFileStreamStorageFactory = new DeferredFileStreamStorageFactory(TEMP_TEST_FOLDER_PATH, 10);
+        deferredFileStreamStorageFactory.setDeleteFilesOnClose(true);
+        RollingFileStreamStorage rollingFileStreamStorage = deferredFileStreamStorageFactory.createRolling(1024);
+
+        assertEquals(1024, rollingFileStreamStorage.segmentSize);
+        assertEquals(-1, rollingFileStreamStorage.maxCapacity);
+        assertTrue(rollingFileStreamStorage.deleteFilesOnClose);
+        assertFalse(rollingFileStreamStorage.deleteFilesOnDispose);
+        assertTrue(rollingFileStreamStorage.dispose());
+    }
+
+    @Test
+    public void testCreateWithExpectedSize() throws IOException {
+        DeferredFileStreamStorageFactory deferredFileStreamStorageFactory = new DeferredFileStreamStorageFactory(TEMP_TEST_FOLDER_PATH, 10);
+        deferredFileStreamStorageFactory.setDeleteFilesOnDispose(true);
+
+        FileStreamStorage small = (FileStreamStorage) deferredFileStreamStorageFactory.create(10);
+        assertTrue(small.isInMemory());
+        assertTrue(small.dispose());
+
+        FileStreamStorage large = (FileStreamStorage) deferredFileStreamStorageFactory.create(11);
+        assertFalse(large.isInMemory());
+        assertTrue(large.file.exists());
+        assertTrue(large.dispose());
+
+        FileStreamStorage direct = (FileStreamStorage) new DirectBufferStreamStorageFactory(TEMP_TEST_FOLDER_PATH, 10, 1024).create(11);
+        assertFalse(direct.isInMemory());
+        direct.write(new byte[11]);
+        direct.close();
+        assertEquals(11, direct.file.length());
+        assertTrue(direct.deleteFilesOnDispose().dispose());
+    }
+
+    @Test
+    public void testCreateWithCodec() throws IOException {
+        DeferredFileStreamStorageFactory deferredFileStreamStorageFactory = new DeferredFileStreamStorageFactory(TEMP_TEST_FOLDER_PATH, 10);
+        deferredFileStreamStorageFactory.setDeleteFilesOnDispose(true);
+        StorageCodec codec = new DeflateCodec();
+        deferredFileStreamStorageFactory.setCodec(codec, 1000);
+        assertSame(codec, deferredFileStreamStorageFactory.getCodec());
+
+        FileStreamStorage unknownSize = (FileStreamStorage) deferredFileStreamStorageFactory.create();
+        assertSame(codec, unknownSize.codec);
+        assertTrue(unknownSize.dispose());
+
+        FileStreamStorage small = (FileStreamStorage) deferredFileStreamStorageFactory.create(999);
+        assertNull(small.codec);
+        small.write(new byte[999]);
+        small.close();
+        assertEquals(999, small.file.length());
+        assertTrue(small.dispose());
+
+        FileStreamStorage large = (FileStreamStorage) deferredFileStreamStorageFactory.create(1000);
+        assertSame(codec, large.codec);
+        large.write(new byte[1000]);
+        large.close();
+        assertTrue(large.file.length() < 1000);
+        InputStream inputStream = large.getInputStream();
+        assertArrayEquals(new byte[1000], IOUtils.toByteArray(inputStream));
+        inputStream.close();
+        assertTrue(large.dispose());
+    }
+
+    @Test
+    public void testCreateWithDigests() throws IOException {
+        DeferredFileStreamStorageFactory deferredFileStreamStorageFactory = new DeferredFileStreamStorageFactory(TEMP_TEST_FOLDER_PATH, 10);
+        deferredFileStreamStorageFactory.setDigestAlgorithms("MD5", "CRC32");
+
+        FileStreamStorage deferredFileStreamStorage = (FileStreamStorage) deferredFileStreamStorageFactory.create();
+        deferredFileStreamStorage.write(new byte[]{0x01, 0x02, 0x03});
+        deferredFileStreamStorage.close();
+        assertEquals(16, deferredFileStreamStorage.getDigest("MD5").length);
+        assertEquals(4, deferredFileStreamStorage.getDigest("CRC32").length);
+        assertTrue(deferredFileStreamStorage.dispose());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetDigestAlgorithms_unknown() {
+        new DeferredFileStreamStorageFactory(TEMP_TEST_FOLDER_PATH, 10).setDigestAlgorithms("MD5", "unknown");
+    }
+
+    @Test
+    public void testCreateWithTempFilePool() throws IOException {
+        DeferredFileStreamStorageFactory deferredFileStreamStorageFactory = new DeferredFileStreamStorageFactory(TEMP_TEST_FOLDER_PATH, 2);
+        deferredFileStreamStorageFactory.setDeleteFilesOnDispose(true);
+        TempFilePool tempFilePool = new TempFilePool(10);
+        deferredFileStreamStorageFactory.setTempFilePool(tempFilePool);
+        assertSame(tempFilePool, deferredFileStreamStorageFactory.getTempFilePool());
+
+        FileStreamStorage first = (FileStreamStorage) deferredFileStreamStorageFactory.create();
+        assertSame(tempFilePool, first.tempFilePool);
+        first.write(new byte[]{0x01, 0x02, 0x03});
+        first.close();
+        assertTrue(first.dispose());
+        assertEquals(1, tempFilePool.size());
+
+        // The file is reused by the next storage
+        FileStreamStorage second = (FileStreamStorage) deferredFileStreamStorageFactory.create();
+        assertEquals(first.file, second.file);
+        assertEquals(0, tempFilePool.size());
+        second.write(new byte[]{0x04, 0x05, 0x06, 0x07});
+        second.close();
+        assertEquals(4, second.file.length());
+        assertTrue(second.dispose());
+
+        // Disposing again does not give the file back to the pool a second time
+        assertTrue(second.dispose());
+        assertEquals(1, tempFilePool.size());
+        FileStreamStorage third = (FileStreamStorage) deferredFileStreamStorageFactory.create();
+        FileStreamStorage fourth = (FileStreamStorage) deferredFileStreamStorageFactory.create();
+        assertEquals(first.file, third.file);
+        assertNotEquals(third.file, fourth.file);
+        third.write(new byte[]{0x08, 0x09, 0x0A});
+        third.close();
+        assertTrue(second.dispose());
+        assertEquals(3, third.file.length());
+        third.dispose();
+        fourth.dispose();
+
+        // Positional storages do not take pooled files
+        PositionalFileStreamStorage positional = deferredFileStreamStorageFactory.createPositional(1);
+        assertNotEquals(first.file, positional.file);
+        positional.dispose();
+
+        tempFilePool.clear();
+        assertFalse(first.file.exists());
+    }
+
+    @Test
+    public void testCreateWithMetrics() throws IOException {
+        DeferredFileStreamStorageFactory deferredFileStreamStorageFactory = new DeferredFileStreamStorageFactory(TEMP_TEST_FOLDER_PATH, 2);
+        StreamStorageMetrics metrics = deferredFileStreamStorageFactory.newMetrics();
+        assertSame(metrics, deferredFileStreamStorageFactory.getListener());
+
+        FileStreamStorage deferredFileStreamStorage = (FileStreamStorage) deferredFileStreamStorageFactory.create();
+        assertSame(metrics, deferredFileStreamStorage.listener);
+        assertEquals(1, metrics.getLiveStorages());
+        assertTrue(metrics.getUsableDiskSpace() > 0);
+        deferredFileStreamStorage.deleteFilesOnDispose().dispose();
+        assertEquals(0, metrics.getLiveStorages());
+    }
+
+    @Test
+    public void testGetFileName_unique() {
+        DeferredFileStreamStorageFactory deferredFileStreamStorageFactory = new DeferredFileStreamStorageFactory(TEMP_TEST_FOLDER_PATH, 10);
+        Set<String> fileNames = new HashSet<String>();
+        for (int i = 0; i < 1000; i++){
+            String fileName = deferredFileStreamStorageFactory.getFileName();
+            assertTrue(fileName.startsWith("stream-object-"));
+            assertTrue(fileName.endsWith(".tmp"));
+            assertTrue(fileNames.add(fileName));
+        }
+        assertNotEquals(deferredFileStreamStorageFactory.getFileName(), new DeferredFileStreamStorageFactory(TEMP_TEST_FOLDER_PATH, 10).getFileName());
+    }
+
+    @Test
+    public void testCreateWithShardLevels() throws IOException {
+        DeferredFileStreamStorageFactory deferredFileStreamStorageFactory = new DeferredFileStreamStorageFactory(TEMP_TEST_FOLDER_PATH, 0);
+        deferredFileStreamStorageFactory.setShardLevels(2);
+        deferredFileStreamStorageFactory.setDeleteFilesOnDispose(true);
+        Set<File> folders = new HashSet<File>();
+        for (int i = 0; i < 100; i++){
+            FileStreamStorage deferredFileStreamStorage = (FileStreamStorage) deferredFileStreamStorageFactory.create();
+            File folder = deferredFileStreamStorage.file.getAbsoluteFile().getParentFile();
+            assertTrue(folder.getName().matches("[0-9a-f]{2}"));
+            assertTrue(folder.getParentFile().getName().matches("[0-9a-f]{2}"));
+            assertEquals(new File(TEMP_TEST_FOLDER_PATH).getAbsoluteFile(), folder.getParentFile().getParentFile());
+            deferredFileStreamStorage.write(0x01);
+            deferredFileStreamStorage.close();
+            assertTrue(deferredFileStreamStorage.dispose());
+            folders.add(folder);
+        }
+        // The files are spread over the sub folders
+        assertTrue(folders.size() > 50);
+        for (File folder : folders){
+            folder.delete();
+            folder.getParentFile().delete();
+        }
+    }
+
+    @Test
+    public void testCreateWithShardLevels_customFileName() {
+        DeferredFileStreamStorageFactory deferredFileStreamStorageFactory = new DeferredFileStreamStorageFactory(TEMP_TEST_FOLDER_PATH, 10){
+            @Override
+            protected String getFileName() {
+                return "custom.tmp";
+            }
+        };
+        deferredFileStreamStorageFactory.setShardLevels(1);
+        FileStreamStorage deferredFileStreamStorage = (FileStreamStorage) deferredFileStreamStorageFactory.create();
+        assertEquals("custom.tmp", deferredFileStreamStorage.file.getName());
+        assertTrue(deferredFileStreamStorage.file.getParentFile().isDirectory());
+        deferredFileStreamStorage.dispose();
+        deferredFileStreamStorage.file.getParentFile().delete();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetShardLevels_wrongValue() {
+        new DeferredFileStreamStorageFactory(TEMP_TEST_FOLDER_PATH, 0).setShardLevels(DeferredFileStreamStorageFactory.MAX_SHARD_LEVELS + 1);
+    }
+
     private static void assertConstructorException(Exception e) {
         assertTrue(e instanceof IllegalStateException);
         assertEquals(e.getMessage(), "Unable to create the temporary folder: ");
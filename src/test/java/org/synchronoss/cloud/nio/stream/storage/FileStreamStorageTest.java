@@ -23,10 +23,27 @@ import org.junit.rules.TemporaryFolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -34,6 +51,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * <p> Unit test for {@link FileStreamStorage}
@@ -181,6 +199,23 @@ public class FileStreamStorageTest {
 
     }
 
+    @Test
+    public void testGetInputStream_memory_repeatable() throws IOException {
+
+        File file = new File(tempFolder.getRoot(), "testGetInputStream_memory_repeatable.tmp");
+
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(file, 3);
+        deferredFileStreamStorage.write(new byte[]{0x01, 0x02, 0x03});
+        deferredFileStreamStorage.close();
+
+        InputStream first = deferredFileStreamStorage.getInputStream();
+        InputStream second = deferredFileStreamStorage.getInputStream();
+        assertTrue(first instanceof SegmentedByteArrayInputStream);
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03}, IOUtils.toByteArray(first));
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03}, IOUtils.toByteArray(second));
+
+    }
+
     @Test
     public void testGetInputStream_file_purgeOnClose() throws IOException {
 
@@ -243,6 +278,412 @@ public class FileStreamStorageTest {
 
     }
 
+    @Test
+    public void testWrite_ByteBuffer() throws IOException {
+
+        File file = new File(tempFolder.getRoot(), "testWrite_ByteBuffer.tmp");
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(file, 6);
+        assertTrue(deferredFileStreamStorage.isOpen());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(4);
+        direct.put(new byte[]{0x01, 0x02, 0x03, 0x04}).flip();
+        assertEquals(4, deferredFileStreamStorage.write(direct));
+        assertFalse(direct.hasRemaining());
+        assertTrue(deferredFileStreamStorage.isInMemory());
+
+        // Spills to disk and writes straight to the file channel
+        direct.clear();
+        assertEquals(4, deferredFileStreamStorage.write(direct));
+        assertFalse(deferredFileStreamStorage.isInMemory());
+        assertEquals(2, deferredFileStreamStorage.write(ByteBuffer.wrap(new byte[]{0x05, 0x06})));
+
+        deferredFileStreamStorage.close();
+        assertFalse(deferredFileStreamStorage.isOpen());
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06}, IOUtils.toByteArray(deferredFileStreamStorage.getInputStream()));
+    }
+
+    @Test
+    public void testWrite_ByteBuffers() throws IOException {
+
+        File file = new File(tempFolder.getRoot(), "testWrite_ByteBuffers.tmp");
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(file, 5);
+
+        assertEquals(3, deferredFileStreamStorage.write(new ByteBuffer[]{ByteBuffer.wrap(new byte[]{0x01, 0x02}), ByteBuffer.wrap(new byte[]{0x03})}));
+        assertTrue(deferredFileStreamStorage.isInMemory());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(2);
+        direct.put(new byte[]{0x05, 0x06}).flip();
+        ByteBuffer[] srcs = new ByteBuffer[]{ByteBuffer.wrap(new byte[]{0x00}), ByteBuffer.wrap(new byte[]{0x04}), direct};
+        assertEquals(3, deferredFileStreamStorage.write(srcs, 1, 2));
+        assertFalse(deferredFileStreamStorage.isInMemory());
+        assertEquals(1, srcs[0].remaining());
+
+        deferredFileStreamStorage.close();
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06}, IOUtils.toByteArray(deferredFileStreamStorage.getInputStream()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWrite_ByteBuffer_maxCapacity() throws IOException {
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(new File(tempFolder.getRoot(), "testWrite_ByteBuffer_maxCapacity.tmp"), 3).maxCapacity(4);
+        deferredFileStreamStorage.write(new ByteBuffer[]{ByteBuffer.allocate(2), ByteBuffer.allocate(3)});
+    }
+
+    @Test
+    public void testSwitchToFile_inBackground() throws IOException {
+
+        final Queue<Runnable> tasks = new LinkedList<Runnable>();
+        File file = new File(tempFolder.getRoot(), "testSwitchToFile_inBackground.tmp");
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(file, 4).spillExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+
+        deferredFileStreamStorage.write(new byte[]{0x01, 0x02, 0x03});
+        deferredFileStreamStorage.write(new byte[]{0x04, 0x05});
+        // The threshold has been crossed, but nothing has been written to disk yet
+        assertFalse(deferredFileStreamStorage.isInMemory());
+        assertFalse(file.exists());
+        assertEquals(1, tasks.size());
+        deferredFileStreamStorage.write(0x06);
+        assertEquals(3, deferredFileStreamStorage.spillBacklog.size());
+
+        tasks.poll().run();
+        assertEquals(3, file.length());
+        assertNull(deferredFileStreamStorage.byteArrayOutputStream);
+
+        // The backlog is written as soon as the next write finds the spill done
+        deferredFileStreamStorage.write(0x07);
+        assertNull(deferredFileStreamStorage.pendingSpill);
+        assertNull(deferredFileStreamStorage.spillBacklog);
+
+        deferredFileStreamStorage.close();
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07}, IOUtils.toByteArray(deferredFileStreamStorage.getInputStream()));
+    }
+
+    @Test
+    public void testSwitchToFile_inBackground_backlogMemory() throws IOException {
+
+        final Queue<Runnable> tasks = new LinkedList<Runnable>();
+        File file = new File(tempFolder.getRoot(), "testSwitchToFile_inBackground_backlogMemory.tmp");
+        MemoryBudget memoryBudget = new MemoryBudget(10000);
+        StreamStorageMetrics metrics = new StreamStorageMetrics();
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(file, 1000).memoryBudget(memoryBudget).listener(metrics).spillExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+
+        deferredFileStreamStorage.write(new byte[1000]);
+        long inMemory = deferredFileStreamStorage.reservedMemory;
+        assertTrue(inMemory > 0);
+        deferredFileStreamStorage.write(new byte[500]);
+        assertEquals(1, tasks.size());
+        assertEquals(500, deferredFileStreamStorage.spillBacklog.size());
+
+        // The backlog is reserved from the budget and reported, as the in memory data
+        long backlog = deferredFileStreamStorage.reservedBacklogMemory;
+        assertTrue(backlog > 0);
+        assertEquals(inMemory + backlog, memoryBudget.getUsedMemory());
+        assertEquals(memoryBudget.getUsedMemory(), metrics.getMemoryBytes());
+
+        tasks.poll().run();
+        assertEquals(backlog, memoryBudget.getUsedMemory());
+        assertEquals(backlog, metrics.getMemoryBytes());
+
+        deferredFileStreamStorage.close();
+        assertEquals(0, memoryBudget.getUsedMemory());
+        assertEquals(0, metrics.getMemoryBytes());
+        assertEquals(1500, file.length());
+        deferredFileStreamStorage.dispose();
+    }
+
+    @Test
+    public void testSwitchToFile_inBackground_backlogMemoryRefused() throws IOException {
+
+        File file = new File(tempFolder.getRoot(), "testSwitchToFile_inBackground_backlogMemoryRefused.tmp");
+        MemoryBudget memoryBudget = new MemoryBudget(10000);
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(file, 1000).memoryBudget(memoryBudget).spillExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                new Thread(command).start();
+            }
+        });
+
+        deferredFileStreamStorage.write(new byte[1000]);
+        // Another storage takes all the memory left
+        FileStreamStorage other = FileStreamStorage.deferred(new File(tempFolder.getRoot(), "other.tmp"), 1000);
+        long left = memoryBudget.getMaxMemory() - memoryBudget.getUsedMemory();
+        assertTrue(memoryBudget.reserve(other, left));
+
+        // No memory for the backlog: the writing thread waits for the flush and writes to the file
+        deferredFileStreamStorage.write(new byte[500]);
+        assertNull(deferredFileStreamStorage.pendingSpill);
+        assertNull(deferredFileStreamStorage.spillBacklog);
+        assertEquals(0, deferredFileStreamStorage.reservedBacklogMemory);
+        assertEquals(left, memoryBudget.getUsedMemory());
+
+        deferredFileStreamStorage.close();
+        assertEquals(1500, file.length());
+        memoryBudget.release(other, left);
+        deferredFileStreamStorage.dispose();
+    }
+
+    @Test
+    public void testSwitchToFile_inBackground_backlogFull() throws Exception {
+
+        ExecutorService spillExecutor = Executors.newSingleThreadExecutor();
+        try {
+            File file = new File(tempFolder.getRoot(), "testSwitchToFile_inBackground_backlogFull.tmp");
+            FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(file, 16).spillExecutor(spillExecutor);
+            byte[] data = new byte[1000];
+            for (int i = 0; i < data.length; i++){
+                data[i] = (byte) i;
+                deferredFileStreamStorage.write(data[i]);
+            }
+            deferredFileStreamStorage.close();
+            assertNull(deferredFileStreamStorage.pendingSpill);
+            assertArrayEquals(data, IOUtils.toByteArray(deferredFileStreamStorage.getInputStream()));
+        }finally {
+            spillExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSwitchToFile_inBackground_rejected() throws IOException {
+
+        File file = new File(tempFolder.getRoot(), "testSwitchToFile_inBackground_rejected.tmp");
+        ExecutorService spillExecutor = Executors.newSingleThreadExecutor();
+        spillExecutor.shutdown();
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(file, 2).spillExecutor(spillExecutor);
+
+        deferredFileStreamStorage.write(new byte[]{0x01, 0x02, 0x03});
+        // Flushed on the writing thread
+        assertNull(deferredFileStreamStorage.pendingSpill);
+        assertEquals(3, file.length());
+        deferredFileStreamStorage.close();
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03}, IOUtils.toByteArray(deferredFileStreamStorage.getInputStream()));
+    }
+
+    @Test
+    public void testSwitchToFile_inBackground_failure() throws IOException {
+
+        File file = new File(tempFolder.getRoot(), "missing/testSwitchToFile_inBackground_failure.tmp");
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(file, 2).spillExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        deferredFileStreamStorage.write(new byte[]{0x01, 0x02});
+        try {
+            deferredFileStreamStorage.write(new byte[]{0x03, 0x04, 0x05});
+            fail("The flush to disk should have failed");
+        }catch (IOException e){
+            assertTrue(e.getCause() instanceof FileNotFoundException);
+        }
+        assertTrue(deferredFileStreamStorage.dispose());
+    }
+
+    @Test
+    public void testWriteBuffer() throws IOException {
+
+        File file = new File(tempFolder.getRoot(), "testWriteBuffer.tmp");
+        FileStreamStorage fileStreamStorage = FileStreamStorage.directToFile(file, false).writeBufferSize(4);
+
+        fileStreamStorage.write(0x01);
+        fileStreamStorage.write(new byte[]{0x02, 0x03});
+        fileStreamStorage.write(ByteBuffer.wrap(new byte[]{0x04}));
+        assertEquals(0, file.length());
+
+        // The buffer is full, it is written before buffering the new byte
+        fileStreamStorage.write(0x05);
+        assertEquals(4, file.length());
+
+        // Big writes bypass the buffer, after writing it
+        fileStreamStorage.write(new byte[]{0x06, 0x07, 0x08, 0x09});
+        assertEquals(9, file.length());
+
+        fileStreamStorage.write(0x0A);
+        fileStreamStorage.flush();
+        assertEquals(10, file.length());
+
+        fileStreamStorage.write(ByteBuffer.wrap(new byte[]{0x0B, 0x0C}));
+        fileStreamStorage.write(ByteBuffer.wrap(new byte[]{0x0D, 0x0E, 0x0F, 0x10}));
+        assertEquals(16, file.length());
+
+        fileStreamStorage.write(0x11);
+        fileStreamStorage.close();
+        assertEquals(17, file.length());
+        assertNull(fileStreamStorage.writeBuffer);
+
+        byte[] expected = new byte[17];
+        for (int i = 0; i < expected.length; i++){
+            expected[i] = (byte) (i + 1);
+        }
+        assertArrayEquals(expected, IOUtils.toByteArray(fileStreamStorage.getInputStream()));
+    }
+
+    @Test
+    public void testWriteBuffer_deferred() throws IOException {
+
+        File file = new File(tempFolder.getRoot(), "testWriteBuffer_deferred.tmp");
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(file, 2).writeBufferSize(8);
+
+        deferredFileStreamStorage.write(new byte[]{0x01, 0x02});
+        deferredFileStreamStorage.write(0x03);
+        assertFalse(deferredFileStreamStorage.isInMemory());
+        // The in memory data is written on switch, the new byte is buffered
+        assertEquals(2, file.length());
+
+        deferredFileStreamStorage.close();
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03}, IOUtils.toByteArray(deferredFileStreamStorage.getInputStream()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWriteBuffer_wrongValueNegative() throws IOException{
+        FileStreamStorage.deferred(new File(tempFolder.getRoot(), "testWriteBuffer_wrongValueNegative.tmp"), 3).writeBufferSize(-1);
+    }
+
+    @Test
+    public void testTransferTo_memory() throws IOException {
+
+        File file = new File(tempFolder.getRoot(), "testTransferTo_memory.tmp");
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(file, 1000);
+        byte[] data = new byte[700];
+        for (int i = 0; i < data.length; i++){
+            data[i] = (byte) i;
+        }
+        deferredFileStreamStorage.write(data);
+        deferredFileStreamStorage.close();
+        assertTrue(deferredFileStreamStorage.isInMemory());
+
+        // Gathering channel
+        File destination = new File(tempFolder.getRoot(), "testTransferTo_memory_destination.tmp");
+        FileOutputStream destinationOutputStream = new FileOutputStream(destination);
+        FileChannel destinationChannel = destinationOutputStream.getChannel();
+        assertEquals(700, deferredFileStreamStorage.transferTo(destinationChannel));
+        destinationOutputStream.close();
+        assertArrayEquals(data, IOUtils.toByteArray(new FileInputStream(destination)));
+
+        // Simple channel
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        assertEquals(700, deferredFileStreamStorage.transferTo(Channels.newChannel(byteArrayOutputStream)));
+        assertArrayEquals(data, byteArrayOutputStream.toByteArray());
+
+        // OutputStream
+        byteArrayOutputStream = new ByteArrayOutputStream();
+        assertEquals(700, deferredFileStreamStorage.transferTo(byteArrayOutputStream));
+        assertArrayEquals(data, byteArrayOutputStream.toByteArray());
+    }
+
+    @Test
+    public void testTransferTo_file_purgeOnClose() throws IOException {
+
+        File file = new File(tempFolder.getRoot(), "testTransferTo_file_purgeOnClose.tmp");
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(file, 3);
+        deferredFileStreamStorage.write(new byte[]{0x01, 0x02, 0x03, 0x4, 0x5});
+        deferredFileStreamStorage.close();
+        assertFalse(deferredFileStreamStorage.isInMemory());
+
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        assertEquals(5, deferredFileStreamStorage.transferTo(byteArrayOutputStream));
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x4, 0x5}, byteArrayOutputStream.toByteArray());
+        assertTrue(file.exists());
+
+        deferredFileStreamStorage.deleteFilesOnClose();
+        File destination = new File(tempFolder.getRoot(), "testTransferTo_file_destination.tmp");
+        FileOutputStream destinationOutputStream = new FileOutputStream(destination);
+        assertEquals(5, deferredFileStreamStorage.transferTo(destinationOutputStream.getChannel()));
+        destinationOutputStream.close();
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x4, 0x5}, IOUtils.toByteArray(new FileInputStream(destination)));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testTransferTo_file_channelNotTakingTheBytes() throws IOException {
+
+        File file = new File(tempFolder.getRoot(), "testTransferTo_file_channelNotTakingTheBytes.tmp");
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(file, 3);
+        deferredFileStreamStorage.write(new byte[]{0x01, 0x02, 0x03, 0x4, 0x5});
+        deferredFileStreamStorage.close();
+        assertFalse(deferredFileStreamStorage.isInMemory());
+
+        // The first write takes no bytes, so FileChannel.transferTo returns 0
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        final WritableByteChannel delegate = Channels.newChannel(byteArrayOutputStream);
+        WritableByteChannel channel = new WritableByteChannel() {
+            boolean first = true;
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                if (first){
+                    first = false;
+                    return 0;
+                }
+                return delegate.write(src);
+            }
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+            @Override
+            public void close() {
+            }
+        };
+        assertEquals(5, deferredFileStreamStorage.transferTo(channel));
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x4, 0x5}, byteArrayOutputStream.toByteArray());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTransferTo_OutputStreamNotClosed() throws IOException {
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(new File(tempFolder.getRoot(), "testTransferTo_OutputStreamNotClosed.tmp"), 3);
+        deferredFileStreamStorage.write(new byte[]{0x01, 0x02});
+        deferredFileStreamStorage.transferTo(new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void testMap() throws IOException {
+
+        File file = new File(tempFolder.getRoot(), "testMap.tmp");
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(file, 3).deleteFilesOnClose();
+        deferredFileStreamStorage.write(new byte[]{0x01, 0x02, 0x03, 0x4, 0x5});
+        deferredFileStreamStorage.close();
+
+        MappedByteBuffer mappedByteBuffer = deferredFileStreamStorage.map();
+        assertTrue(mappedByteBuffer.isReadOnly());
+        assertEquals(5, mappedByteBuffer.remaining());
+        assertEquals(0x01, mappedByteBuffer.get(0));
+        assertEquals(0x05, mappedByteBuffer.get(4));
+
+        MappedByteBuffer slice = deferredFileStreamStorage.map(2, 2);
+        assertEquals(2, slice.remaining());
+        assertEquals(0x03, slice.get());
+        assertEquals(0x04, slice.get());
+        assertEquals(2, deferredFileStreamStorage.mappedByteBuffers.size());
+
+        assertTrue(file.exists());
+        assertTrue(deferredFileStreamStorage.dispose());
+        assertTrue(deferredFileStreamStorage.mappedByteBuffers.isEmpty());
+        assertFalse(file.exists());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMap_memory() throws IOException {
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(new File(tempFolder.getRoot(), "testMap_memory.tmp"), 3);
+        deferredFileStreamStorage.write(new byte[]{0x01, 0x02});
+        deferredFileStreamStorage.close();
+        deferredFileStreamStorage.map();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMap_OutputStreamNotClosed() throws IOException {
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.directToFile(new File(tempFolder.getRoot(), "testMap_OutputStreamNotClosed.tmp"), false);
+        deferredFileStreamStorage.write(new byte[]{0x01, 0x02});
+        deferredFileStreamStorage.map();
+    }
+
     @Test
     public void testGetInputStream_OutputStreamNotClosed() throws IOException {
 
@@ -327,6 +768,211 @@ public class FileStreamStorageTest {
 
     }
 
+    @Test
+    public void testExpectedSize_overThreshold() throws IOException {
+        File file = new File(tempFolder.getRoot(), "testExpectedSize_overThreshold.tmp");
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(file, 3).expectedSize(5);
+        assertFalse(deferredFileStreamStorage.isInMemory());
+        assertTrue(file.exists());
+        assertNull(deferredFileStreamStorage.byteArrayOutputStream);
+
+        deferredFileStreamStorage.write(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05});
+        deferredFileStreamStorage.close();
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05}, IOUtils.toByteArray(deferredFileStreamStorage.getInputStream()));
+        assertTrue(deferredFileStreamStorage.deleteFilesOnDispose().dispose());
+    }
+
+    @Test
+    public void testExpectedSize_underThreshold() throws IOException {
+        File file = new File(tempFolder.getRoot(), "testExpectedSize_underThreshold.tmp");
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(file, 1000).expectedSize(500);
+        assertTrue(deferredFileStreamStorage.isInMemory());
+        assertFalse(file.exists());
+
+        deferredFileStreamStorage.write(new byte[500]);
+        assertEquals(1, deferredFileStreamStorage.byteArrayOutputStream.segmentsCount);
+        assertEquals(500, deferredFileStreamStorage.byteArrayOutputStream.capacity);
+
+        // More data than expected is accepted
+        deferredFileStreamStorage.write(0x01);
+        deferredFileStreamStorage.close();
+        assertEquals(501, IOUtils.toByteArray(deferredFileStreamStorage.getInputStream()).length);
+        assertTrue(deferredFileStreamStorage.dispose());
+    }
+
+    @Test
+    public void testExpectedSize_unknown() throws IOException {
+        File file = new File(tempFolder.getRoot(), "testExpectedSize_unknown.tmp");
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(file, 3).expectedSize(-1);
+        assertTrue(deferredFileStreamStorage.isInMemory());
+        assertFalse(file.exists());
+        assertTrue(deferredFileStreamStorage.dispose());
+    }
+
+    @Test
+    public void testCodec() throws IOException {
+        File file = new File(tempFolder.getRoot(), "testCodec.tmp");
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(file, 100).codec(new DeflateCodec());
+        byte[] data = compressibleData(10000);
+
+        // The in memory data is not encoded
+        deferredFileStreamStorage.write(data, 0, 50);
+        assertTrue(deferredFileStreamStorage.isInMemory());
+        deferredFileStreamStorage.write(data, 50, data.length - 50);
+        assertFalse(deferredFileStreamStorage.isInMemory());
+        deferredFileStreamStorage.close();
+
+        assertTrue(file.length() < data.length / 3);
+        assertArrayEquals(data, IOUtils.toByteArray(deferredFileStreamStorage.getInputStream()));
+        ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+        assertEquals(data.length, deferredFileStreamStorage.transferTo(Channels.newChannel(transferred)));
+        assertArrayEquals(data, transferred.toByteArray());
+        assertTrue(deferredFileStreamStorage.deleteFilesOnDispose().dispose());
+    }
+
+    @Test
+    public void testCodec_allTheWrites() throws IOException {
+        File file = new File(tempFolder.getRoot(), "testCodec_allTheWrites.tmp");
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(file, 3).writeBufferSize(4).codec(DeflateCodec.fast());
+        deferredFileStreamStorage.write(0x01);
+        deferredFileStreamStorage.write(new byte[]{0x02, 0x03});
+        deferredFileStreamStorage.write(new byte[]{0x04, 0x05, 0x06, 0x07, 0x08});
+        deferredFileStreamStorage.write(ByteBuffer.wrap(new byte[]{0x09}));
+        ByteBuffer direct = ByteBuffer.allocateDirect(1);
+        direct.put((byte) 0x0B).flip();
+        deferredFileStreamStorage.write(new ByteBuffer[]{ByteBuffer.wrap(new byte[]{0x0A}), direct}, 0, 2);
+        deferredFileStreamStorage.flush();
+        deferredFileStreamStorage.close();
+
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0A, 0x0B}, IOUtils.toByteArray(deferredFileStreamStorage.getInputStream()));
+        assertTrue(deferredFileStreamStorage.deleteFilesOnDispose().dispose());
+    }
+
+    @Test
+    public void testCodec_spillExecutor() throws IOException {
+        File file = new File(tempFolder.getRoot(), "testCodec_spillExecutor.tmp");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(file, 1000).spillExecutor(executor).codec(new DeflateCodec());
+            byte[] data = compressibleData(5000);
+            for (int i = 0; i < data.length; i += 100){
+                deferredFileStreamStorage.write(data, i, 100);
+            }
+            deferredFileStreamStorage.close();
+
+            assertArrayEquals(data, IOUtils.toByteArray(deferredFileStreamStorage.getInputStream()));
+            assertTrue(deferredFileStreamStorage.deleteFilesOnDispose().dispose());
+        }finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCodec_sharedReadersAndExpectedSize() throws IOException {
+        File file = new File(tempFolder.getRoot(), "testCodec_sharedReadersAndExpectedSize.tmp");
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(file, 3).sharedReaders().codec(new DeflateCodec()).expectedSize(2000);
+        assertFalse(deferredFileStreamStorage.isInMemory());
+        byte[] data = compressibleData(2000);
+        deferredFileStreamStorage.write(data);
+        deferredFileStreamStorage.close();
+
+        InputStream first = deferredFileStreamStorage.getInputStream();
+        InputStream second = deferredFileStreamStorage.getInputStream();
+        assertArrayEquals(data, IOUtils.toByteArray(first));
+        assertArrayEquals(data, IOUtils.toByteArray(second));
+        first.close();
+        second.close();
+        assertTrue(deferredFileStreamStorage.deleteFilesOnDispose().dispose());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testCodec_empty() throws IOException {
+        File file = new File(tempFolder.getRoot(), "testCodec_empty.tmp");
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.directToFile(file, false).codec(new DeflateCodec());
+        deferredFileStreamStorage.close();
+        assertArrayEquals(new byte[0], IOUtils.toByteArray(deferredFileStreamStorage.getInputStream()));
+        assertTrue(deferredFileStreamStorage.deleteFilesOnDispose().dispose());
+    }
+
+    @Test
+    public void testCodec_deleteFilesOnClose() throws IOException {
+        File file = new File(tempFolder.getRoot(), "testCodec_deleteFilesOnClose.tmp");
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.directToFile(file, false).codec(new DeflateCodec()).deleteFilesOnClose();
+        deferredFileStreamStorage.write(new byte[]{0x01, 0x02, 0x03});
+        deferredFileStreamStorage.close();
+        InputStream inputStream = deferredFileStreamStorage.getInputStream();
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03}, IOUtils.toByteArray(inputStream));
+        inputStream.close();
+        assertFalse(file.exists());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCodec_map() throws IOException {
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.directToFile(new File(tempFolder.getRoot(), "testCodec_map.tmp"), false).codec(new DeflateCodec());
+        deferredFileStreamStorage.write(new byte[]{0x01, 0x02, 0x03});
+        deferredFileStreamStorage.close();
+        deferredFileStreamStorage.map();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCodec_tailing() throws IOException {
+        FileStreamStorage.deferred(new File(tempFolder.getRoot(), "testCodec_tailing.tmp"), 3).tailing().codec(new DeflateCodec());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCodec_append() throws IOException {
+        FileStreamStorage.directToFile(new File(tempFolder.getRoot(), "testCodec_append.tmp"), true).codec(new DeflateCodec());
+    }
+
+    @Test
+    public void testDigests() throws Exception {
+        for (int threshold : new int[]{1000, 3}){
+            File file = new File(tempFolder.getRoot(), "testDigests" + threshold + ".tmp");
+            FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(file, threshold).digests("MD5", "SHA-256", "CRC32");
+            deferredFileStreamStorage.write(0x01);
+            deferredFileStreamStorage.write(new byte[]{0x02, 0x03});
+            deferredFileStreamStorage.write(new byte[]{0x00, 0x04, 0x05, 0x00}, 1, 2);
+            deferredFileStreamStorage.write(ByteBuffer.wrap(new byte[]{0x06}));
+            ByteBuffer direct = ByteBuffer.allocateDirect(2);
+            direct.put((byte) 0x08).flip();
+            deferredFileStreamStorage.write(new ByteBuffer[]{ByteBuffer.wrap(new byte[]{0x07}), direct}, 0, 2);
+            deferredFileStreamStorage.close();
+            assertEquals(threshold > 8, deferredFileStreamStorage.isInMemory());
+
+            byte[] data = new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08};
+            assertArrayEquals(data, IOUtils.toByteArray(deferredFileStreamStorage.getInputStream()));
+            assertArrayEquals(MessageDigest.getInstance("MD5").digest(data), deferredFileStreamStorage.getDigest("MD5"));
+            assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(data), deferredFileStreamStorage.getDigest("sha-256"));
+            CRC32 crc32 = new CRC32();
+            crc32.update(data);
+            assertEquals(crc32.getValue(), StorageDigestTest.toLong(deferredFileStreamStorage.getDigest("CRC32")));
+            assertEquals(Arrays.asList("MD5", "SHA-256", "CRC32"), new ArrayList<String>(deferredFileStreamStorage.getDigests().keySet()));
+            assertTrue(deferredFileStreamStorage.deleteFilesOnDispose().dispose());
+        }
+    }
+
+    @Test
+    public void testDigests_none() throws IOException {
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(new File(tempFolder.getRoot(), "testDigests_none.tmp"), 10).digests();
+        deferredFileStreamStorage.write(0x01);
+        deferredFileStreamStorage.close();
+        assertTrue(deferredFileStreamStorage.getDigests().isEmpty());
+        try {
+            deferredFileStreamStorage.getDigest("MD5");
+            fail("Expected an IllegalArgumentException");
+        }catch (IllegalArgumentException e){
+            // Expected
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDigests_beforeClose() throws IOException {
+        FileStreamStorage deferredFileStreamStorage = FileStreamStorage.deferred(new File(tempFolder.getRoot(), "testDigests_beforeClose.tmp"), 10).digests("MD5");
+        deferredFileStreamStorage.write(0x01);
+        deferredFileStreamStorage.getDigest("MD5");
+    }
+
     @Test
     public void testMaxCapacity() throws IOException{
 
@@ -372,4 +1018,11 @@ public class FileStreamStorageTest {
         deferredFileStreamStorage.write(new byte[]{0x01, 0x02, 0x03, 0x4, 0x5});
     }
 
-}
\ No newline at end of file
+    static byte[] compressibleData(final int size){
+        final StringBuilder csv = new StringBuilder(size + 32);
+        for (int i = 0; csv.length() < size; i++){
+            csv.append(i).append(",name-").append(i % 10).append(",value\n");
+        }
+        return csv.substring(0, size).getBytes();
+    }
+}
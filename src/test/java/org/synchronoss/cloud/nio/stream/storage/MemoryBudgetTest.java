@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p> Unit tests for {@link MemoryBudget}
+ *
+ * @author Silvano Riz
+ */
+public class MemoryBudgetTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private FileStreamStorage newStorage(final String name, final MemoryBudget memoryBudget){
+        return FileStreamStorage.deferred(new File(tempFolder.getRoot(), name), 10000).deleteFilesOnDispose().memoryBudget(memoryBudget);
+    }
+
+    @Test
+    public void testReserveAndRelease() throws IOException {
+        MemoryBudget memoryBudget = new MemoryBudget(1024);
+        FileStreamStorage storage = newStorage("testReserveAndRelease.tmp", memoryBudget);
+
+        storage.write(new byte[300]);
+        // Segments of 256 and 512 bytes
+        assertEquals(768, memoryBudget.getUsedMemory());
+        assertEquals(768, storage.reservedMemory);
+        assertEquals(1, memoryBudget.getStoragesCount());
+
+        storage.close();
+        assertEquals(768, memoryBudget.getUsedMemory());
+
+        assertTrue(storage.dispose());
+        assertEquals(0, memoryBudget.getUsedMemory());
+        assertEquals(0, memoryBudget.getStoragesCount());
+    }
+
+    @Test
+    public void testRelease_storageStillHoldingMemory() throws IOException {
+        MemoryBudget memoryBudget = new MemoryBudget(1024);
+        FileStreamStorage storage = newStorage("testRelease_storageStillHoldingMemory.tmp", memoryBudget);
+
+        storage.write(new byte[300]);
+        // Memory reserved for a backlog, as during a flush in background
+        assertTrue(memoryBudget.reserve(storage, 100));
+        storage.reservedBacklogMemory = 100;
+        assertEquals(868, memoryBudget.getUsedMemory());
+
+        storage.releaseBacklogMemory();
+        assertEquals(768, memoryBudget.getUsedMemory());
+        // The storage still holds the memory of its in memory data, so it can still be asked to flush it
+        assertEquals(1, memoryBudget.getStoragesCount());
+
+        assertTrue(storage.dispose());
+        assertEquals(0, memoryBudget.getUsedMemory());
+        assertEquals(0, memoryBudget.getStoragesCount());
+    }
+
+    @Test
+    public void testBudgetExceeded() throws IOException {
+        MemoryBudget memoryBudget = new MemoryBudget(1024);
+        FileStreamStorage largest = newStorage("testBudgetExceeded_largest.tmp", memoryBudget);
+        FileStreamStorage smallest = newStorage("testBudgetExceeded_smallest.tmp", memoryBudget);
+        FileStreamStorage requester = newStorage("testBudgetExceeded_requester.tmp", memoryBudget);
+
+        largest.write(new byte[300]);
+        smallest.write(new byte[10]);
+        assertEquals(1024, memoryBudget.getUsedMemory());
+
+        // No memory left, the requester goes to disk and the largest storage is asked to do the same
+        requester.write(new byte[]{0x01, 0x02});
+        assertFalse(requester.isInMemory());
+        assertTrue(largest.spillRequested);
+        assertFalse(smallest.spillRequested);
+
+        // The largest storage switches to file at the next write, even if below the threshold, and gives the memory back.
+        assertTrue(largest.isInMemory());
+        largest.write(0x01);
+        assertFalse(largest.isInMemory());
+        assertEquals(256, memoryBudget.getUsedMemory());
+        largest.close();
+        assertEquals(301, largest.getFile().length());
+
+        // Now there is room again
+        smallest.write(new byte[500]);
+        assertTrue(smallest.isInMemory());
+        smallest.close();
+        assertArrayEquals(new byte[510], IOUtils.toByteArray(smallest.getInputStream()));
+
+        largest.dispose();
+        smallest.dispose();
+        requester.dispose();
+        assertEquals(0, memoryBudget.getUsedMemory());
+    }
+
+    @Test
+    public void testFactory() {
+        DeferredFileStreamStorageFactory factory = new DeferredFileStreamStorageFactory(tempFolder.getRoot().getAbsolutePath(), 100);
+        factory.setMaxMemory(2048);
+        assertEquals(2048, factory.getMemoryBudget().getMaxMemory());
+        FileStreamStorage storage = (FileStreamStorage) factory.create();
+        assertSame(factory.getMemoryBudget(), storage.memoryBudget);
+
+        MemoryBudget shared = new MemoryBudget(4096);
+        factory.setMemoryBudget(shared);
+        assertSame(shared, factory.getMemoryBudget());
+
+        factory.setMaxMemory(-1);
+        assertEquals(null, ((FileStreamStorage) factory.create()).memoryBudget);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_invalidMaxMemory() {
+        new MemoryBudget(-1);
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p> Unit tests for {@link OrphanFileReaper} and for the sweep of the orphan files of {@link DeferredFileStreamStorageFactory}
+ *
+ * @author Silvano Riz
+ */
+public class OrphanFileReaperTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static void writeAndForget(final File file) throws IOException {
+        FileStreamStorage storage = FileStreamStorage.deferred(file, 2).reclaimOrphanFile();
+        storage.write(new byte[]{0x01, 0x02, 0x03});
+        storage.close();
+    }
+
+    private static File newFile(final File folder, final String name, final long lastModified) throws IOException {
+        folder.mkdirs();
+        File file = new File(folder, name);
+        new FileOutputStream(file).close();
+        assertTrue(file.setLastModified(lastModified));
+        return file;
+    }
+
+    @Test
+    public void testReap_storageNotDisposed() throws Exception {
+        File file = new File(tempFolder.getRoot(), "testReap_storageNotDisposed.tmp");
+        writeAndForget(file);
+        assertTrue(file.exists());
+
+        for (int i = 0; i < 100 && file.exists(); i++){
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testReap_storageDisposed() throws Exception {
+        File file = new File(tempFolder.getRoot(), "testReap_storageDisposed.tmp");
+        FileStreamStorage storage = FileStreamStorage.deferred(file, 2).reclaimOrphanFile();
+        OrphanFileReaper.FileReference fileReference = storage.orphanFileReference;
+        assertTrue(OrphanFileReaper.references.contains(fileReference));
+        storage.write(new byte[]{0x01, 0x02, 0x03});
+        storage.close();
+        assertFalse(storage.dispose());
+        assertNull(storage.orphanFileReference);
+        assertFalse(OrphanFileReaper.references.contains(fileReference));
+
+        // The file of a disposed storage is not reaped
+        fileReference.reap();
+        assertTrue(file.exists());
+    }
+
+    @Test
+    public void testSweepOrphanFiles() throws IOException {
+        DeferredFileStreamStorageFactory factory = new DeferredFileStreamStorageFactory(tempFolder.getRoot().getAbsolutePath(), 10);
+        long old = System.currentTimeMillis() - 3600000;
+        for (int i = 0; i < 600; i++){
+            newFile(tempFolder.getRoot(), "stream-object-old-" + i + ".tmp", old);
+        }
+        File oldSharded = newFile(new File(tempFolder.getRoot(), "0a/ff"), "stream-object-old-sharded.tmp", old);
+        File oldSegment = newFile(tempFolder.getRoot(), "stream-object-old-segment.tmp.0", old);
+        File recent = newFile(tempFolder.getRoot(), "stream-object-recent.tmp", System.currentTimeMillis());
+        File other = newFile(tempFolder.getRoot(), "other.tmp", old);
+        File otherFolder = newFile(new File(tempFolder.getRoot(), "other"), "stream-object-old.tmp", old);
+
+        assertEquals(602, factory.sweepOrphanFiles(60000, 4));
+        assertFalse(oldSharded.exists());
+        assertFalse(oldSegment.exists());
+        assertTrue(recent.exists());
+        assertTrue(other.exists());
+        assertTrue(otherFolder.exists());
+
+        assertEquals(1, factory.sweepOrphanFiles(0, 1));
+        assertFalse(recent.exists());
+    }
+
+    @Test
+    public void testScheduleOrphanFilesSweep() throws Exception {
+        DeferredFileStreamStorageFactory factory = new DeferredFileStreamStorageFactory(tempFolder.getRoot().getAbsolutePath(), 10);
+        File file = newFile(tempFolder.getRoot(), "stream-object-old.tmp", System.currentTimeMillis() - 3600000);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            ScheduledFuture<?> sweep = factory.scheduleOrphanFilesSweep(scheduler, 60000, 10);
+            for (int i = 0; i < 100 && file.exists(); i++){
+                Thread.sleep(10);
+            }
+            assertFalse(file.exists());
+            sweep.cancel(false);
+        }finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testCreateWithReclaimOrphanFiles() {
+        DeferredFileStreamStorageFactory factory = new DeferredFileStreamStorageFactory(tempFolder.getRoot().getAbsolutePath(), 10);
+        factory.setReclaimOrphanFiles(true);
+        FileStreamStorage storage = (FileStreamStorage) factory.create();
+        assertTrue(OrphanFileReaper.references.contains(storage.orphanFileReference));
+        storage.dispose();
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * <p> Unit tests for {@link PositionalFileStreamStorage}
+ *
+ * @author Silvano Riz
+ */
+public class PositionalFileStreamStorageTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static byte[] bytes(final int length){
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++){
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testWrite_parallelRanges() throws Exception {
+        final byte[] data = bytes(100000);
+        final int rangeSize = 1000;
+        File file = new File(tempFolder.getRoot(), "testWrite_parallelRanges.tmp");
+        final PositionalFileStreamStorage storage = new PositionalFileStreamStorage(file, data.length);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            // Ranges are submitted in reverse order
+            for (int position = data.length - rangeSize; position >= 0; position -= rangeSize) {
+                final int rangePosition = position;
+                futures.add(executorService.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return storage.write(rangePosition, ByteBuffer.wrap(data, rangePosition, rangeSize));
+                    }
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                assertEquals(rangeSize, (int) future.get());
+            }
+        }finally {
+            executorService.shutdown();
+        }
+
+        assertTrue(storage.isComplete());
+        assertEquals(data.length, storage.getReceivedBytes());
+        storage.close();
+        assertFalse(storage.isOpen());
+        assertArrayEquals(data, IOUtils.toByteArray(storage.getInputStream()));
+
+        ByteArrayOutputStream destination = new ByteArrayOutputStream();
+        assertEquals(data.length, storage.transferTo(destination));
+        assertArrayEquals(data, destination.toByteArray());
+    }
+
+    @Test
+    public void testClose_incomplete() throws IOException {
+        File file = new File(tempFolder.getRoot(), "testClose_incomplete.tmp");
+        PositionalFileStreamStorage storage = new PositionalFileStreamStorage(file, 10);
+        storage.write(0, ByteBuffer.wrap(bytes(4)));
+        storage.write(6, ByteBuffer.wrap(bytes(10), 6, 4));
+        assertFalse(storage.isComplete());
+        try {
+            storage.close();
+            fail("The data is not complete");
+        }catch (IllegalStateException e){
+            assertEquals("The data is not complete. Expected size: 10, received ranges: [[0, 4), [6, 10)]", e.getMessage());
+        }
+
+        // Still writable
+        assertTrue(storage.isOpen());
+        storage.write(4, ByteBuffer.wrap(bytes(10), 4, 2));
+        storage.close();
+        assertArrayEquals(bytes(10), IOUtils.toByteArray(storage.getInputStream()));
+    }
+
+    @Test
+    public void testClose_unknownSize() throws IOException {
+        File file = new File(tempFolder.getRoot(), "testClose_unknownSize.tmp");
+        PositionalFileStreamStorage storage = new PositionalFileStreamStorage(file);
+        storage.write(5, ByteBuffer.wrap(bytes(10), 5, 5));
+        assertFalse(storage.isComplete());
+        storage.write(0, ByteBuffer.wrap(bytes(10), 0, 5));
+        assertTrue(storage.isComplete());
+        storage.close();
+        assertEquals(10, file.length());
+    }
+
+    @Test
+    public void testWrite_outputStream() throws Exception {
+        File file = new File(tempFolder.getRoot(), "testWrite_outputStream.tmp");
+        final PositionalFileStreamStorage storage = new PositionalFileStreamStorage(file);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int j = 0; j < 100; j++) {
+                            storage.write(new byte[]{0x01, 0x02, 0x03});
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }finally {
+            executorService.shutdown();
+        }
+        storage.write(0x04);
+        storage.close();
+
+        // Writes are not interleaved
+        byte[] stored = IOUtils.toByteArray(storage.getInputStream());
+        assertEquals(1201, stored.length);
+        for (int i = 0; i < 1200; i += 3){
+            assertArrayEquals(new byte[]{0x01, 0x02, 0x03}, new byte[]{stored[i], stored[i + 1], stored[i + 2]});
+        }
+        assertEquals(0x04, stored[1200]);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWrite_beyondExpectedSize() throws IOException {
+        PositionalFileStreamStorage storage = new PositionalFileStreamStorage(new File(tempFolder.getRoot(), "testWrite_beyondExpectedSize.tmp"), 10);
+        storage.write(8, ByteBuffer.wrap(bytes(3)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWrite_maxCapacity() throws IOException {
+        PositionalFileStreamStorage storage = new PositionalFileStreamStorage(new File(tempFolder.getRoot(), "testWrite_maxCapacity.tmp")).maxCapacity(10);
+        storage.write(8, ByteBuffer.wrap(bytes(3)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetInputStream_notClosed() throws IOException {
+        PositionalFileStreamStorage storage = new PositionalFileStreamStorage(new File(tempFolder.getRoot(), "testGetInputStream_notClosed.tmp"));
+        storage.getInputStream();
+    }
+
+    @Test
+    public void testDispose() throws IOException {
+        File file = new File(tempFolder.getRoot(), "testDispose.tmp");
+        PositionalFileStreamStorage storage = new PositionalFileStreamStorage(file, 10).deleteFilesOnDispose();
+        storage.write(0, ByteBuffer.wrap(bytes(3)));
+        assertTrue(storage.dispose());
+        assertFalse(file.exists());
+        try {
+            storage.write(3, ByteBuffer.wrap(bytes(3)));
+            fail("The storage has been disposed");
+        }catch (IllegalStateException e){
+            // Expected
+        }
+    }
+
+}
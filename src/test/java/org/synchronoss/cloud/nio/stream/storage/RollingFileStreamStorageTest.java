@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p> Unit tests for {@link RollingFileStreamStorage}
+ *
+ * @author Silvano Riz
+ */
+public class RollingFileStreamStorageTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static byte[] bytes(final int length){
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++){
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    private RollingFileStreamStorage newStorage(final String name, final byte[] data) throws IOException {
+        RollingFileStreamStorage storage = new RollingFileStreamStorage(new File(tempFolder.getRoot(), name), 10);
+        storage.write(data[0]);
+        storage.write(data, 1, 14);
+        storage.write(Arrays.copyOfRange(data, 15, data.length));
+        storage.close();
+        return storage;
+    }
+
+    @Test
+    public void testWrite_rollOver() throws IOException {
+        byte[] data = bytes(25);
+        RollingFileStreamStorage storage = newStorage("testWrite_rollOver.tmp", data);
+
+        List<File> segments = storage.getSegmentFiles();
+        assertEquals(3, storage.getSegmentsCount());
+        assertEquals(new File(tempFolder.getRoot(), "testWrite_rollOver.tmp.0"), segments.get(0));
+        assertEquals(new File(tempFolder.getRoot(), "testWrite_rollOver.tmp.2"), segments.get(2));
+        assertEquals(10, segments.get(0).length());
+        assertEquals(10, segments.get(1).length());
+        assertEquals(5, segments.get(2).length());
+        assertFalse(new File(tempFolder.getRoot(), "testWrite_rollOver.tmp").exists());
+
+        assertArrayEquals(data, IOUtils.toByteArray(storage.getInputStream()));
+        // Repeatable
+        assertArrayEquals(data, IOUtils.toByteArray(storage.getInputStream()));
+    }
+
+    @Test
+    public void testGetSegmentInputStream() throws IOException {
+        byte[] data = bytes(25);
+        RollingFileStreamStorage storage = newStorage("testGetSegmentInputStream.tmp", data);
+
+        InputStream second = storage.getSegmentInputStream(1);
+        InputStream first = storage.getSegmentInputStream(0);
+        assertArrayEquals(Arrays.copyOfRange(data, 10, 20), IOUtils.toByteArray(second));
+        assertArrayEquals(Arrays.copyOfRange(data, 0, 10), IOUtils.toByteArray(first));
+        second.close();
+        first.close();
+    }
+
+    @Test
+    public void testGetInputStream_deleteSegmentsOnceRead() throws IOException {
+        byte[] data = bytes(25);
+        RollingFileStreamStorage storage = newStorage("testGetInputStream_deleteSegmentsOnceRead.tmp", data).deleteFilesOnClose();
+        List<File> segments = storage.getSegmentFiles();
+
+        InputStream inputStream = storage.getInputStream();
+        byte[] read = new byte[10];
+        assertEquals(10, inputStream.read(read));
+        assertTrue(segments.get(0).exists());
+        // Crossing into the second segment deletes the first one
+        assertEquals(0x0A, inputStream.read());
+        assertFalse(segments.get(0).exists());
+        assertTrue(segments.get(1).exists());
+
+        // Skipping stays within the segments
+        assertEquals(12, inputStream.skip(12));
+        assertFalse(segments.get(1).exists());
+        assertEquals(23, inputStream.read());
+
+        inputStream.close();
+        assertFalse(segments.get(2).exists());
+        assertTrue(storage.dispose());
+    }
+
+    @Test
+    public void testTransferTo() throws IOException {
+        byte[] data = bytes(25);
+        RollingFileStreamStorage storage = newStorage("testTransferTo.tmp", data).deleteFilesOnClose();
+
+        ByteArrayOutputStream destination = new ByteArrayOutputStream();
+        assertEquals(25, storage.transferTo(destination));
+        assertArrayEquals(data, destination.toByteArray());
+        for (File segment : storage.getSegmentFiles()){
+            assertFalse(segment.exists());
+        }
+    }
+
+    @Test
+    public void testDispose() throws IOException {
+        RollingFileStreamStorage storage = new RollingFileStreamStorage(new File(tempFolder.getRoot(), "testDispose.tmp"), 10).deleteFilesOnDispose();
+        storage.write(bytes(15));
+        assertTrue(storage.dispose());
+        assertFalse(storage.getSegmentFiles().get(0).exists());
+        assertFalse(storage.getSegmentFiles().get(1).exists());
+    }
+
+    @Test
+    public void testDispose_keepFiles() throws IOException {
+        RollingFileStreamStorage storage = new RollingFileStreamStorage(new File(tempFolder.getRoot(), "testDispose_keepFiles.tmp"), 10);
+        storage.write(bytes(5));
+        assertFalse(storage.dispose());
+        assertTrue(storage.getSegmentFiles().get(0).exists());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMaxCapacity_exceed() throws IOException {
+        RollingFileStreamStorage storage = new RollingFileStreamStorage(new File(tempFolder.getRoot(), "testMaxCapacity_exceed.tmp"), 10).maxCapacity(12);
+        storage.write(bytes(12));
+        storage.write(0x01);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetInputStream_notClosed() throws IOException {
+        RollingFileStreamStorage storage = new RollingFileStreamStorage(new File(tempFolder.getRoot(), "testGetInputStream_notClosed.tmp"), 10);
+        storage.write(0x01);
+        storage.getInputStream();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_wrongSegmentSize() {
+        new RollingFileStreamStorage(new File(tempFolder.getRoot(), "testConstructor_wrongSegmentSize.tmp"), 0);
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p> Unit tests for {@link SegmentedByteArrayInputStream}
+ *
+ * @author Silvano Riz
+ */
+public class SegmentedByteArrayInputStreamTest {
+
+    private static SegmentedByteArrayOutputStream newOutputStream(final int length){
+        // Segments of 2, 4 and then 4 bytes
+        SegmentedByteArrayOutputStream outputStream = new SegmentedByteArrayOutputStream(2, 4, -1);
+        for (int i = 0; i < length; i++){
+            outputStream.write(i);
+        }
+        return outputStream;
+    }
+
+    @Test
+    public void testRead() {
+        SegmentedByteArrayInputStream inputStream = newOutputStream(10).toInputStream();
+        for (int i = 0; i < 10; i++){
+            assertEquals(10 - i, inputStream.available());
+            assertEquals(i, inputStream.read());
+        }
+        assertEquals(-1, inputStream.read());
+        assertEquals(0, inputStream.available());
+    }
+
+    @Test
+    public void testReadWithByteArray() {
+        SegmentedByteArrayInputStream inputStream = newOutputStream(10).toInputStream();
+        byte[] buffer = new byte[12];
+        assertEquals(3, inputStream.read(buffer, 1, 3));
+        assertEquals(7, inputStream.read(buffer, 4, 8));
+        assertEquals(-1, inputStream.read(buffer, 0, 1));
+        assertEquals(0, inputStream.read(buffer, 0, 0));
+        assertArrayEquals(new byte[]{0, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 0}, buffer);
+    }
+
+    @Test
+    public void testEmpty() {
+        SegmentedByteArrayInputStream inputStream = new SegmentedByteArrayOutputStream().toInputStream();
+        assertEquals(-1, inputStream.read());
+        assertEquals(-1, inputStream.read(new byte[1], 0, 1));
+        assertEquals(0, inputStream.skip(1));
+        assertEquals(0, inputStream.asByteBuffers().length);
+    }
+
+    @Test
+    public void testRepeatable() throws IOException {
+        SegmentedByteArrayOutputStream outputStream = newOutputStream(10);
+        assertArrayEquals(outputStream.toByteArray(), IOUtils.toByteArray(outputStream.toInputStream()));
+        assertArrayEquals(outputStream.toByteArray(), IOUtils.toByteArray(outputStream.toInputStream()));
+    }
+
+    @Test
+    public void testSkipMarkAndReset() {
+        SegmentedByteArrayInputStream inputStream = newOutputStream(10).toInputStream();
+        assertTrue(inputStream.markSupported());
+        assertEquals(0, inputStream.skip(-1));
+        assertEquals(6, inputStream.skip(6));
+        inputStream.mark(0);
+        assertEquals(6, inputStream.read());
+        assertEquals(3, inputStream.skip(100));
+        assertEquals(-1, inputStream.read());
+        inputStream.reset();
+        assertEquals(6, inputStream.read());
+    }
+
+    @Test
+    public void testAsByteBuffers() {
+        SegmentedByteArrayInputStream inputStream = newOutputStream(9).toInputStream();
+        assertEquals(1, inputStream.skip(1));
+
+        ByteBuffer[] byteBuffers = inputStream.asByteBuffers();
+        assertEquals(3, byteBuffers.length);
+        assertEquals(1, byteBuffers[0].remaining());
+        assertEquals(4, byteBuffers[1].remaining());
+        assertEquals(3, byteBuffers[2].remaining());
+        assertTrue(byteBuffers[0].isReadOnly());
+        assertEquals(1, byteBuffers[0].get());
+        assertEquals(8, byteBuffers[2].get(2));
+
+        // The views don't move the stream. After this read the position is at the end of the first segment
+        assertEquals(1, inputStream.read());
+
+        byteBuffers = inputStream.asByteBuffers();
+        assertEquals(2, byteBuffers.length);
+        assertEquals(2, byteBuffers[0].get());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testRead_outOfBounds() {
+        newOutputStream(10).toInputStream().read(new byte[2], 1, 2);
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * <p> Unit tests for {@link SegmentedByteArrayOutputStream}
+ *
+ * @author Silvano Riz
+ */
+public class SegmentedByteArrayOutputStreamTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_invalidInitialSegmentSize() {
+        new SegmentedByteArrayOutputStream(0, 10, -1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_maxSmallerThanInitial() {
+        new SegmentedByteArrayOutputStream(10, 5, -1);
+    }
+
+    @Test
+    public void testWriteWithInts() {
+        SegmentedByteArrayOutputStream outputStream = new SegmentedByteArrayOutputStream(2, 4, -1);
+        for (int i = 0; i < 10; i++){
+            outputStream.write(i);
+        }
+        assertEquals(10, outputStream.size());
+        // 2 + 4 + 4
+        assertEquals(3, outputStream.segmentsCount);
+        assertEquals(10, outputStream.capacity());
+        assertArrayEquals(new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9}, outputStream.toByteArray());
+    }
+
+    @Test
+    public void testWriteWithByteArray() {
+        SegmentedByteArrayOutputStream outputStream = new SegmentedByteArrayOutputStream(2, 8, -1);
+        outputStream.write(new byte[]{0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x00}, 1, 5);
+        outputStream.write(new byte[]{0x06, 0x07, 0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F}, 0, 10);
+        assertEquals(15, outputStream.size());
+        // 2 + 4 + 8 + 8
+        assertEquals(4, outputStream.segmentsCount);
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15}, outputStream.toByteArray());
+    }
+
+    @Test
+    public void testSegmentsAreNotCopied() {
+        SegmentedByteArrayOutputStream outputStream = new SegmentedByteArrayOutputStream(2, 2, -1);
+        outputStream.write(new byte[]{0x01, 0x02}, 0, 2);
+        byte[] firstSegment = outputStream.segments[0];
+        for (int i = 0; i < 100; i++){
+            outputStream.write(i);
+        }
+        assertSame(firstSegment, outputStream.segments[0]);
+    }
+
+    @Test
+    public void testCapacityLimit() {
+        SegmentedByteArrayOutputStream outputStream = new SegmentedByteArrayOutputStream(4, 16, 10);
+        outputStream.write(new byte[10], 0, 10);
+        assertEquals(10, outputStream.capacity());
+
+        // Writing past the limit is allowed
+        outputStream.write(0x01);
+        assertEquals(11, outputStream.size());
+    }
+
+    @Test
+    public void testCapacityIncrease() {
+        SegmentedByteArrayOutputStream outputStream = new SegmentedByteArrayOutputStream(2, 8, 20);
+        assertEquals(0, outputStream.capacityIncrease(0));
+        // 2 + 4
+        assertEquals(6, outputStream.capacityIncrease(5));
+        outputStream.write(new byte[5], 0, 5);
+        assertEquals(6, outputStream.capacity());
+        assertEquals(0, outputStream.capacityIncrease(1));
+        // 8 + 6 (limited by the capacity limit) + 8 + 8
+        assertEquals(30, outputStream.capacityIncrease(27));
+        outputStream.write(new byte[27], 0, 27);
+        assertEquals(36, outputStream.capacity());
+    }
+
+    @Test
+    public void testWriteTo() throws IOException {
+        SegmentedByteArrayOutputStream outputStream = new SegmentedByteArrayOutputStream(1, 2, -1);
+        outputStream.write(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06}, 0, 6);
+        ByteArrayOutputStream destination = new ByteArrayOutputStream();
+        outputStream.writeTo(destination);
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06}, destination.toByteArray());
+    }
+
+    @Test
+    public void testReset() {
+        SegmentedByteArrayOutputStream outputStream = new SegmentedByteArrayOutputStream();
+        outputStream.write(new byte[]{0x01, 0x02, 0x03}, 0, 3);
+        outputStream.reset();
+        assertEquals(0, outputStream.size());
+        assertEquals(0, outputStream.capacity());
+        assertArrayEquals(new byte[0], outputStream.toByteArray());
+        outputStream.write(0x04);
+        assertArrayEquals(new byte[]{0x04}, outputStream.toByteArray());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testWrite_outOfBounds() {
+        new SegmentedByteArrayOutputStream().write(new byte[3], 2, 2);
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * <p> Unit tests for {@link SharedFileChannelInputStream} and {@link SharedFileChannel}
+ *
+ * @author Silvano Riz
+ */
+public class SharedFileChannelInputStreamTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static FileStreamStorage newStorage(final File file) throws IOException {
+        FileStreamStorage storage = FileStreamStorage.deferred(file, 2).sharedReaders();
+        storage.write(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05});
+        return storage;
+    }
+
+    @Test
+    public void testRead_readersShareTheChannel() throws IOException {
+        File file = new File(tempFolder.getRoot(), "testRead_readersShareTheChannel.tmp");
+        FileStreamStorage storage = newStorage(file);
+        storage.close();
+
+        SharedFileChannelInputStream inputStream1 = (SharedFileChannelInputStream) storage.getInputStream();
+        SharedFileChannelInputStream inputStream2 = (SharedFileChannelInputStream) storage.getInputStream();
+        assertSame(inputStream1.fileChannel, inputStream2.fileChannel);
+        assertEquals(2, storage.sharedFileChannel.references());
+
+        assertEquals(0x01, inputStream1.read());
+        assertEquals(3, inputStream2.skip(3));
+        assertEquals(0x04, inputStream2.read());
+        assertEquals(4, inputStream1.available());
+        assertArrayEquals(new byte[]{0x02, 0x03, 0x04, 0x05}, IOUtils.toByteArray(inputStream1));
+        assertEquals(-1, inputStream1.read());
+
+        inputStream1.close();
+        inputStream1.close();
+        assertEquals(1, storage.sharedFileChannel.references());
+        assertTrue(inputStream2.fileChannel.isOpen());
+        assertArrayEquals(new byte[]{0x05}, IOUtils.toByteArray(inputStream2));
+
+        inputStream2.close();
+        assertEquals(0, storage.sharedFileChannel.references());
+        assertFalse(inputStream2.fileChannel.isOpen());
+        assertNull(storage.sharedFileChannel.fileChannel);
+
+        // A new reader opens the channel again
+        InputStream inputStream3 = storage.getInputStream();
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05}, IOUtils.toByteArray(inputStream3));
+        inputStream3.close();
+        assertFalse(storage.dispose());
+        assertTrue(file.exists());
+    }
+
+    @Test
+    public void testMarkAndReset() throws IOException {
+        File file = new File(tempFolder.getRoot(), "testMarkAndReset.tmp");
+        FileStreamStorage storage = newStorage(file);
+        storage.close();
+
+        InputStream inputStream = storage.getInputStream();
+        assertTrue(inputStream.markSupported());
+        assertEquals(0x01, inputStream.read());
+        inputStream.mark(10);
+        assertEquals(0x02, inputStream.read());
+        inputStream.reset();
+        assertEquals(0x02, inputStream.read());
+        inputStream.close();
+        try {
+            inputStream.read();
+            fail("The stream is closed");
+        }catch (IOException e){
+            assertEquals("Stream closed", e.getMessage());
+        }
+        storage.dispose();
+    }
+
+    @Test
+    public void testClose_deleteFilesOnClose() throws IOException {
+        File file = new File(tempFolder.getRoot(), "testClose_deleteFilesOnClose.tmp");
+        FileStreamStorage storage = newStorage(file).deleteFilesOnClose();
+        storage.close();
+
+        InputStream inputStream1 = storage.getInputStream();
+        InputStream inputStream2 = storage.getInputStream();
+
+        // The first reader to finish does not delete the file from under the other one
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05}, IOUtils.toByteArray(inputStream1));
+        inputStream1.close();
+        assertTrue(file.exists());
+
+        assertTrue(storage.dispose());
+        assertTrue(file.exists());
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05}, IOUtils.toByteArray(inputStream2));
+        inputStream2.close();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testDispose_noReaders() throws IOException {
+        File file = new File(tempFolder.getRoot(), "testDispose_noReaders.tmp");
+        FileStreamStorage storage = newStorage(file).deleteFilesOnDispose();
+        storage.close();
+        InputStream inputStream = storage.getInputStream();
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05}, IOUtils.toByteArray(inputStream));
+        inputStream.close();
+
+        assertTrue(storage.dispose());
+        assertFalse(file.exists());
+        try {
+            storage.sharedFileChannel.acquire();
+            fail("The storage has been disposed");
+        }catch (IOException e){
+            assertEquals("The storage has been disposed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testDispose_keepFiles() throws IOException {
+        File file = new File(tempFolder.getRoot(), "testDispose_keepFiles.tmp");
+        FileStreamStorage storage = newStorage(file);
+        storage.close();
+        InputStream inputStream = storage.getInputStream();
+
+        assertFalse(storage.dispose());
+        inputStream.close();
+        assertTrue(file.exists());
+    }
+
+    @Test
+    public void testTransferTo_andMap() throws IOException {
+        File file = new File(tempFolder.getRoot(), "testTransferTo_andMap.tmp");
+        FileStreamStorage storage = newStorage(file).deleteFilesOnClose();
+        storage.close();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertEquals(5, storage.transferTo(Channels.newChannel(outputStream)));
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05}, outputStream.toByteArray());
+        assertEquals(5, storage.map().remaining());
+        assertEquals(0, storage.sharedFileChannel.references());
+        assertTrue(file.exists());
+
+        assertTrue(storage.dispose());
+        assertFalse(file.exists());
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * <p> Unit tests for {@link StorageDigest}
+ *
+ * @author Silvano Riz
+ */
+public class StorageDigestTest {
+
+    static final byte[] DATA = "The quick brown fox jumps over the lazy dog".getBytes();
+
+    @Test
+    public void testMessageDigest() throws NoSuchAlgorithmException {
+        StorageDigest storageDigest = StorageDigest.newDigest("SHA-256");
+        assertEquals("SHA-256", storageDigest.algorithm);
+        update(storageDigest);
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(DATA), storageDigest.digest());
+    }
+
+    @Test
+    public void testChecksum() {
+        StorageDigest crc32 = StorageDigest.newDigest("crc32");
+        update(crc32);
+        assertArrayEquals(new byte[]{0x41, 0x4F, (byte) 0xA3, 0x39}, crc32.digest());
+
+        StorageDigest adler32 = StorageDigest.newDigest("Adler32");
+        update(adler32);
+        Adler32 expected = new Adler32();
+        expected.update(DATA, 0, DATA.length);
+        assertEquals(expected.getValue(), toLong(adler32.digest()));
+    }
+
+    @Test
+    public void testUpdate_directBuffer() {
+        StorageDigest crc32 = StorageDigest.newDigest("CRC32");
+        ByteBuffer direct = ByteBuffer.allocateDirect(20000);
+        for (int i = 0; i < direct.capacity(); i++){
+            direct.put((byte) i);
+        }
+        direct.flip();
+        crc32.update(direct);
+        // The position of the buffer is not changed
+        assertEquals(0, direct.position());
+
+        CRC32 expected = new CRC32();
+        byte[] bytes = new byte[direct.capacity()];
+        direct.get(bytes);
+        expected.update(bytes);
+        assertEquals(expected.getValue(), toLong(crc32.digest()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNewDigest_unknown() {
+        StorageDigest.newDigest("SHA-1024");
+    }
+
+    static void update(StorageDigest storageDigest){
+        storageDigest.update(DATA[0]);
+        storageDigest.update(DATA, 1, 10);
+        ByteBuffer heap = ByteBuffer.wrap(DATA, 11, DATA.length - 11).slice();
+        storageDigest.update(heap);
+        assertEquals(0, heap.position());
+    }
+
+    static long toLong(byte[] value){
+        return ((value[0] & 0xFFL) << 24) | ((value[1] & 0xFFL) << 16) | ((value[2] & 0xFFL) << 8) | (value[3] & 0xFFL);
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p> Unit tests for {@link StreamStorageMetrics}
+ *
+ * @author Silvano Riz
+ */
+public class StreamStorageMetricsTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testStorageInMemory() throws IOException {
+        StreamStorageMetrics metrics = new StreamStorageMetrics();
+        FileStreamStorage storage = FileStreamStorage.deferred(new File(tempFolder.getRoot(), "testStorageInMemory.tmp"), 1000).listener(metrics);
+        assertEquals(1, metrics.getStoragesCreated());
+        assertEquals(1, metrics.getLiveStorages());
+
+        storage.write(new byte[100]);
+        assertEquals(storage.byteArrayOutputStream.capacity, metrics.getMemoryBytes());
+        assertTrue(metrics.getMemoryBytes() >= 100);
+        storage.close();
+        assertEquals(1, metrics.getStoragesClosedInMemory());
+        assertEquals(0, metrics.getStoragesClosedOnDisk());
+        assertEquals(0, metrics.getSpills());
+
+        storage.dispose();
+        storage.dispose();
+        assertEquals(0, metrics.getMemoryBytes());
+        assertEquals(1, metrics.getStoragesDisposed());
+        assertEquals(0, metrics.getLiveStorages());
+    }
+
+    @Test
+    public void testStorageOnDisk() throws IOException {
+        StreamStorageMetrics metrics = new StreamStorageMetrics(tempFolder.getRoot());
+        FileStreamStorage storage = FileStreamStorage.deferred(new File(tempFolder.getRoot(), "testStorageOnDisk.tmp"), 100).listener(metrics);
+        storage.write(new byte[60]);
+        storage.write(new byte[60]);
+        assertEquals(0, metrics.getMemoryBytes());
+        assertEquals(1, metrics.getSpills());
+        assertEquals(60, metrics.getSpilledBytes());
+        assertEquals(metrics.getSpillTimeMaxMicros(), metrics.getSpillTimeTotalMicros());
+
+        storage.close();
+        assertEquals(1, metrics.getStoragesClosedOnDisk());
+        assertEquals(120, metrics.getDiskBytes());
+        assertTrue(metrics.getUsableDiskSpace() > 0);
+
+        storage.dispose();
+        assertEquals(0, metrics.getDiskBytes());
+        assertEquals(0, metrics.getLiveStorages());
+    }
+
+    @Test
+    public void testStorageOnDisk_backgroundSpill() throws IOException {
+        StreamStorageMetrics metrics = new StreamStorageMetrics();
+        ExecutorService spillExecutor = Executors.newSingleThreadExecutor();
+        try {
+            FileStreamStorage storage = FileStreamStorage.deferred(new File(tempFolder.getRoot(), "testStorageOnDisk_backgroundSpill.tmp"), 100)
+                    .spillExecutor(spillExecutor).listener(metrics);
+            storage.write(new byte[60]);
+            storage.write(new byte[60]);
+            storage.close();
+            assertEquals(1, metrics.getSpills());
+            assertEquals(60, metrics.getSpilledBytes());
+            assertEquals(0, metrics.getMemoryBytes());
+            assertEquals(120, metrics.getDiskBytes());
+            storage.dispose();
+        }finally {
+            spillExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDirectBufferStorage() throws IOException {
+        StreamStorageMetrics metrics = new StreamStorageMetrics();
+        DirectBufferPool bufferPool = new DirectBufferPool(16, 64);
+        FileStreamStorage storage = DirectBufferStreamStorage.deferred(new File(tempFolder.getRoot(), "testDirectBufferStorage.tmp"), 100, bufferPool).listener(metrics);
+        storage.write(new byte[20]);
+        assertEquals(32, metrics.getMemoryBytes());
+        storage.write(new byte[60]);
+        assertEquals(0, metrics.getMemoryBytes());
+        assertEquals(1, metrics.getSpills());
+        assertEquals(20, metrics.getSpilledBytes());
+        storage.dispose();
+    }
+
+    @Test
+    public void testSpillTimeHistogram() {
+        StreamStorageMetrics metrics = new StreamStorageMetrics();
+        for (int i = 0; i < 99; i++){
+            metrics.switchedToFile(null, 1, 3000);
+        }
+        metrics.switchedToFile(null, 1, 1000000000L);
+        long[] histogram = metrics.getSpillTimeHistogram();
+        assertEquals(99, histogram[2]);
+        assertEquals(1, histogram[20]);
+        assertEquals(4, metrics.getSpillTimeP99Micros());
+        assertEquals(1 << 20, metrics.getSpillTimePercentileMicros(1));
+        assertEquals(1000000, metrics.getSpillTimeMaxMicros());
+        assertEquals(StreamStorageMetrics.HISTOGRAM_BUCKETS - 1, metrics.getSpillTimeHistogramBoundsMicros().length);
+        assertEquals(0, new StreamStorageMetrics().getSpillTimeP99Micros());
+    }
+
+    @Test
+    public void testBucket() {
+        assertEquals(0, StreamStorageMetrics.bucket(0));
+        assertEquals(1, StreamStorageMetrics.bucket(1));
+        assertEquals(2, StreamStorageMetrics.bucket(2));
+        assertEquals(2, StreamStorageMetrics.bucket(3));
+        assertEquals(3, StreamStorageMetrics.bucket(4));
+        assertEquals(StreamStorageMetrics.HISTOGRAM_BUCKETS - 1, StreamStorageMetrics.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testRegisterMBean() throws Exception {
+        StreamStorageMetrics metrics = new StreamStorageMetrics();
+        metrics.storageCreated(null);
+        ObjectName objectName = metrics.registerMBean("org.synchronoss.cloud.nio.stream.storage:type=StreamStorageMetrics,name=testRegisterMBean");
+        try {
+            assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "StoragesCreated"));
+            assertArrayEquals(new long[StreamStorageMetrics.HISTOGRAM_BUCKETS], (long[]) ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "SpillTimeHistogram"));
+        }finally {
+            metrics.unregisterMBean();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+    }
+
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p> Unit tests for {@link StreamStoragePublisher}
+ *
+ * @author Silvano Riz
+ */
+public class StreamStoragePublisherTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    static class CollectingSubscriber implements ByteBufferSubscriber {
+
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final List<Integer> chunkSizes = new ArrayList<Integer>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final long initialRequest;
+        final boolean requestOnNext;
+        volatile ByteBufferSubscription subscription;
+        volatile boolean completed = false;
+        volatile Throwable error;
+
+        CollectingSubscriber(final long initialRequest, final boolean requestOnNext) {
+            this.initialRequest = initialRequest;
+            this.requestOnNext = requestOnNext;
+        }
+
+        @Override
+        public void onSubscribe(ByteBufferSubscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+        }
+
+        @Override
+        public synchronized void onNext(ByteBuffer byteBuffer) {
+            chunkSizes.add(byteBuffer.remaining());
+            byte[] bytes = new byte[byteBuffer.remaining()];
+            byteBuffer.get(bytes);
+            data.write(bytes, 0, bytes.length);
+            if (requestOnNext) {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            done.countDown();
+        }
+
+        synchronized int chunks() {
+            return chunkSizes.size();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    static byte[] randomData(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    FileStreamStorage storage(byte[] data, int threshold) throws IOException {
+        FileStreamStorage storage = FileStreamStorage.deferred(tempFolder.newFile(), threshold);
+        storage.write(data);
+        storage.close();
+        return storage;
+    }
+
+    @Test
+    public void testPublishMemoryData() throws Exception {
+        byte[] data = randomData(20000);
+        FileStreamStorage storage = storage(data, 100000);
+        assertTrue(storage.isInMemory());
+
+        CollectingSubscriber subscriber = new CollectingSubscriber(1, true);
+        new StreamStoragePublisher(storage, 4096, null).subscribe(subscriber);
+        subscriber.await();
+
+        assertTrue(subscriber.completed);
+        assertArrayEquals(data, subscriber.data.toByteArray());
+        for (int chunkSize : subscriber.chunkSizes) {
+            assertTrue(chunkSize <= 4096);
+        }
+        storage.dispose();
+    }
+
+    @Test
+    public void testPublishFileData() throws Exception {
+        byte[] data = randomData(50000);
+        FileStreamStorage storage = storage(data, 10);
+        assertTrue(!storage.isInMemory());
+
+        CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE, false);
+        new StreamStoragePublisher(storage, 8192, null).subscribe(subscriber);
+        subscriber.await();
+
+        assertTrue(subscriber.completed);
+        assertArrayEquals(data, subscriber.data.toByteArray());
+        assertEquals(7, subscriber.chunks());
+        storage.dispose();
+    }
+
+    @Test
+    public void testPublishInputStreamData() throws Exception {
+        byte[] data = randomData(30000);
+        FileStreamStorage storage = FileStreamStorage.deferred(tempFolder.newFile(), 10).codec(DeflateCodec.fast());
+        storage.write(data);
+        storage.close();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CollectingSubscriber subscriber = new CollectingSubscriber(2, true);
+            new StreamStoragePublisher(storage, 1000, executor).subscribe(subscriber);
+            subscriber.await();
+
+            assertTrue(subscriber.completed);
+            assertArrayEquals(data, subscriber.data.toByteArray());
+        } finally {
+            executor.shutdown();
+            storage.dispose();
+        }
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        byte[] data = randomData(10000);
+        FileStreamStorage storage = storage(data, 10);
+
+        CollectingSubscriber subscriber = new CollectingSubscriber(0, false);
+        new StreamStoragePublisher(storage, 1000, null).subscribe(subscriber);
+        Thread.sleep(50);
+        assertEquals(0, subscriber.chunks());
+
+        subscriber.subscription.request(3);
+        waitForChunks(subscriber, 3);
+        Thread.sleep(50);
+        assertEquals(3, subscriber.chunks());
+
+        subscriber.subscription.request(100);
+        subscriber.await();
+        assertTrue(subscriber.completed);
+        assertEquals(10, subscriber.chunks());
+        assertArrayEquals(data, subscriber.data.toByteArray());
+        storage.dispose();
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        byte[] data = randomData(10000);
+        FileStreamStorage storage = storage(data, 100000);
+
+        CollectingSubscriber subscriber = new CollectingSubscriber(2, false);
+        new StreamStoragePublisher(storage, 1000, null).subscribe(subscriber);
+        assertEquals(2, subscriber.chunks());
+
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(10);
+        assertEquals(2, subscriber.chunks());
+        assertTrue(!subscriber.completed);
+        assertNull(subscriber.error);
+        storage.dispose();
+    }
+
+    @Test
+    public void testInvalidRequest() throws Exception {
+        FileStreamStorage storage = storage(randomData(100), 1000);
+
+        CollectingSubscriber subscriber = new CollectingSubscriber(0, false);
+        new StreamStoragePublisher(storage).subscribe(subscriber);
+        subscriber.subscription.request(0);
+        subscriber.await();
+
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        storage.dispose();
+    }
+
+    @Test
+    public void testPublishStorageInWriteMode() throws Exception {
+        FileStreamStorage storage = FileStreamStorage.deferred(tempFolder.newFile(), 1000);
+        storage.write(randomData(100));
+
+        CollectingSubscriber subscriber = new CollectingSubscriber(1, false);
+        new StreamStoragePublisher(storage).subscribe(subscriber);
+        subscriber.await();
+
+        assertTrue(subscriber.error instanceof IllegalStateException);
+        storage.dispose();
+    }
+
+    void waitForChunks(CollectingSubscriber subscriber, int chunks) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (subscriber.chunks() < chunks && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p> Unit tests for {@link StreamStorageSubscriber}
+ *
+ * @author Silvano Riz
+ */
+public class StreamStorageSubscriberTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    static class Result implements CompletionHandler<Long, StreamStorage> {
+
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Long written;
+        volatile Throwable error;
+
+        @Override
+        public void completed(Long written, StreamStorage streamStorage) {
+            this.written = written;
+            done.countDown();
+        }
+
+        @Override
+        public void failed(Throwable throwable, StreamStorage streamStorage) {
+            this.error = throwable;
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * <p> Publisher emitting the chunks of an array when they are requested, recording the outstanding demand.
+     */
+    static class ArrayPublisher implements ByteBufferPublisher, ByteBufferSubscription {
+
+        final byte[] data;
+        final int chunkSize;
+        final AtomicInteger maxOutstanding = new AtomicInteger(0);
+        ByteBufferSubscriber subscriber;
+        long demand = 0;
+        int position = 0;
+        boolean emitting = false;
+        volatile boolean cancelled = false;
+
+        ArrayPublisher(byte[] data, int chunkSize) {
+            this.data = data;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public void subscribe(ByteBufferSubscriber subscriber) {
+            this.subscriber = subscriber;
+            subscriber.onSubscribe(this);
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            demand += n;
+            maxOutstanding.set(Math.max(maxOutstanding.get(), (int) demand));
+            if (emitting) {
+                return;
+            }
+            emitting = true;
+            while (demand > 0 && position < data.length && !cancelled) {
+                demand--;
+                int length = Math.min(chunkSize, data.length - position);
+                ByteBuffer chunk = ByteBuffer.wrap(data, position, length).slice();
+                position += length;
+                subscriber.onNext(chunk);
+            }
+            if (position == data.length && !cancelled) {
+                position++;
+                subscriber.onComplete();
+            }
+            emitting = false;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    /**
+     * <p> Subscription that never emits, recording the requests.
+     */
+    static class IdleSubscription implements ByteBufferSubscription {
+
+        volatile long requested = 0;
+        volatile boolean cancelled = false;
+
+        @Override
+        public void request(long n) {
+            requested += n;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    static byte[] randomData(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void testWriteOnCallingThread() throws Exception {
+        byte[] data = randomData(20000);
+        FileStreamStorage storage = FileStreamStorage.deferred(tempFolder.newFile(), 5000);
+        Result result = new Result();
+
+        ArrayPublisher publisher = new ArrayPublisher(data, 1000);
+        publisher.subscribe(new StreamStorageSubscriber(storage, 3, null, result));
+        result.await();
+
+        assertEquals(Long.valueOf(data.length), result.written);
+        assertTrue(publisher.maxOutstanding.get() <= 3);
+        InputStream inputStream = storage.getInputStream();
+        assertArrayEquals(data, IOUtils.toByteArray(inputStream));
+        inputStream.close();
+        storage.dispose();
+    }
+
+    @Test
+    public void testWriteOnExecutor() throws Exception {
+        byte[] data = randomData(50000);
+        FileStreamStorage storage = FileStreamStorage.deferred(tempFolder.newFile(), 5000);
+        Result result = new Result();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ArrayPublisher publisher = new ArrayPublisher(data, 777);
+            publisher.subscribe(new StreamStorageSubscriber(storage, 2, executor, result));
+            result.await();
+
+            assertEquals(Long.valueOf(data.length), result.written);
+            InputStream inputStream = storage.getInputStream();
+            assertArrayEquals(data, IOUtils.toByteArray(inputStream));
+            inputStream.close();
+        } finally {
+            executor.shutdown();
+            storage.dispose();
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] data = randomData(40000);
+        FileStreamStorage source = FileStreamStorage.deferred(tempFolder.newFile(), 1000);
+        source.write(data);
+        source.close();
+        FileStreamStorage target = FileStreamStorage.deferred(tempFolder.newFile(), 1000);
+        Result result = new Result();
+
+        new StreamStoragePublisher(source, 4096, null).subscribe(new StreamStorageSubscriber(target, result));
+        result.await();
+
+        assertEquals(Long.valueOf(data.length), result.written);
+        InputStream inputStream = target.getInputStream();
+        assertArrayEquals(data, IOUtils.toByteArray(inputStream));
+        inputStream.close();
+        source.dispose();
+        target.dispose();
+    }
+
+    @Test
+    public void testPublisherFailure() throws Exception {
+        File file = tempFolder.newFile();
+        FileStreamStorage storage = FileStreamStorage.deferred(file, 10).deleteFilesOnDispose();
+        Result result = new Result();
+        StreamStorageSubscriber subscriber = new StreamStorageSubscriber(storage, result);
+        IdleSubscription subscription = new IdleSubscription();
+        subscriber.onSubscribe(subscription);
+        assertEquals(StreamStorageSubscriber.DEFAULT_PREFETCH, subscription.requested);
+        subscriber.onNext(ByteBuffer.wrap(randomData(100)));
+        assertTrue(file.length() > 0);
+        assertEquals(StreamStorageSubscriber.DEFAULT_PREFETCH + 1, subscription.requested);
+        IOException failure = new IOException("Connection reset");
+        subscriber.onError(failure);
+        result.await();
+
+        assertSame(failure, result.error);
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testStorageFailure() throws Exception {
+        FileStreamStorage storage = FileStreamStorage.deferred(tempFolder.newFile(), 1000);
+        storage.close();
+        Result result = new Result();
+
+        ArrayPublisher publisher = new ArrayPublisher(randomData(100), 50);
+        publisher.subscribe(new StreamStorageSubscriber(storage, result));
+        result.await();
+
+        assertTrue(result.error instanceof IllegalStateException);
+        assertTrue(publisher.cancelled);
+    }
+
+    @Test
+    public void testSecondSubscriptionIsCancelled() throws Exception {
+        FileStreamStorage storage = FileStreamStorage.deferred(tempFolder.newFile(), 1000);
+        StreamStorageSubscriber subscriber = new StreamStorageSubscriber(storage, new Result());
+        IdleSubscription first = new IdleSubscription();
+        IdleSubscription second = new IdleSubscription();
+        subscriber.onSubscribe(first);
+        subscriber.onSubscribe(second);
+
+        assertFalse(first.cancelled);
+        assertTrue(second.cancelled);
+        assertEquals(0, second.requested);
+        storage.dispose();
+    }
+
+}
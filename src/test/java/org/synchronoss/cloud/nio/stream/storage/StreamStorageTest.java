@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p> Unit tests for the default methods of {@link StreamStorage}
+ *
+ * @author Silvano Riz
+ */
+public class StreamStorageTest {
+
+    static class ByteArrayStreamStorage extends StreamStorage {
+
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        boolean inputStreamClosed = false;
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(byteArrayOutputStream.toByteArray()){
+                @Override
+                public void close() throws IOException {
+                    inputStreamClosed = true;
+                    super.close();
+                }
+            };
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            byteArrayOutputStream.write(b);
+        }
+
+        @Override
+        public boolean dispose() {
+            return true;
+        }
+    }
+
+    @Test
+    public void testIsOpen_default() {
+        // Implementations written before isOpen() was part of the contract still compile and report an open storage
+        assertTrue(new ByteArrayStreamStorage().isOpen());
+    }
+
+    @Test
+    public void testWrite_ByteBuffers() throws IOException {
+        ByteArrayStreamStorage streamStorage = new ByteArrayStreamStorage();
+        ByteBuffer heap = ByteBuffer.wrap(new byte[]{0x00, 0x01, 0x02, 0x03});
+        heap.position(1);
+        ByteBuffer direct = ByteBuffer.allocateDirect(3);
+        direct.put(new byte[]{0x04, 0x05, 0x06}).flip();
+
+        assertEquals(6, streamStorage.write(new ByteBuffer[]{heap, direct}));
+        assertFalse(heap.hasRemaining());
+        assertFalse(direct.hasRemaining());
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06}, streamStorage.byteArrayOutputStream.toByteArray());
+    }
+
+    @Test
+    public void testTransferTo() throws IOException {
+        ByteArrayStreamStorage streamStorage = new ByteArrayStreamStorage();
+        byte[] data = new byte[20000];
+        for (int i = 0; i < data.length; i++){
+            data[i] = (byte) i;
+        }
+        streamStorage.write(data);
+
+        ByteArrayOutputStream destination = new ByteArrayOutputStream();
+        assertEquals(20000, streamStorage.transferTo(destination));
+        assertArrayEquals(data, destination.toByteArray());
+        assertTrue(streamStorage.inputStreamClosed);
+    }
+
+}
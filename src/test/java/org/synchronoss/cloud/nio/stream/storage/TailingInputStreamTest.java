@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * <p> Unit tests for {@link TailingInputStream}
+ *
+ * @author Silvano Riz
+ */
+public class TailingInputStreamTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static byte[] bytes(final int length){
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++){
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    private static Future<byte[]> readInBackground(final ExecutorService executorService, final InputStream inputStream){
+        return executorService.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                try {
+                    return IOUtils.toByteArray(inputStream);
+                }finally {
+                    inputStream.close();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testRead_followsWriterAcrossSwitchToFile() throws Exception {
+        File file = new File(tempFolder.getRoot(), "testRead_followsWriterAcrossSwitchToFile.tmp");
+        FileStreamStorage storage = FileStreamStorage.deferred(file, 1000).tailing();
+        byte[] data = bytes(5000);
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<byte[]> read = readInBackground(executorService, storage.getInputStream());
+            for (int i = 0; i < data.length; i += 100){
+                if (i % 200 == 0){
+                    storage.write(data, i, 100);
+                }else{
+                    storage.write(ByteBuffer.wrap(data, i, 100));
+                }
+                Thread.sleep(1);
+            }
+            assertFalse(storage.isInMemory());
+            assertFalse(read.isDone());
+            storage.close();
+            assertArrayEquals(data, read.get(5, TimeUnit.SECONDS));
+        }finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRead_blocksUntilClose() throws Exception {
+        File file = new File(tempFolder.getRoot(), "testRead_blocksUntilClose.tmp");
+        FileStreamStorage storage = FileStreamStorage.deferred(file, 10).tailing();
+        InputStream inputStream = storage.getInputStream();
+
+        storage.write(new byte[]{0x01, 0x02, 0x03});
+        assertEquals(3, inputStream.available());
+        assertEquals(0x01, inputStream.read());
+        assertEquals(2, inputStream.skip(5));
+        assertEquals(0, inputStream.available());
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<byte[]> read = readInBackground(executorService, inputStream);
+            try {
+                read.get(100, TimeUnit.MILLISECONDS);
+                fail("The reader should wait for the writer");
+            }catch (TimeoutException e){
+                // Expected
+            }
+            storage.write(0x04);
+            storage.close();
+            assertArrayEquals(new byte[]{0x04}, read.get(5, TimeUnit.SECONDS));
+        }finally {
+            executorService.shutdownNow();
+        }
+
+        // Once closed the storage is read as usual
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04}, IOUtils.toByteArray(storage.getInputStream()));
+    }
+
+    @Test
+    public void testRead_disposed() throws Exception {
+        File file = new File(tempFolder.getRoot(), "testRead_disposed.tmp");
+        FileStreamStorage storage = FileStreamStorage.deferred(file, 10).tailing();
+        storage.write(0x01);
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<byte[]> read = readInBackground(executorService, storage.getInputStream());
+            Thread.sleep(50);
+            storage.dispose();
+            try {
+                read.get(5, TimeUnit.SECONDS);
+                fail("The reader should fail");
+            }catch (ExecutionException e){
+                assertTrue(e.getCause() instanceof IOException);
+                assertEquals("The storage has been disposed", e.getCause().getMessage());
+            }
+        }finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testClose_deleteFilesOnClose() throws Exception {
+        File file = new File(tempFolder.getRoot(), "testClose_deleteFilesOnClose.tmp");
+        FileStreamStorage storage = FileStreamStorage.deferred(file, 2).tailing().deleteFilesOnClose();
+        InputStream inputStream = storage.getInputStream();
+        storage.write(new byte[]{0x01, 0x02, 0x03});
+        assertTrue(file.exists());
+        storage.close();
+
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03}, IOUtils.toByteArray(inputStream));
+        inputStream.close();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testTailing_append() throws IOException {
+        File file = new File(tempFolder.getRoot(), "testTailing_append.tmp");
+        FileStreamStorage existing = FileStreamStorage.directToFile(file, false);
+        existing.write(new byte[]{0x01, 0x02, 0x03});
+        existing.close();
+
+        FileStreamStorage storage = FileStreamStorage.directToFile(file, true);
+        try {
+            storage.tailing();
+            fail("Tailing an appending storage should fail");
+        }catch (IllegalStateException e){
+            // Expected
+        }
+        assertFalse(storage.tailing);
+        storage.dispose();
+        assertEquals(3, file.length());
+    }
+
+    @Test
+    public void testTailing_disablesBackgroundSpillAndWriteBuffer() throws IOException {
+        File file = new File(tempFolder.getRoot(), "testTailing_disablesBackgroundSpillAndWriteBuffer.tmp");
+        ExecutorService spillExecutor = Executors.newSingleThreadExecutor();
+        try {
+            FileStreamStorage storage = FileStreamStorage.deferred(file, 2).spillExecutor(spillExecutor).writeBufferSize(1024).tailing();
+            storage.write(new byte[]{0x01, 0x02, 0x03});
+            storage.write(0x04);
+            // Flushed on the writing thread and not buffered
+            assertEquals(4, file.length());
+            storage.close();
+        }finally {
+            spillExecutor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p> Unit tests for {@link TempFilePool}
+ *
+ * @author Silvano Riz
+ */
+public class TempFilePoolTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File newFile(final String name) throws IOException {
+        File file = new File(tempFolder.getRoot(), name);
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        fileOutputStream.write(new byte[]{0x01, 0x02, 0x03});
+        fileOutputStream.close();
+        return file;
+    }
+
+    @Test
+    public void testAcquireAndRelease() throws IOException {
+        TempFilePool tempFilePool = new TempFilePool(2);
+        assertNull(tempFilePool.acquire());
+
+        File first = newFile("first.tmp");
+        File second = newFile("second.tmp");
+        File third = newFile("third.tmp");
+        assertTrue(tempFilePool.release(first));
+        assertTrue(tempFilePool.release(second));
+        assertEquals(0, first.length());
+        assertEquals(2, tempFilePool.size());
+
+        // Pool full
+        assertFalse(tempFilePool.release(third));
+        assertEquals(3, third.length());
+
+        // The most recently released first
+        assertSame(second, tempFilePool.acquire());
+        assertSame(first, tempFilePool.acquire());
+        assertNull(tempFilePool.acquire());
+        assertEquals(0, tempFilePool.size());
+    }
+
+    @Test
+    public void testRelease_twice() throws IOException {
+        TempFilePool tempFilePool = new TempFilePool(2);
+        File file = newFile("file.tmp");
+        assertTrue(tempFilePool.release(file));
+        assertTrue(tempFilePool.release(file));
+        assertEquals(1, tempFilePool.size());
+
+        assertSame(file, tempFilePool.acquire());
+        assertNull(tempFilePool.acquire());
+    }
+
+    @Test
+    public void testRelease_missingFile() {
+        TempFilePool tempFilePool = new TempFilePool(2);
+        assertFalse(tempFilePool.release(new File(tempFolder.getRoot(), "missing.tmp")));
+        assertEquals(0, tempFilePool.size());
+    }
+
+    @Test
+    public void testEvictIdleFiles() throws Exception {
+        TempFilePool tempFilePool = new TempFilePool(10, 20);
+        File file = newFile("file.tmp");
+        assertTrue(tempFilePool.release(file));
+        assertEquals(0, tempFilePool.evictIdleFiles());
+
+        Thread.sleep(50);
+        assertEquals(1, tempFilePool.evictIdleFiles());
+        assertFalse(file.exists());
+        assertEquals(0, tempFilePool.size());
+        assertNull(tempFilePool.acquire());
+    }
+
+    @Test
+    public void testClear() throws IOException {
+        TempFilePool tempFilePool = new TempFilePool(10);
+        File file = newFile("file.tmp");
+        assertTrue(tempFilePool.release(file));
+        tempFilePool.clear();
+        assertFalse(file.exists());
+        assertEquals(0, tempFilePool.size());
+    }
+
+    @Test
+    public void testStorage_recyclesTheFile() throws IOException {
+        TempFilePool tempFilePool = new TempFilePool(10);
+        File file = new File(tempFolder.getRoot(), "testStorage_recyclesTheFile.tmp");
+        FileStreamStorage storage = FileStreamStorage.deferred(file, 2).deleteFilesOnDispose().tempFilePool(tempFilePool);
+        storage.write(new byte[]{0x01, 0x02, 0x03});
+        storage.close();
+        assertTrue(storage.dispose());
+        assertTrue(file.exists());
+        assertEquals(0, file.length());
+        assertEquals(1, tempFilePool.size());
+
+        // A storage that did not use the pooled file gives it back even if it does not delete the files
+        storage = FileStreamStorage.deferred(tempFilePool.acquire(), 10).tempFilePool(tempFilePool);
+        storage.write(0x01);
+        storage.close();
+        assertTrue(storage.dispose());
+        assertEquals(1, tempFilePool.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_invalidMaxFiles() {
+        new TempFilePool(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_invalidMaxIdleTime() {
+        new TempFilePool(1, -1);
+    }
+
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2015 Synchronoss Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.synchronoss.cloud.nio.stream.storage;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * <p> Unit tests for {@link TieredStreamStorage} and the built-in {@link StorageTier}s
+ *
+ * @author Silvano Riz
+ */
+public class TieredStreamStorageTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testWriteThroughTheTiers() throws IOException {
+        HeapStorageTier heap = new HeapStorageTier(4, -1);
+        DirectBufferStorageTier offHeap = new DirectBufferStorageTier(8, 4, 1024);
+        DirectoryStorageTier ramDisk = new DirectoryStorageTier(tempFolder.newFolder("tmpfs"), 16, -1);
+        DirectoryStorageTier disk = new DirectoryStorageTier(tempFolder.newFolder("disk"));
+        TieredStreamStorage storage = new TieredStreamStorage(Arrays.<StorageTier>asList(heap, offHeap, ramDisk, disk));
+
+        storage.write(new byte[]{0x01, 0x02, 0x03});
+        storage.write(0x04);
+        assertSame(heap, storage.getTier());
+        assertEquals(4, heap.getUsedSize());
+
+        storage.write(ByteBuffer.wrap(new byte[]{0x05}));
+        assertSame(offHeap, storage.getTier());
+        assertEquals(0, heap.getUsedSize());
+        // Rounded up to whole buffers
+        assertEquals(8, offHeap.getUsedSize());
+        assertEquals(8, offHeap.getBufferPool().getUsedMemory());
+
+        storage.write(new byte[]{0x06, 0x07, 0x08, 0x09, 0x0A}, 0, 5);
+        assertSame(ramDisk, storage.getTier());
+        assertEquals(0, offHeap.getUsedSize());
+        assertEquals(0, offHeap.getBufferPool().getUsedMemory());
+        assertEquals(10, ramDisk.getUsedSize());
+        assertEquals(1, ramDisk.getFolder().list().length);
+
+        storage.write(new ByteBuffer[]{ByteBuffer.wrap(new byte[6]), ByteBuffer.wrap(new byte[1])}, 0, 2);
+        assertSame(disk, storage.getTier());
+        assertEquals(3, storage.getTierIndex());
+        assertEquals(0, ramDisk.getUsedSize());
+        assertEquals(0, ramDisk.getFolder().list().length);
+        assertEquals(1, disk.getFolder().list().length);
+        storage.close();
+
+        byte[] expected = new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0A, 0, 0, 0, 0, 0, 0, 0};
+        InputStream inputStream = storage.getInputStream();
+        assertArrayEquals(expected, IOUtils.toByteArray(inputStream));
+        inputStream.close();
+        ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+        assertEquals(expected.length, storage.transferTo(Channels.newChannel(transferred)));
+        assertArrayEquals(expected, transferred.toByteArray());
+
+        assertTrue(storage.dispose());
+        assertEquals(0, disk.getFolder().list().length);
+        assertEquals(0, disk.getUsedSize());
+    }
+
+    @Test
+    public void testFullTierIsSkipped() throws IOException {
+        HeapStorageTier heap = new HeapStorageTier(100, 10);
+        DirectoryStorageTier disk = new DirectoryStorageTier(tempFolder.newFolder("disk"));
+        TieredStreamStorage first = new TieredStreamStorage(Arrays.<StorageTier>asList(heap, disk));
+        TieredStreamStorage second = new TieredStreamStorage(Arrays.<StorageTier>asList(heap, disk));
+
+        first.write(new byte[8]);
+        assertSame(heap, first.getTier());
+        second.write(new byte[3]);
+        assertSame(disk, second.getTier());
+        assertEquals(8, heap.getUsedSize());
+
+        assertTrue(first.dispose());
+        assertEquals(0, heap.getUsedSize());
+        second.close();
+        assertArrayEquals(new byte[3], IOUtils.toByteArray(second.getInputStream()));
+        assertTrue(second.dispose());
+    }
+
+    @Test
+    public void testExpectedSize() throws IOException {
+        HeapStorageTier heap = new HeapStorageTier(10, -1);
+        DirectoryStorageTier disk = new DirectoryStorageTier(tempFolder.newFolder("disk"));
+        assertSame(heap, new TieredStreamStorage(Arrays.<StorageTier>asList(heap, disk), 10).getTier());
+        assertSame(heap, new TieredStreamStorage(Arrays.<StorageTier>asList(heap, disk), -1).getTier());
+        TieredStreamStorage storage = new TieredStreamStorage(Arrays.<StorageTier>asList(heap, disk), 11);
+        assertSame(disk, storage.getTier());
+        assertTrue(storage.dispose());
+    }
+
+    @Test
+    public void testNoTierCanStoreTheData() throws IOException {
+        TieredStreamStorage storage = new TieredStreamStorage(Collections.<StorageTier>singletonList(new HeapStorageTier(2, -1)));
+        storage.write(new byte[2]);
+        try {
+            storage.write(0x01);
+            fail("Expected an IllegalStateException");
+        }catch (IllegalStateException e){
+            // Expected
+        }
+        assertTrue(storage.dispose());
+    }
+
+    @Test
+    public void testStates() throws IOException {
+        TieredStreamStorage storage = new TieredStreamStorage(Collections.<StorageTier>singletonList(new HeapStorageTier(2, -1)));
+        assertTrue(storage.isOpen());
+        try {
+            storage.getInputStream();
+            fail("Expected an IllegalStateException");
+        }catch (IllegalStateException e){
+            // Expected
+        }
+        storage.close();
+        assertFalse(storage.isOpen());
+        try {
+            storage.write(0x01);
+            fail("Expected an IllegalStateException");
+        }catch (IllegalStateException e){
+            // Expected
+        }
+        assertTrue(storage.dispose());
+        assertTrue(storage.dispose());
+    }
+
+    @Test
+    public void testFailedWrite() throws IOException {
+        HeapStorageTier failing = new FailingStorageTier(10, 100);
+        TieredStreamStorage storage = new TieredStreamStorage(Collections.<StorageTier>singletonList(failing));
+        try {
+            storage.write(new byte[4]);
+            fail("Expected an IOException");
+        }catch (IOException e){
+            // Expected
+        }
+        assertEquals(0, failing.getUsedSize());
+        assertFalse(storage.isOpen());
+        assertFailed(storage);
+        assertTrue(storage.dispose());
+        assertEquals(0, failing.getUsedSize());
+    }
+
+    @Test
+    public void testFailedMove() throws IOException {
+        HeapStorageTier heap = new HeapStorageTier(4, 100);
+        HeapStorageTier failing = new FailingStorageTier(10, 100);
+        TieredStreamStorage storage = new TieredStreamStorage(Arrays.<StorageTier>asList(heap, failing));
+        storage.write(new byte[4]);
+        try {
+            storage.write(0x01);
+            fail("Expected an IOException");
+        }catch (IOException e){
+            // Expected
+        }
+        assertSame(heap, storage.getTier());
+        assertEquals(0, heap.getUsedSize());
+        assertEquals(0, failing.getUsedSize());
+        assertFalse(storage.isOpen());
+        assertFailed(storage);
+        assertTrue(storage.dispose());
+        assertEquals(0, heap.getUsedSize());
+    }
+
+    static void assertFailed(final TieredStreamStorage storage) throws IOException {
+        try {
+            storage.write(0x01);
+            fail("Expected an IllegalStateException");
+        }catch (IllegalStateException e){
+            assertEquals("The TieredStreamStorage failed to store the data", e.getMessage());
+        }
+        try {
+            storage.getInputStream();
+            fail("Expected an IllegalStateException");
+        }catch (IllegalStateException e){
+            assertEquals("The TieredStreamStorage failed to store the data", e.getMessage());
+        }
+    }
+
+    static class FailingStorageTier extends HeapStorageTier {
+
+        FailingStorageTier(final int threshold, final long maxMemory) {
+            super(threshold, maxMemory);
+        }
+
+        @Override
+        public StreamStorage newStorage() {
+            return new StreamStorage() {
+                @Override
+                public InputStream getInputStream() {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public void write(final int b) throws IOException {
+                    throw new IOException("Broken tier");
+                }
+
+                @Override
+                public boolean dispose() {
+                    return true;
+                }
+            };
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoTiers() {
+        new TieredStreamStorage(Collections.<StorageTier>emptyList());
+    }
+
+    @Test
+    public void testFactory() throws IOException {
+        HeapStorageTier heap = new HeapStorageTier(10, -1);
+        DirectoryStorageTier disk = new DirectoryStorageTier(tempFolder.newFolder("disk"));
+        TieredStreamStorageFactory factory = new TieredStreamStorageFactory(heap, disk);
+        assertEquals(Arrays.<StorageTier>asList(heap, disk), factory.getTiers());
+
+        TieredStreamStorage small = (TieredStreamStorage) factory.create();
+        assertSame(heap, small.getTier());
+        TieredStreamStorage large = (TieredStreamStorage) factory.create(100);
+        assertSame(disk, large.getTier());
+        assertTrue(small.dispose());
+        assertTrue(large.dispose());
+    }
+
+}